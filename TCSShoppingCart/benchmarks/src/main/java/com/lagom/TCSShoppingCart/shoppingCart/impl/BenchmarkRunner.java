@@ -0,0 +1,25 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so every result also reports the
+ * allocation rate and bytes allocated per operation, and writes the results to
+ * {@code jmh-result.json}.
+ * <p>
+ * Takes the usual JMH command line options, for example:
+ * java -jar benchmarks/target/benchmarks.jar ShoppingCartStateBenchmark -p items=100
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder().parent(new CommandLineOptions(args)).addProfiler(GCProfiler.class)
+				.resultFormat(ResultFormatType.JSON).result("jmh-result.json").build();
+		new Runner(options).run();
+	}
+}
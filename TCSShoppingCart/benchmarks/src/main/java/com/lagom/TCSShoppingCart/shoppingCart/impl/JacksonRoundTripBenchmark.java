@@ -0,0 +1,163 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pcollections.HashTreePMap;
+import org.pcollections.PMap;
+
+import com.lightbend.lagom.serialization.CompressedJsonable;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ExtendedActorSystem;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.Adapter;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.serialization.Serialization;
+import akka.serialization.Serialization$;
+import akka.serialization.SerializationExtension;
+import akka.serialization.Serializer;
+import akka.serialization.Serializers;
+
+/**
+ * Jackson round trips (serialize and deserialize) of every event, every command
+ * and the state, through the same Akka serializers Lagom binds to
+ * {@code Jsonable} and {@code CompressedJsonable}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JacksonRoundTripBenchmark {
+
+	/**
+	 * Akka's serializer id for jackson-json, bound to Jsonable.
+	 */
+	private static final int JACKSON_JSON_ID = 31;
+
+	/**
+	 * Lagom's serializer id for jackson-json-compressed, bound to
+	 * CompressedJsonable.
+	 */
+	private static final int JACKSON_COMPRESSED_ID = 1000005;
+
+	@Param({ "GreetingMessageChanged", "ItemAdded", "ItemRemoved", "ItemQuantityAdjusted", "ItemsUpdated",
+			"CheckedOut", "UseGreetingMessage", "Hello", "AddItem", "RemoveItem", "AdjustItemQuantity", "UpdateItems",
+			"ReplaceItems", "Get", "Checkout", "State" })
+	public String message;
+
+	private ActorSystem<Void> system;
+	private Serialization serialization;
+	private Serializer serializer;
+	private Object value;
+	private byte[] bytes;
+	private String manifest;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		system = ActorSystem.create(Behaviors.empty(), "benchmark", ConfigFactory.load());
+		serialization = SerializationExtension.get(Adapter.toClassic(system));
+		value = create(message, system.deadLetters());
+		int serializerId = value instanceof CompressedJsonable ? JACKSON_COMPRESSED_ID : JACKSON_JSON_ID;
+		serializer = serialization.serializerByIdentity().get(serializerId).get();
+		bytes = toBinary();
+		manifest = Serializers.manifestFor(serializer, value);
+		System.out.printf("%n%s: %d bytes%n", message, bytes.length);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		system.terminate();
+	}
+
+	@Benchmark
+	public Object roundTrip() {
+		byte[] serialized = toBinary();
+		return serialization.deserialize(serialized, serializer.identifier(), manifest).get();
+	}
+
+	@Benchmark
+	public byte[] serialize() {
+		return toBinary();
+	}
+
+	@Benchmark
+	public Object deserialize() {
+		return serialization.deserialize(bytes, serializer.identifier(), manifest).get();
+	}
+
+	/**
+	 * Serialize with the transport information set, as Serialization.serialize
+	 * does, so that the replyTo of the commands can be serialized.
+	 */
+	private byte[] toBinary() {
+		return Serialization$.MODULE$.withTransportInformation((ExtendedActorSystem) Adapter.toClassic(system),
+				() -> serializer.toBinary(value));
+	}
+
+	private static <T> Object create(String message, ActorRef<T> replyTo) {
+		String cartId = "2d7e3a52-7c1b-4d2f-9a53-0b6f6f2f0c11";
+		Instant now = Instant.now();
+		Map<String, Integer> items = new HashMap<>();
+		for (int i = 0; i < 10; i++) {
+			items.put(ShoppingCartStateBenchmark.itemId(i), i + 1);
+		}
+		PMap<String, Integer> pitems = HashTreePMap.from(items);
+
+		switch (message) {
+		case "GreetingMessageChanged":
+			return new ShoppingCartEvent.GreetingMessageChanged(cartId, "Hi");
+		case "ItemAdded":
+			return new ShoppingCartEvent.ItemAdded(cartId, "SKU-00000001", 2, now, null);
+		case "ItemRemoved":
+			return new ShoppingCartEvent.ItemRemoved(cartId, "SKU-00000001", now, null);
+		case "ItemQuantityAdjusted":
+			return new ShoppingCartEvent.ItemQuantityAdjusted(cartId, "SKU-00000001", 3, now, null);
+		case "ItemsUpdated":
+			return new ShoppingCartEvent.ItemsUpdated(cartId, pitems, HashTreePMap.empty(), now, null);
+		case "CheckedOut":
+			return new ShoppingCartEvent.CheckedOut(cartId, pitems, now, null);
+		case "UseGreetingMessage":
+			return new ShoppingCartCommand.UseGreetingMessage("Hi", replyTo.unsafeUpcast());
+		case "Hello":
+			return new ShoppingCartCommand.Hello("Alice", replyTo.unsafeUpcast());
+		case "AddItem":
+			return new ShoppingCartCommand.AddItem("SKU-00000001", 2, Optional.empty(), replyTo.unsafeUpcast());
+		case "RemoveItem":
+			return new ShoppingCartCommand.RemoveItem("SKU-00000001", Optional.empty(), replyTo.unsafeUpcast());
+		case "AdjustItemQuantity":
+			return new ShoppingCartCommand.AdjustItemQuantity("SKU-00000001", 3, Optional.empty(), replyTo.unsafeUpcast());
+		case "UpdateItems":
+			return new ShoppingCartCommand.UpdateItems(items, Optional.empty(), replyTo.unsafeUpcast());
+		case "ReplaceItems":
+			return new ShoppingCartCommand.ReplaceItems(items, Optional.empty(), replyTo.unsafeUpcast());
+		case "Get":
+			return new ShoppingCartCommand.Get(replyTo.unsafeUpcast());
+		case "Checkout":
+			return new ShoppingCartCommand.Checkout(Optional.empty(), replyTo.unsafeUpcast());
+		case "State":
+			return new ShoppingCartState(pitems, now);
+		default:
+			throw new IllegalArgumentException("Unknown message " + message);
+		}
+	}
+}
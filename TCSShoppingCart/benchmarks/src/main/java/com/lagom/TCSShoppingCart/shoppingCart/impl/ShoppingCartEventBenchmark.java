@@ -0,0 +1,130 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pcollections.HashTreePMap;
+import org.pcollections.PMap;
+
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorSystem;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.Serializer;
+import akka.serialization.Serializers;
+
+/**
+ * Compares journal encoding and replay decoding of the cart events between the
+ * Jackson (Jsonable) serializer and {@link ShoppingCartEventSerializer}. Event
+ * sizes are printed during setup.
+ * <p>
+ * Run with: java -jar benchmarks/target/benchmarks.jar ShoppingCartEventBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShoppingCartEventBenchmark {
+
+	/**
+	 * Akka's serializer id for jackson-json, bound to Jsonable.
+	 */
+	private static final int JACKSON_JSON_ID = 31;
+
+	@Param({ "ItemAdded", "ItemRemoved", "ItemQuantityAdjusted", "ItemsUpdated", "CheckedOut" })
+	public String event;
+
+	private ActorSystem system;
+	private Serialization serialization;
+	private Serializer jackson;
+	private ShoppingCartEventSerializer binary;
+
+	private ShoppingCartEvent value;
+	private byte[] jsonEvent;
+	private String jsonManifest;
+	private byte[] binaryEvent;
+	private String binaryManifest;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		system = ActorSystem.create("benchmark", ConfigFactory.load());
+		serialization = SerializationExtension.get(system);
+		jackson = serialization.serializerByIdentity().get(JACKSON_JSON_ID).get();
+		binary = new ShoppingCartEventSerializer();
+
+		value = create(event);
+		jsonEvent = jackson.toBinary(value);
+		jsonManifest = Serializers.manifestFor(jackson, value);
+		binaryEvent = binary.toBinary(value);
+		binaryManifest = binary.manifest(value);
+		System.out.printf("%n%s: jackson %d bytes, binary %d bytes%n", event, jsonEvent.length, binaryEvent.length);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		system.terminate();
+	}
+
+	@Benchmark
+	public byte[] jacksonWrite() {
+		return jackson.toBinary(value);
+	}
+
+	@Benchmark
+	public byte[] binaryWrite() {
+		return binary.toBinary(value);
+	}
+
+	@Benchmark
+	public Object jacksonReplay() {
+		return serialization.deserialize(jsonEvent, JACKSON_JSON_ID, jsonManifest).get();
+	}
+
+	@Benchmark
+	public Object binaryReplay() {
+		return serialization.deserialize(binaryEvent, ShoppingCartEventSerializer.IDENTIFIER, binaryManifest).get();
+	}
+
+	private static ShoppingCartEvent create(String event) {
+		String cartId = "2d7e3a52-7c1b-4d2f-9a53-0b6f6f2f0c11";
+		Instant now = Instant.now();
+		Map<String, Integer> items = new HashMap<>();
+		for (int i = 0; i < 10; i++) {
+			items.put(ShoppingCartStateBenchmark.itemId(i), i + 1);
+		}
+		PMap<String, Integer> pitems = HashTreePMap.from(items);
+
+		switch (event) {
+		case "ItemAdded":
+			return new ShoppingCartEvent.ItemAdded(cartId, "SKU-00000001", 2, now, null);
+		case "ItemRemoved":
+			return new ShoppingCartEvent.ItemRemoved(cartId, "SKU-00000001", now, null);
+		case "ItemQuantityAdjusted":
+			return new ShoppingCartEvent.ItemQuantityAdjusted(cartId, "SKU-00000001", 3, now, null);
+		case "ItemsUpdated":
+			return new ShoppingCartEvent.ItemsUpdated(cartId, pitems, HashTreePMap.empty(), now, null);
+		case "CheckedOut":
+			return new ShoppingCartEvent.CheckedOut(cartId, pitems, now, null);
+		default:
+			throw new IllegalArgumentException("Unknown event " + event);
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartView;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartCommand.Summary;
+
+/**
+ * The state transitions applied for every event, and the conversions done for
+ * every reply, at cart sizes from 1 to 10k items.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShoppingCartStateBenchmark {
+
+	@Param({ "1", "10", "100", "1000", "10000" })
+	public int items;
+
+	private ShoppingCartState state;
+	private String existingItem;
+	private String newItem;
+	private Summary summary;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		state = ShoppingCartState.EMPTY;
+		for (int i = 0; i < items; i++) {
+			state = state.updateItem(itemId(i), 1 + i % 5);
+		}
+		existingItem = itemId(items / 2);
+		newItem = itemId(items);
+		summary = ShoppingCartState.toSummary(state, items);
+	}
+
+	@Benchmark
+	public ShoppingCartState addItem() {
+		return state.updateItem(newItem, 3);
+	}
+
+	@Benchmark
+	public ShoppingCartState adjustItem() {
+		return state.updateItem(existingItem, 3);
+	}
+
+	@Benchmark
+	public ShoppingCartState removeItem() {
+		return state.removeItem(existingItem);
+	}
+
+	@Benchmark
+	public boolean hasItem() {
+		return state.hasItem(existingItem);
+	}
+
+	@Benchmark
+	public Summary toSummary() {
+		return ShoppingCartState.toSummary(state, items);
+	}
+
+	@Benchmark
+	public ShoppingCartView asShoppingCartView() {
+		return ShoppingCartServiceImpl.asShoppingCartView("cart", summary);
+	}
+
+	static String itemId(int i) {
+		return "SKU-" + String.format("%08d", i);
+	}
+}
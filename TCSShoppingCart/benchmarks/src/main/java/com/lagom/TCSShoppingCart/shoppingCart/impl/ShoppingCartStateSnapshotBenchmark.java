@@ -0,0 +1,112 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorSystem;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.Serializer;
+import akka.serialization.Serializers;
+
+/**
+ * Compares snapshot encoding and recovery decoding of {@link ShoppingCartState}
+ * between the Jackson (CompressedJsonable) serializer and
+ * {@link ShoppingCartStateSerializer}. Snapshot sizes are printed during setup.
+ * <p>
+ * Run with: java -jar benchmarks/target/benchmarks.jar ShoppingCartStateSnapshotBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShoppingCartStateSnapshotBenchmark {
+
+	/**
+	 * Lagom's serializer id for CompressedJsonable.
+	 */
+	private static final int JACKSON_COMPRESSED_ID = 1000005;
+
+	@Param({ "10", "100", "1000", "10000" })
+	public int items;
+
+	/**
+	 * Whether the binary snapshots front code the item ids (version 2).
+	 */
+	@Param({ "false", "true" })
+	public boolean frontCoded;
+
+	private ActorSystem system;
+	private Serialization serialization;
+	private Serializer jackson;
+	private ShoppingCartStateSerializer binary;
+
+	private ShoppingCartState state;
+	private byte[] jsonSnapshot;
+	private String jsonManifest;
+	private byte[] binarySnapshot;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		system = ActorSystem.create("benchmark", ConfigFactory.load());
+		serialization = SerializationExtension.get(system);
+		jackson = serialization.serializerByIdentity().get(JACKSON_COMPRESSED_ID).get();
+		binary = new ShoppingCartStateSerializer(frontCoded);
+
+		state = ShoppingCartState.EMPTY;
+		for (int i = 0; i < items; i++) {
+			state = state.updateItem("SKU-" + String.format("%08d", i), 1 + i % 5);
+		}
+		state = state.checkout(Instant.now());
+
+		jsonSnapshot = jackson.toBinary(state);
+		jsonManifest = Serializers.manifestFor(jackson, state);
+		binarySnapshot = binary.toBinary(state);
+		System.out.printf("%n%d items: jackson snapshot %d bytes, binary snapshot %d bytes (front coded: %b)%n",
+				items, jsonSnapshot.length, binarySnapshot.length, frontCoded);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		system.terminate();
+	}
+
+	@Benchmark
+	public byte[] jacksonSnapshot() {
+		return jackson.toBinary(state);
+	}
+
+	@Benchmark
+	public byte[] binarySnapshot() {
+		return binary.toBinary(state);
+	}
+
+	@Benchmark
+	public Object jacksonRecovery() {
+		return serialization.deserialize(jsonSnapshot, JACKSON_COMPRESSED_ID, jsonManifest).get();
+	}
+
+	@Benchmark
+	public Object binaryRecovery() {
+		return serialization.deserialize(binarySnapshot, ShoppingCartStateSerializer.IDENTIFIER,
+				ShoppingCartStateSerializer.STATE_MANIFEST).get();
+	}
+}
@@ -10,12 +10,16 @@ import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import com.lagom.TCSShoppingCart.stream.api.StreamService;
-import com.lagom.TCSShoppingCart.shoppingCart.api.GreetingMessage;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartItem;
 import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartService;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartView;
 
 import java.net.URI;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.TimeUnit;
 
@@ -45,15 +49,20 @@ public class StreamIT {
    
 
     @Test
-    public void helloStream() throws Exception {
+    public void directStream() throws Exception {
+        await(shoppingCartService.addItem("stream-it-1").invoke(new ShoppingCartItem("apple", 2)));
+        await(shoppingCartService.addItem("stream-it-2").invoke(new ShoppingCartItem("pear", 1)));
         // Important to concat our source with a maybe, this ensures the connection doesn't get closed once we've
-        // finished feeding our elements in, and then also to take 3 from the response stream, this ensures our
-        // connection does get closed once we've received the 3 elements.
-        Source<String, ?> response = await(streamService.directStream().invoke(
-                Source.from(Arrays.asList("a", "b", "c"))
+        // finished feeding our elements in, and then also to take 2 from the response stream, this ensures our
+        // connection does get closed once we've received the 2 elements. Views come back in completion order.
+        Source<ShoppingCartView, ?> response = await(streamService.directStream().invoke(
+                Source.from(Arrays.asList("stream-it-1", "stream-it-2"))
                         .concat(Source.maybe())));
-        List<String> messages = await(response.take(3).runWith(Sink.seq(), mat));
-        assertEquals(Arrays.asList("Hello, a!", "Hello, b!", "Hello, c!"), messages);
+        List<ShoppingCartView> views = await(response.take(2).runWith(Sink.seq(), mat));
+        Map<String, ShoppingCartView> byId = new HashMap<>();
+        views.forEach(view -> byId.put(view.id, view));
+        assertEquals(Optional.of(new ShoppingCartItem("apple", 2)), byId.get("stream-it-1").get("apple"));
+        assertEquals(Optional.of(new ShoppingCartItem("pear", 1)), byId.get("stream-it-2").get("pear"));
     }
 
     private <T> T await(CompletionStage<T> future) throws Exception {
@@ -0,0 +1,37 @@
+package com.lagom.TCSShoppingCart.loadtest;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Picks cart slots from a Zipf distribution: slot <code>k</code> is picked with
+ * a probability proportional to <code>1 / (k + 1)^skew</code>, so the lowest
+ * slots are the hot carts. A skew of 0 picks every slot equally often.
+ */
+final class CartPicker {
+
+	private final double[] cumulative;
+
+	CartPicker(int carts, double skew) {
+		this.cumulative = new double[carts];
+		double total = 0;
+		for (int k = 0; k < carts; k++) {
+			total += 1 / Math.pow(k + 1, skew);
+			cumulative[k] = total;
+		}
+	}
+
+	int pick(Random random) {
+		double target = random.nextDouble() * cumulative[cumulative.length - 1];
+		int index = Arrays.binarySearch(cumulative, target);
+		return Math.min(index < 0 ? -index - 1 : index, cumulative.length - 1);
+	}
+
+	/**
+	 * The share of all picks that goes to the given number of hottest slots.
+	 */
+	double shareOfHottest(int slots) {
+		int last = Math.min(slots, cumulative.length) - 1;
+		return last < 0 ? 0 : cumulative[last] / cumulative[cumulative.length - 1];
+	}
+}
@@ -0,0 +1,195 @@
+package com.lagom.TCSShoppingCart.loadtest;
+
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import com.lagom.TCSShoppingCart.loadtest.LoadTestSettings.Operation;
+import com.lagom.TCSShoppingCart.shoppingCart.api.Quantity;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartItem;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartService;
+import com.lightbend.lagom.javadsl.api.transport.TransportException;
+import com.lightbend.lagom.javadsl.testkit.ServiceTest;
+
+/**
+ * Drives a configurable mix of requests against an in-process shopping cart
+ * service and reports latency percentiles, throughput and the projection lag
+ * of the shopping-cart-report read side.
+ * <p>
+ * The service runs in a Lagom test server with a single node cluster, the
+ * journal, snapshots, read side offsets and the report table live in an
+ * in-memory H2 database. The report table is written through the load-test
+ * persistence unit, which uses the H2 dialect. The batching report handler
+ * needs PostgreSQL and can't be load tested this way. The numbers are meant to
+ * compare changes to the service with each other, not to size a production
+ * deployment.
+ * <p>
+ * Run with: mvn -pl load-test exec:java -Dload-test.carts=10000, see
+ * load-test.conf for all settings. Service settings such as
+ * -Dshopping-cart.passivation.max-active=1000 are picked up as well.
+ */
+public final class LoadTest {
+
+	private final LoadTestSettings settings;
+	private final ShoppingCartService client;
+	private final CartPicker cartPicker;
+	private final ProjectionLag projectionLag;
+
+	/**
+	 * The generation of the cart in each slot. A slot moves on to a new cart
+	 * once its cart has been checked out.
+	 */
+	private final AtomicIntegerArray generations;
+
+	private final Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+	private final Map<Operation, AtomicLong> rejections = new EnumMap<>(Operation.class);
+	private final Map<Operation, AtomicLong> failures = new EnumMap<>(Operation.class);
+
+	LoadTest(LoadTestSettings settings, ShoppingCartService client, ScheduledExecutorService scheduler) {
+		this.settings = settings;
+		this.client = client;
+		this.cartPicker = new CartPicker(settings.carts, settings.skew);
+		this.generations = new AtomicIntegerArray(settings.carts);
+		long expectedCheckouts = Math.round(settings.requests * settings.share(Operation.CHECKOUT));
+		this.projectionLag = new ProjectionLag(client, scheduler, settings, expectedCheckouts);
+		for (Operation operation : Operation.values()) {
+			latencies.put(operation, new ConcurrentHistogram(3));
+			rejections.put(operation, new AtomicLong());
+			failures.put(operation, new AtomicLong());
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		LoadTestSettings settings = LoadTestSettings.load();
+		// The default persistence unit is bound to PostgreSQL, the load-test unit to H2
+		ServiceTest.TestServer server = ServiceTest.startServer(ServiceTest.defaultSetup().withJdbc().withCluster()
+				.configureBuilder(builder -> builder.configure("lagom.persistence.jpa.persistence-unit", "load-test")));
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		try {
+			LoadTest loadTest = new LoadTest(settings, server.client(ShoppingCartService.class), scheduler);
+			loadTest.printSettings(System.out);
+			long elapsedNanos = loadTest.run();
+			loadTest.projectionLag.awaitSamples();
+			loadTest.printReport(System.out, elapsedNanos);
+		} finally {
+			scheduler.shutdownNow();
+			server.stop();
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Sends all requests, keeping at most the configured number in flight, and
+	 * returns the time it took for all of them to complete.
+	 */
+	long run() throws InterruptedException {
+		Semaphore inFlight = new Semaphore(settings.concurrency);
+		Random random = new Random();
+		long start = System.nanoTime();
+		for (long i = 0; i < settings.requests; i++) {
+			inFlight.acquire();
+			Operation operation = settings.pickOperation(random);
+			int slot = cartPicker.pick(random);
+			long sent = System.nanoTime();
+			send(operation, slot, random).whenComplete((result, error) -> {
+				latencies.get(operation).recordValue(System.nanoTime() - sent);
+				if (error != null)
+					countError(operation, error);
+				inFlight.release();
+			});
+		}
+		inFlight.acquire(settings.concurrency);
+		return System.nanoTime() - start;
+	}
+
+	private CompletionStage<?> send(Operation operation, int slot, Random random) {
+		int generation = generations.get(slot);
+		String cartId = "cart-" + slot + "-" + generation;
+		String itemId = "item-" + random.nextInt(settings.items);
+		switch (operation) {
+		case ADD:
+			return client.addItem(cartId).invoke(new ShoppingCartItem(itemId, 1 + random.nextInt(5)));
+		case REMOVE:
+			return client.removeItem(cartId, itemId).invoke();
+		case ADJUST:
+			return client.adjustItemQuantity(cartId, itemId).invoke(new Quantity(1 + random.nextInt(5)));
+		case GET:
+			return client.get(cartId).invoke();
+		case CHECKOUT:
+			return client.checkout(cartId).invoke().thenApply(done -> {
+				long checkedOut = System.nanoTime();
+				// Later requests for this slot go to a fresh cart
+				generations.compareAndSet(slot, generation, generation + 1);
+				projectionLag.checkedOut(cartId, checkedOut);
+				return done;
+			});
+		default:
+			throw new IllegalArgumentException("Unknown operation: " + operation);
+		}
+	}
+
+	/**
+	 * Client errors are expected, e.g. removing an item that is not in the cart or
+	 * checking out an empty cart, and are counted as rejections.
+	 */
+	private void countError(Operation operation, Throwable error) {
+		Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+		if (cause instanceof TransportException && ((TransportException) cause).errorCode().http() < 500)
+			rejections.get(operation).incrementAndGet();
+		else
+			failures.get(operation).incrementAndGet();
+	}
+
+	private void printSettings(PrintStream out) {
+		out.printf("%,d requests over %,d carts (skew %.2f, the hottest 1%% get %.1f%% of the requests), "
+				+ "%d in flight%n", settings.requests, settings.carts, settings.skew,
+				100 * cartPicker.shareOfHottest(Math.max(1, settings.carts / 100)), settings.concurrency);
+		StringBuilder mix = new StringBuilder("mix:");
+		settings.mix().forEach((operation, share) -> mix.append(String.format(" %s %.0f%%", operation, 100 * share)));
+		out.println(mix);
+	}
+
+	private void printReport(PrintStream out, long elapsedNanos) {
+		double seconds = elapsedNanos / 1e9;
+		Histogram all = new Histogram(3);
+		out.println();
+		printHeader(out, "operation");
+		for (Operation operation : Operation.values()) {
+			Histogram histogram = latencies.get(operation);
+			all.add(histogram);
+			printRow(out, operation.name(), histogram, rejections.get(operation).get(), failures.get(operation).get());
+		}
+		printRow(out, "all", all, rejections.values().stream().mapToLong(AtomicLong::get).sum(),
+				failures.values().stream().mapToLong(AtomicLong::get).sum());
+		out.printf("%nthroughput: %,.0f requests/s over %.1f s%n", all.getTotalCount() / seconds, seconds);
+		projectionLag.print(out);
+	}
+
+	static void printHeader(PrintStream out, String name) {
+		out.printf("%-10s %10s %9s %7s %9s %9s %9s %9s %9s%n", name, "count", "rejected", "failed", "p50 ms", "p90 ms",
+				"p99 ms", "p99.9 ms", "max ms");
+	}
+
+	static void printRow(PrintStream out, String name, Histogram histogram, long rejected, long failed) {
+		out.printf("%-10s %,10d %,9d %,7d %9.2f %9.2f %9.2f %9.2f %9.2f%n", name, histogram.getTotalCount(), rejected,
+				failed, millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(90)),
+				millis(histogram.getValueAtPercentile(99)), millis(histogram.getValueAtPercentile(99.9)),
+				millis(histogram.getMaxValue()));
+	}
+
+	private static double millis(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+}
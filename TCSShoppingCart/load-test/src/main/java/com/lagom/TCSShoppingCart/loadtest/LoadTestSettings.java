@@ -0,0 +1,92 @@
+package com.lagom.TCSShoppingCart.loadtest;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+import com.google.common.base.Preconditions;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+/**
+ * Settings of the load test, read from the <code>load-test</code> section of
+ * <code>load-test.conf</code>.
+ */
+final class LoadTestSettings {
+
+	/**
+	 * The operations the load test sends to the service.
+	 */
+	enum Operation {
+		ADD, REMOVE, ADJUST, GET, CHECKOUT
+	}
+
+	final int carts;
+	final long requests;
+	final int concurrency;
+	final double skew;
+	final int items;
+	final int lagSamples;
+	final Duration lagPollInterval;
+	final Duration lagTimeout;
+
+	private final Operation[] operations = Operation.values();
+	private final int[] cumulativeWeights = new int[operations.length];
+
+	LoadTestSettings(Config config) {
+		this.carts = config.getInt("carts");
+		this.requests = config.getLong("requests");
+		this.concurrency = config.getInt("concurrency");
+		this.skew = config.getDouble("skew");
+		this.items = config.getInt("items");
+		this.lagSamples = config.getInt("projection-lag.samples");
+		this.lagPollInterval = config.getDuration("projection-lag.poll-interval");
+		this.lagTimeout = config.getDuration("projection-lag.timeout");
+
+		Preconditions.checkArgument(carts > 0, "carts must be positive");
+		Preconditions.checkArgument(concurrency > 0, "concurrency must be positive");
+		Preconditions.checkArgument(skew >= 0, "skew must not be negative");
+		Preconditions.checkArgument(items > 0, "items must be positive");
+
+		int total = 0;
+		for (Operation operation : operations) {
+			int weight = config.getInt("mix." + operation.name().toLowerCase());
+			Preconditions.checkArgument(weight >= 0, "weight of %s must not be negative", operation);
+			total += weight;
+			cumulativeWeights[operation.ordinal()] = total;
+		}
+		Preconditions.checkArgument(total > 0, "at least one operation must have a weight");
+	}
+
+	static LoadTestSettings load() {
+		Config config = ConfigFactory.defaultOverrides()
+				.withFallback(ConfigFactory.parseResources("load-test.conf"))
+				.resolve();
+		return new LoadTestSettings(config.getConfig("load-test"));
+	}
+
+	/**
+	 * The weight of an operation relative to all operations.
+	 */
+	double share(Operation operation) {
+		int ordinal = operation.ordinal();
+		int weight = cumulativeWeights[ordinal] - (ordinal == 0 ? 0 : cumulativeWeights[ordinal - 1]);
+		return (double) weight / cumulativeWeights[cumulativeWeights.length - 1];
+	}
+
+	Operation pickOperation(Random random) {
+		int pick = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+		int i = 0;
+		while (pick >= cumulativeWeights[i])
+			i++;
+		return operations[i];
+	}
+
+	Map<Operation, Double> mix() {
+		Map<Operation, Double> mix = new EnumMap<>(Operation.class);
+		for (Operation operation : operations)
+			mix.put(operation, share(operation));
+		return mix;
+	}
+}
@@ -0,0 +1,83 @@
+package com.lagom.TCSShoppingCart.loadtest;
+
+import java.io.PrintStream;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartService;
+
+/**
+ * Measures the projection lag of the shopping-cart-report read side: the time
+ * from a checkout being acknowledged until the report shows its checkout date.
+ * A sample of the checkouts is followed by polling the report.
+ */
+final class ProjectionLag {
+
+	private final ShoppingCartService client;
+	private final ScheduledExecutorService scheduler;
+	private final int samples;
+	private final long sampleEvery;
+	private final long pollIntervalNanos;
+	private final long timeoutNanos;
+
+	private final Histogram lag = new ConcurrentHistogram(3);
+	private final AtomicLong checkouts = new AtomicLong();
+	private final AtomicInteger started = new AtomicInteger();
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicInteger timedOut = new AtomicInteger();
+
+	ProjectionLag(ShoppingCartService client, ScheduledExecutorService scheduler, LoadTestSettings settings,
+			long expectedCheckouts) {
+		this.client = client;
+		this.scheduler = scheduler;
+		this.samples = settings.lagSamples;
+		this.sampleEvery = Math.max(1, expectedCheckouts / Math.max(1, samples));
+		this.pollIntervalNanos = settings.lagPollInterval.toNanos();
+		this.timeoutNanos = settings.lagTimeout.toNanos();
+	}
+
+	void checkedOut(String cartId, long checkedOutNanos) {
+		if (checkouts.getAndIncrement() % sampleEvery != 0 || started.incrementAndGet() > samples)
+			return;
+		pending.incrementAndGet();
+		poll(cartId, checkedOutNanos);
+	}
+
+	private void poll(String cartId, long checkedOutNanos) {
+		client.getReport(cartId).invoke().whenComplete((report, error) -> {
+			long now = System.nanoTime();
+			if (report != null && report.checkoutDate != null) {
+				lag.recordValue(now - checkedOutNanos);
+				pending.decrementAndGet();
+			} else if (now - checkedOutNanos > timeoutNanos) {
+				timedOut.incrementAndGet();
+				pending.decrementAndGet();
+			} else {
+				// Not projected yet, the report may not even exist
+				scheduler.schedule(() -> poll(cartId, checkedOutNanos), pollIntervalNanos, TimeUnit.NANOSECONDS);
+			}
+		});
+	}
+
+	/**
+	 * Waits for all followed checkouts to show up in the report or time out.
+	 */
+	void awaitSamples() throws InterruptedException {
+		while (pending.get() > 0)
+			Thread.sleep(TimeUnit.NANOSECONDS.toMillis(pollIntervalNanos) + 1);
+	}
+
+	void print(PrintStream out) {
+		out.printf("%nprojection lag of shopping-cart-report, %d checkouts followed, %d timed out after %d s%n",
+				lag.getTotalCount() + timedOut.get(), timedOut.get(), TimeUnit.NANOSECONDS.toSeconds(timeoutNanos));
+		if (lag.getTotalCount() > 0) {
+			LoadTest.printHeader(out, "");
+			LoadTest.printRow(out, "lag", lag, 0, timedOut.get());
+		}
+	}
+}
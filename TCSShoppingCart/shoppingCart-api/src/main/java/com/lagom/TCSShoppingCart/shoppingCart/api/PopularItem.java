@@ -0,0 +1,28 @@
+package com.lagom.TCSShoppingCart.shoppingCart.api;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.base.Preconditions;
+
+import lombok.Value;
+
+@Value
+@JsonDeserialize
+public final class PopularItem {
+
+	/**
+	 * The ID of the product.
+	 */
+	public final String itemId;
+
+	/**
+	 * How often the product was added to, removed from or adjusted in carts.
+	 */
+	public final long count;
+
+	@JsonCreator
+	public PopularItem(String itemId, long count) {
+		this.itemId = Preconditions.checkNotNull(itemId, "itemId");
+		this.count = count;
+	}
+}
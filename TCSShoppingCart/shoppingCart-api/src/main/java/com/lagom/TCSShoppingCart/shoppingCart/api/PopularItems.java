@@ -0,0 +1,30 @@
+package com.lagom.TCSShoppingCart.shoppingCart.api;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.base.Preconditions;
+
+import lombok.Value;
+
+@Value
+@JsonDeserialize
+public final class PopularItems {
+
+	/**
+	 * What the items were counted by: added, removed or adjusted.
+	 */
+	public final String kind;
+
+	/**
+	 * The items with the highest counts, highest first.
+	 */
+	public final List<PopularItem> items;
+
+	@JsonCreator
+	public PopularItems(String kind, List<PopularItem> items) {
+		this.kind = Preconditions.checkNotNull(kind, "kind");
+		this.items = Preconditions.checkNotNull(items, "items");
+	}
+}
@@ -0,0 +1,33 @@
+package com.lagom.TCSShoppingCart.shoppingCart.api;
+
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.base.Preconditions;
+
+import lombok.Value;
+
+@Value
+@JsonDeserialize
+public final class ShoppingCartBatch {
+
+	/**
+	 * The shopping carts that could be read, in the order of their IDs in the
+	 * request.
+	 */
+	public final List<ShoppingCartView> carts;
+
+	/**
+	 * The IDs of the shopping carts that couldn't be read, with the reason for
+	 * each.
+	 */
+	public final Map<String, String> errors;
+
+	@JsonCreator
+	public ShoppingCartBatch(List<ShoppingCartView> carts, Map<String, String> errors) {
+		this.carts = Preconditions.checkNotNull(carts, "carts");
+		this.errors = Preconditions.checkNotNull(errors, "errors");
+	}
+}
@@ -0,0 +1,24 @@
+package com.lagom.TCSShoppingCart.shoppingCart.api;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.base.Preconditions;
+
+import lombok.Value;
+
+@Value
+@JsonDeserialize
+public final class ShoppingCartIds {
+
+	/**
+	 * The IDs of the shopping carts to get.
+	 */
+	public final List<String> ids;
+
+	@JsonCreator
+	public ShoppingCartIds(List<String> ids) {
+		this.ids = Preconditions.checkNotNull(ids, "ids");
+	}
+}
@@ -0,0 +1,24 @@
+package com.lagom.TCSShoppingCart.shoppingCart.api;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.base.Preconditions;
+
+import lombok.Value;
+
+@Value
+@JsonDeserialize
+public final class ShoppingCartItems {
+
+	/**
+	 * The items to add to, or adjust in, the cart, or to replace its items with.
+	 */
+	public final List<ShoppingCartItem> items;
+
+	@JsonCreator
+	public ShoppingCartItems(List<ShoppingCartItem> items) {
+		this.items = Preconditions.checkNotNull(items, "items");
+	}
+}
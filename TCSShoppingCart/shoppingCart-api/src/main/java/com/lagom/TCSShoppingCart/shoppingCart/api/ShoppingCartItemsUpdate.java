@@ -0,0 +1,30 @@
+package com.lagom.TCSShoppingCart.shoppingCart.api;
+
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.base.Preconditions;
+
+import lombok.Value;
+
+@Value
+@JsonDeserialize
+public final class ShoppingCartItemsUpdate {
+
+	/**
+	 * The shopping cart after the accepted items were applied.
+	 */
+	public final ShoppingCartView cart;
+
+	/**
+	 * The items that were rejected, with the reason for each rejection.
+	 */
+	public final Map<String, String> rejectedItems;
+
+	@JsonCreator
+	public ShoppingCartItemsUpdate(ShoppingCartView cart, Map<String, String> rejectedItems) {
+		this.cart = Preconditions.checkNotNull(cart, "cart");
+		this.rejectedItems = Preconditions.checkNotNull(rejectedItems, "rejectedItems");
+	}
+}
@@ -0,0 +1,31 @@
+package com.lagom.TCSShoppingCart.shoppingCart.api;
+
+import java.util.List;
+import java.util.Optional;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.base.Preconditions;
+
+import lombok.Value;
+
+@Value
+@JsonDeserialize
+public final class ShoppingCartReportPage {
+
+	/**
+	 * The reports of this page.
+	 */
+	public final List<ShoppingCartReportView> reports;
+
+	/**
+	 * The token to pass as page to get the next page, empty on the last page.
+	 */
+	public final Optional<String> nextPage;
+
+	@JsonCreator
+	public ShoppingCartReportPage(List<ShoppingCartReportView> reports, Optional<String> nextPage) {
+		this.reports = Preconditions.checkNotNull(reports, "reports");
+		this.nextPage = Preconditions.checkNotNull(nextPage, "nextPage");
+	}
+}
@@ -0,0 +1,36 @@
+package com.lagom.TCSShoppingCart.shoppingCart.api;
+
+import java.util.Optional;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.base.Preconditions;
+
+import lombok.Value;
+
+@Value
+@JsonDeserialize
+public final class ShoppingCartResult {
+
+	/**
+	 * The ID of the shopping cart.
+	 */
+	public final String id;
+
+	/**
+	 * The shopping cart, empty if it couldn't be read.
+	 */
+	public final Optional<ShoppingCartView> cart;
+
+	/**
+	 * Why the shopping cart couldn't be read, empty if it was.
+	 */
+	public final Optional<String> error;
+
+	@JsonCreator
+	public ShoppingCartResult(String id, Optional<ShoppingCartView> cart, Optional<String> error) {
+		this.id = Preconditions.checkNotNull(id, "id");
+		this.cart = Preconditions.checkNotNull(cart, "cart");
+		this.error = Preconditions.checkNotNull(error, "error");
+	}
+}
@@ -2,6 +2,8 @@ package com.lagom.TCSShoppingCart.shoppingCart.api;
 
 import static com.lightbend.lagom.javadsl.api.Service.*;
 
+import java.util.Optional;
+
 import com.lightbend.lagom.javadsl.api.Descriptor;
 import com.lightbend.lagom.javadsl.api.Service;
 import com.lightbend.lagom.javadsl.api.ServiceCall;
@@ -11,24 +13,60 @@ import com.lightbend.lagom.javadsl.api.transport.Method;
 
 import akka.Done;
 import akka.NotUsed;
+import akka.stream.javadsl.Source;
 
 /**
  * The ShoppingCart service interface.
  * <p>
  * This describes everything that Lagom needs to know about how to serve and
  * consume the ShoppingCart.
+ * <p>
+ * The calls that change a cart accept an Idempotency-Key header of up to 128
+ * characters. A retry with the key of a request the cart already applied isn't
+ * applied again, it gets the response of a successful request for the current
+ * cart. The cart remembers the keys of its last 32 changes.
+ * <p>
+ * A node that has too many requests to carts in progress rejects further ones
+ * with 503 Service Unavailable, they can be retried later.
  */
 public interface ShoppingCartService extends Service {
 
 	String TOPIC_NAME = "shopping-cart";
 
+	String CHECKED_OUT_TOPIC_NAME = "shopping-cart-checked-out";
+
 	/**
 	 * Get a shopping cart.
 	 * <p>
+	 * The response carries the cart's sequence number as its ETag, a request with
+	 * a matching If-None-Match header is answered with 304 Not Modified and an
+	 * empty entity, which a client reads as a null view.
+	 * <p>
 	 * Example: curl http://localhost:9000/shoppingcart/123
 	 */
 	ServiceCall<NotUsed, ShoppingCartView> get(String id);
 
+	/**
+	 * Get several shopping carts at once. The carts are read a bounded number at a
+	 * time, and the batch answers within a deadline: carts that couldn't be read
+	 * by then, or at all, are listed in errors with the reason instead of failing
+	 * the batch. Repeated ids are read once, a batch with more distinct ids than
+	 * the service allows is rejected with 400 Bad Request.
+	 * <p>
+	 * Example: curl -H "Content-Type: application/json" -X POST -d '{"ids":
+	 * ["123", "456"]}' http://localhost:9000/shoppingcarts/batch
+	 */
+	ServiceCall<ShoppingCartIds, ShoppingCartBatch> getCarts();
+
+	/**
+	 * Like {@link #getCarts()}, but streams the result of each cart as soon as
+	 * it is read, in no particular order. The ids are the first message sent on
+	 * the WebSocket.
+	 * <p>
+	 * Example: ws://localhost:9000/shoppingcarts/batch/stream
+	 */
+	ServiceCall<ShoppingCartIds, Source<ShoppingCartResult, NotUsed>> streamCarts();
+
 	/**
 	 * Get a shopping cart report (view model).
 	 *
@@ -36,6 +74,40 @@ public interface ShoppingCartService extends Service {
 	 */
 	ServiceCall<NotUsed, ShoppingCartReportView> getReport(String id);
 
+	/**
+	 * Stream the reports of all shopping carts, ordered by cart id. The reports
+	 * can be filtered by creation and checkout date, given as ISO-8601 instants,
+	 * lower bounds are inclusive and upper bounds exclusive.
+	 * <p>
+	 * The reports are read page by page as the client consumes them, so an export
+	 * of any size runs in constant memory.
+	 * <p>
+	 * Example: ws://localhost:9000/shoppingcarts/reports?checkedOutFrom=2020-01-01T00:00:00Z
+	 */
+	ServiceCall<NotUsed, Source<ShoppingCartReportView, NotUsed>> exportReports(Optional<String> createdFrom,
+			Optional<String> createdTo, Optional<String> checkedOutFrom, Optional<String> checkedOutTo);
+
+	/**
+	 * Find the reports of open or checked-out shopping carts, a page at a time.
+	 * Open carts are filtered and ordered by creation date, checked-out carts by
+	 * checkout date. The dates are ISO-8601 instants, from is inclusive and to is
+	 * exclusive. Pass the nextPage of a response as page to get the next page.
+	 * <p>
+	 * Example: curl
+	 * 'http://localhost:9000/shoppingcarts?status=checked-out&from=2020-01-01T00:00:00Z&to=2020-01-02T00:00:00Z'
+	 */
+	ServiceCall<NotUsed, ShoppingCartReportPage> findReports(Optional<String> status, Optional<String> from,
+			Optional<String> to, Optional<Integer> pageSize, Optional<String> page);
+
+	/**
+	 * The items most often added to carts, removed from carts or adjusted in
+	 * carts, by the number of times. Served from counts held in memory, which lag
+	 * behind the carts by up to the flush interval of the popular items read side.
+	 * <p>
+	 * Example: curl 'http://localhost:9000/items/popular?kind=removed&limit=20'
+	 */
+	ServiceCall<NotUsed, PopularItems> popularItems(Optional<String> kind, Optional<Integer> limit);
+
 	/**
 	 * Update an items quantity in the shopping cart.
 	 * <p>
@@ -44,6 +116,31 @@ public interface ShoppingCartService extends Service {
 	 */
 	ServiceCall<ShoppingCartItem, Done> addItem(String id);
 
+	/**
+	 * Add or adjust several items in the shopping cart at once. Items not yet in
+	 * the cart are added, items already in the cart have their quantity adjusted.
+	 * Each item is accepted or rejected on its own, the accepted items are
+	 * persisted as a single event. An item given more than once is rejected.
+	 * <p>
+	 * Example: curl -H "Content-Type: application/json" -X POST -d '{"items":
+	 * [{"itemId": 456, "quantity": 2}, {"itemId": 789, "quantity": 1}]}'
+	 * http://localhost:9000/shoppingcart/123/items
+	 */
+	ServiceCall<ShoppingCartItems, ShoppingCartItemsUpdate> updateItems(String id);
+
+	/**
+	 * Replace the items of the shopping cart with the given items, so a client
+	 * that keeps the cart locally syncs it with one call. Items not given are
+	 * removed, the others are added or adjusted. The changes are applied
+	 * atomically: if any quantity isn't greater than zero, or an item is given
+	 * more than once, none is.
+	 * <p>
+	 * Example: curl -H "Content-Type: application/json" -X PUT -d '{"items":
+	 * [{"itemId": 456, "quantity": 2}, {"itemId": 789, "quantity": 1}]}'
+	 * http://localhost:9000/shoppingcart/123/items
+	 */
+	ServiceCall<ShoppingCartItems, ShoppingCartView> replaceItems(String id);
+
 	/**
 	 * Remove an item in the shopping cart.
 	 *
@@ -67,7 +164,15 @@ public interface ShoppingCartService extends Service {
 	ServiceCall<NotUsed, Done> checkout(String id);
 
 	/**
-	 * This gets published to Kafka.
+	 * Metrics of the service node that serves the request, in the Prometheus text
+	 * format.
+	 * <p>
+	 * Example: curl http://localhost:9000/metrics
+	 */
+	ServiceCall<NotUsed, String> metrics();
+
+	/**
+	 * The views of checked-out carts, published to Kafka.
 	 */
 	Topic<ShoppingCartView> shoppingCartTopic();
 
@@ -80,12 +185,22 @@ public interface ShoppingCartService extends Service {
 	default Descriptor descriptor() {
 		// @formatter:off
 		return named("shoppingCart")
-				.withCalls(restCall(Method.GET, "/shoppingcart/:id", this::get),
+				.withCalls(restCall(Method.GET, "/shoppingcart/:id", this::get)
+		                		.withResponseSerializer(new ShoppingCartViewSerializer()),
+		                restCall(Method.POST, "/shoppingcarts/batch", this::getCarts),
+		                restCall(Method.GET, "/shoppingcarts/batch/stream", this::streamCarts),
 		                restCall(Method.GET, "/shoppingcart/:id/report", this::getReport),
+		                restCall(Method.GET, "/shoppingcarts/reports?createdFrom&createdTo&checkedOutFrom&checkedOutTo",
+		                		this::exportReports),
+		                restCall(Method.GET, "/shoppingcarts?status&from&to&pageSize&page", this::findReports),
+		                restCall(Method.GET, "/items/popular?kind&limit", this::popularItems),
 		                restCall(Method.POST, "/shoppingcart/:id", this::addItem),
+		                restCall(Method.POST, "/shoppingcart/:id/items", this::updateItems),
+		                restCall(Method.PUT, "/shoppingcart/:id/items", this::replaceItems),
 		                restCall(Method.DELETE, "/shoppingcart/:cartId/item/:itemId", this::removeItem),
 		                restCall(Method.PATCH, "/shoppingcart/:cartId/item/:itemId", this::adjustItemQuantity),
-		                restCall(Method.POST, "/shoppingcart/:id/checkout", this::checkout)
+		                restCall(Method.POST, "/shoppingcart/:id/checkout", this::checkout),
+		                restCall(Method.GET, "/metrics", this::metrics)
 						)
 				.withTopics(topic(TOPIC_NAME, this::helloEvents)
 						// Kafka partitions messages, messages within the same partition will
@@ -93,7 +208,9 @@ public interface ShoppingCartService extends Service {
 						// go to the same partition (and hence are delivered in order with respect
 						// to that user), we configure a partition key strategy that extracts the
 						// name as the partition key.
-						.withProperty(KafkaProperties.partitionKeyStrategy(), ShoppingCartEvent::getName))
+						.withProperty(KafkaProperties.partitionKeyStrategy(), ShoppingCartEvent::getName),
+						topic(CHECKED_OUT_TOPIC_NAME, this::shoppingCartTopic)
+						.withProperty(KafkaProperties.partitionKeyStrategy(), view -> view.id))
 				.withAutoAcl(true);
 		// @formatter:on
 	}
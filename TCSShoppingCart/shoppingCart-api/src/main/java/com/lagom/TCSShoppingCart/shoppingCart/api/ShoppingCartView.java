@@ -34,12 +34,20 @@ public final class ShoppingCartView {
 	 */
 	public final Optional<Instant> checkoutDate;
 
+	/**
+	 * The sequence number of the last event applied to this cart, used as its
+	 * version. 0 if unknown.
+	 */
+	public final long sequenceNumber;
+
 	@JsonCreator
-	public ShoppingCartView(String id, List<ShoppingCartItem> items, Optional<Instant> checkoutDate) {
+	public ShoppingCartView(String id, List<ShoppingCartItem> items, Optional<Instant> checkoutDate,
+			long sequenceNumber) {
 		this.id = Preconditions.checkNotNull(id, "id");
 		this.items = Preconditions.checkNotNull(items, "items");
 		this.checkoutDate = checkoutDate;
 		this.checkedOut = checkoutDate.isPresent();
+		this.sequenceNumber = sequenceNumber;
 	}
 
 	public boolean hasItem(String itemId) {
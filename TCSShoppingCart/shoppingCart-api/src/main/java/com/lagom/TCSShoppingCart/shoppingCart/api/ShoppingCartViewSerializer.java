@@ -0,0 +1,88 @@
+package com.lagom.TCSShoppingCart.shoppingCart.api;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+
+import org.pcollections.PSequence;
+import org.pcollections.TreePVector;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
+import com.lightbend.lagom.javadsl.api.deser.DeserializationException;
+import com.lightbend.lagom.javadsl.api.deser.SerializationException;
+import com.lightbend.lagom.javadsl.api.deser.StrictMessageSerializer;
+import com.lightbend.lagom.javadsl.api.transport.MessageProtocol;
+
+import akka.util.ByteString;
+
+/**
+ * JSON serializer of the view of a single cart.
+ * <p>
+ * A 304 Not Modified response has no view, it is sent with an empty entity
+ * rather than a JSON null, and an empty entity is read back as no view.
+ */
+public final class ShoppingCartViewSerializer implements StrictMessageSerializer<ShoppingCartView> {
+
+	private static final MessageProtocol JSON = new MessageProtocol(Optional.of("application/json"),
+			Optional.of("utf-8"), Optional.empty());
+
+	private final ObjectMapper mapper = new ObjectMapper().registerModule(new Jdk8Module())
+			.registerModule(new JavaTimeModule()).registerModule(new ParameterNamesModule())
+			.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+			.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+	@Override
+	public PSequence<MessageProtocol> acceptResponseProtocols() {
+		return TreePVector.singleton(JSON);
+	}
+
+	@Override
+	public NegotiatedSerializer<ShoppingCartView, ByteString> serializerForRequest() {
+		return new Serializer();
+	}
+
+	@Override
+	public NegotiatedDeserializer<ShoppingCartView, ByteString> deserializer(MessageProtocol protocol) {
+		return wire -> {
+			if (wire.isEmpty()) {
+				return null;
+			}
+			try {
+				return mapper.readValue(wire.iterator().asInputStream(), ShoppingCartView.class);
+			} catch (IOException e) {
+				throw new DeserializationException(e);
+			}
+		};
+	}
+
+	@Override
+	public NegotiatedSerializer<ShoppingCartView, ByteString> serializerForResponse(
+			List<MessageProtocol> acceptedMessageProtocols) {
+		return new Serializer();
+	}
+
+	private final class Serializer implements NegotiatedSerializer<ShoppingCartView, ByteString> {
+
+		@Override
+		public MessageProtocol protocol() {
+			return JSON;
+		}
+
+		@Override
+		public ByteString serialize(ShoppingCartView view) {
+			if (view == null) {
+				return ByteString.emptyByteString();
+			}
+			try {
+				return ByteString.fromArray(mapper.writeValueAsBytes(view));
+			} catch (IOException e) {
+				throw new SerializationException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.google.common.base.Preconditions;
+import com.lightbend.lagom.javadsl.api.deser.ExceptionMessage;
+import com.lightbend.lagom.javadsl.api.transport.TransportErrorCode;
+import com.lightbend.lagom.javadsl.api.transport.TransportException;
+import com.typesafe.config.Config;
+
+/**
+ * Limits the number of asks to cart entities a node has in flight, so that
+ * under overload requests are rejected right away instead of queueing until
+ * they time out.
+ * <p>
+ * The limit adapts to the latency of the asks (AIMD): an ask that completes
+ * within the target latency while the limit is in use raises the limit by one
+ * per limit asks, an ask that is slower or times out lowers it by the backoff
+ * ratio. Only asks started after the last decrease can lower it again, so a
+ * burst of slow asks backs off once. An ask whose timeout was shortened by the
+ * caller, such as the asks of a batch with a deadline, only lowers it when it is
+ * slower than the target latency. A call made while the limit is reached fails
+ * with 503 Service Unavailable.
+ */
+@Singleton
+public class AdmissionControl {
+
+	private final double minLimit;
+	private final double maxLimit;
+	private final long targetLatencyNanos;
+	private final double backoffRatio;
+
+	private final LongAdder shed = new LongAdder();
+
+	// Guarded by this
+	private double limit;
+	private int inFlight;
+	private long lastDecrease = System.nanoTime();
+
+	@Inject
+	public AdmissionControl(Config config, ShoppingCartMetrics metrics) {
+		Config admission = config.getConfig("shopping-cart.admission");
+		this.minLimit = admission.getInt("min-limit");
+		this.maxLimit = admission.getInt("max-limit");
+		this.limit = admission.getInt("initial-limit");
+		this.targetLatencyNanos = admission.getDuration("target-latency").toNanos();
+		this.backoffRatio = admission.getDouble("backoff-ratio");
+		Preconditions.checkArgument(minLimit >= 1 && minLimit <= limit && limit <= maxLimit,
+				"The admission limits must satisfy 1 <= min-limit <= initial-limit <= max-limit");
+		Preconditions.checkArgument(backoffRatio > 0 && backoffRatio < 1, "backoff-ratio must be between 0 and 1");
+
+		metrics.gauge("shopping_cart_admission_in_flight", "Asks to cart entities in flight on this node",
+				this::inFlight);
+		metrics.gauge("shopping_cart_admission_limit", "Current limit of asks to cart entities in flight",
+				this::limit);
+		metrics.counter("shopping_cart_admission_shed_total",
+				"Calls rejected with 503 because the limit of asks in flight was reached", shed::sum);
+	}
+
+	/**
+	 * Make the call if the limit allows it, otherwise fail with 503 Service
+	 * Unavailable without making it.
+	 */
+	<T> CompletionStage<T> admit(Supplier<CompletionStage<T>> call) {
+		return admit(call, true);
+	}
+
+	/**
+	 * Make the call if the limit allows it, a timeout of the call only adapts the
+	 * limit if timeoutIsSignal, otherwise the call timed out before the cart could
+	 * be found slow.
+	 */
+	<T> CompletionStage<T> admit(Supplier<CompletionStage<T>> call, boolean timeoutIsSignal) {
+		if (!tryAcquire()) {
+			shed.increment();
+			CompletableFuture<T> rejected = new CompletableFuture<>();
+			rejected.completeExceptionally(new TransportException(TransportErrorCode.ServiceUnavailable,
+					new ExceptionMessage("ServiceUnavailable", "Too many requests in progress, retry later")));
+			return rejected;
+		}
+
+		long started = System.nanoTime();
+		CompletionStage<T> result;
+		try {
+			result = call.get();
+		} catch (RuntimeException e) {
+			release(started, false, false);
+			throw e;
+		}
+		return result.whenComplete((value, error) -> {
+			boolean timedOut = isTimeout(error);
+			release(started, timedOut && timeoutIsSignal, timedOut && !timeoutIsSignal);
+		});
+	}
+
+	synchronized long inFlight() {
+		return inFlight;
+	}
+
+	synchronized long limit() {
+		return (long) limit;
+	}
+
+	private synchronized boolean tryAcquire() {
+		if (inFlight >= (int) limit) {
+			return false;
+		}
+		inFlight++;
+		return true;
+	}
+
+	private synchronized void release(long started, boolean timedOut, boolean cutShort) {
+		long now = System.nanoTime();
+		boolean limitInUse = inFlight * 2 >= limit;
+		inFlight--;
+		if (timedOut || now - started > targetLatencyNanos) {
+			if (started - lastDecrease > 0) {
+				limit = Math.max(minLimit, limit * backoffRatio);
+				lastDecrease = now;
+			}
+		} else if (limitInUse && !cutShort) {
+			// Only raise a limit that is used, an idle node would raise it without bounds.
+			// A call cut short by its timeout wasn't fast either.
+			limit = Math.min(maxLimit, limit + 1 / limit);
+		}
+	}
+
+	private static boolean isTimeout(Throwable error) {
+		Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+		return cause instanceof TimeoutException;
+	}
+}
@@ -0,0 +1,198 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.typesafe.config.Config;
+
+import akka.actor.ActorSystem;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.javadsl.Adapter;
+import akka.cluster.sharding.typed.ClusterShardingSettings;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.Entity;
+
+/**
+ * Passivation policy of the cart entities on a node, so the memory they take
+ * stays bounded.
+ * <p>
+ * A cart is passivated when it has been idle for the configured time, when the
+ * node has more active carts than configured (least recently used first), and
+ * right after it has been checked out, as a checked-out cart is served from the
+ * {@link CheckedOutCartCache}.
+ */
+@Singleton
+public class CartPassivation {
+
+	private final ActorSystem system;
+	private final Duration idleTimeout;
+	private final int maxActive;
+	private final boolean passivateCheckedOut;
+
+	/**
+	 * Active carts with the time they were last used, only kept when the number
+	 * of active carts is capped. A command only writes the time of its cart, so
+	 * commands to different carts don't contend.
+	 */
+	private final ConcurrentHashMap<String, ActiveCart> activeCarts = new ConcurrentHashMap<>();
+
+	/**
+	 * Held by the activation that passivates the least recently used carts, other
+	 * activations don't wait for it.
+	 */
+	private final ReentrantLock evicting = new ReentrantLock();
+
+	private final AtomicLong active = new AtomicLong();
+	private final LongAdder passivatedLeastRecentlyUsed;
+	private final LongAdder passivatedCheckedOut;
+
+	@Inject
+	public CartPassivation(ActorSystem system, Config config, ShoppingCartMetrics metrics) {
+		this(system, config.getDuration("shopping-cart.passivation.idle-timeout"),
+				config.getInt("shopping-cart.passivation.max-active"),
+				config.getBoolean("shopping-cart.passivation.checked-out"), metrics);
+	}
+
+	CartPassivation(ActorSystem system, Duration idleTimeout, int maxActive, boolean passivateCheckedOut,
+			ShoppingCartMetrics metrics) {
+		this.system = system;
+		this.idleTimeout = idleTimeout;
+		this.maxActive = maxActive;
+		this.passivateCheckedOut = passivateCheckedOut;
+
+		metrics.gauge("shopping_cart_active_entities", "Cart entities active on this node", active::get);
+		ShoppingCartMetrics.Counters passivations = metrics.counters("shopping_cart_passivations_total",
+				"Carts passivated by this node's policy, idle carts are passivated by sharding and not counted",
+				"reason");
+		this.passivatedLeastRecentlyUsed = passivations.labels("max-active");
+		this.passivatedCheckedOut = passivations.labels("checked-out");
+	}
+
+	/**
+	 * A policy that never passivates, for entities that don't run in sharding.
+	 */
+	static CartPassivation disabled() {
+		return new CartPassivation(null, Duration.ZERO, 0, false, new ShoppingCartMetrics());
+	}
+
+	/**
+	 * Apply the idle timeout to the sharding settings of the cart entities.
+	 */
+	<E> Entity<ShoppingCartCommand, E> configure(Entity<ShoppingCartCommand, E> entity) {
+		return entity.withSettings(
+				ClusterShardingSettings.create(Adapter.toTyped(system)).withPassivateIdleEntityAfter(idleTimeout));
+	}
+
+	/**
+	 * A cart entity was started, passivates the least recently used carts if there
+	 * are too many.
+	 * <p>
+	 * Finding them takes a sort of the active carts, so it passivates down to 5%
+	 * below the cap at once rather than one cart per activation.
+	 */
+	void activated(String cartId, ActorRef<ClusterSharding.ShardCommand> shard, ActorRef<ShoppingCartCommand> self) {
+		active.incrementAndGet();
+		if (maxActive <= 0 || shard == null) {
+			return;
+		}
+		activeCarts.put(cartId, new ActiveCart(shard, self, System.nanoTime()));
+		if (activeCarts.size() > maxActive && evicting.tryLock()) {
+			try {
+				passivateLeastRecentlyUsed(maxActive - maxActive / 20);
+			} finally {
+				evicting.unlock();
+			}
+		}
+	}
+
+	private void passivateLeastRecentlyUsed(int keep) {
+		// Sort on a copy of the times, commands keep updating them
+		List<Candidate> carts = new ArrayList<>(activeCarts.size());
+		for (Map.Entry<String, ActiveCart> cart : activeCarts.entrySet()) {
+			carts.add(new Candidate(cart.getKey(), cart.getValue()));
+		}
+		carts.sort(Comparator.comparingLong(cart -> cart.lastUsed));
+		int excess = carts.size() - keep;
+		for (int i = 0; i < excess; i++) {
+			Candidate cart = carts.get(i);
+			// A cart that was stopped and started again since is left alone
+			if (activeCarts.remove(cart.cartId, cart.cart)) {
+				passivatedLeastRecentlyUsed.increment();
+				cart.cart.passivate();
+			}
+		}
+	}
+
+	/**
+	 * A cart entity handled a command.
+	 */
+	void used(String cartId) {
+		if (maxActive > 0) {
+			ActiveCart cart = activeCarts.get(cartId);
+			if (cart != null) {
+				cart.lastUsed = System.nanoTime();
+			}
+		}
+	}
+
+	/**
+	 * A cart entity was stopped, for whatever reason.
+	 */
+	void stopped(String cartId, ActorRef<ShoppingCartCommand> self) {
+		active.decrementAndGet();
+		if (maxActive > 0) {
+			ActiveCart cart = activeCarts.get(cartId);
+			if (cart != null && cart.self.equals(self)) {
+				activeCarts.remove(cartId, cart);
+			}
+		}
+	}
+
+	/**
+	 * A cart was checked out, passivates it if configured to.
+	 */
+	void checkedOut(ActorRef<ClusterSharding.ShardCommand> shard, ActorRef<ShoppingCartCommand> self) {
+		if (passivateCheckedOut && shard != null) {
+			passivatedCheckedOut.increment();
+			new ActiveCart(shard, self, 0).passivate();
+		}
+	}
+
+	private static final class ActiveCart {
+		private final ActorRef<ClusterSharding.ShardCommand> shard;
+		private final ActorRef<ShoppingCartCommand> self;
+		private volatile long lastUsed;
+
+		ActiveCart(ActorRef<ClusterSharding.ShardCommand> shard, ActorRef<ShoppingCartCommand> self, long lastUsed) {
+			this.shard = shard;
+			this.self = self;
+			this.lastUsed = lastUsed;
+		}
+
+		void passivate() {
+			shard.tell(new ClusterSharding.Passivate<>(self));
+		}
+	}
+
+	private static final class Candidate {
+		private final String cartId;
+		private final ActiveCart cart;
+		private final long lastUsed;
+
+		Candidate(String cartId, ActiveCart cart) {
+			this.cartId = cartId;
+			this.cart = cart;
+			this.lastUsed = cart.lastUsed;
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import java.util.Optional;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartView;
+import com.typesafe.config.Config;
+
+/**
+ * Node-local cache of the views of checked-out carts.
+ * <p>
+ * A checked-out cart rejects every mutation, so its view never changes and can
+ * be served without asking (and possibly recovering) the entity.
+ */
+@Singleton
+public class CheckedOutCartCache {
+
+	private final Cache<String, ShoppingCartView> views;
+
+	@Inject
+	public CheckedOutCartCache(Config config, ShoppingCartMetrics metrics) {
+		this(config, metrics, Ticker.systemTicker());
+	}
+
+	CheckedOutCartCache(Config config, ShoppingCartMetrics metrics, Ticker ticker) {
+		Config cacheConfig = config.getConfig("shopping-cart.checked-out-cache");
+		this.views = CacheBuilder.newBuilder().maximumSize(cacheConfig.getLong("max-size"))
+				.expireAfterWrite(cacheConfig.getDuration("time-to-live")).ticker(ticker).recordStats().build();
+
+		metrics.counter("shopping_cart_checked_out_cache_hits_total", "Cart reads served from the checked-out cache",
+				() -> views.stats().hitCount());
+		metrics.counter("shopping_cart_checked_out_cache_misses_total",
+				"Cart reads that were not in the checked-out cache", () -> views.stats().missCount());
+		metrics.counter("shopping_cart_checked_out_cache_evictions_total",
+				"Views evicted from the checked-out cache by size or time-to-live",
+				() -> views.stats().evictionCount());
+		metrics.gauge("shopping_cart_checked_out_cache_size", "Views in the checked-out cache", views::size);
+	}
+
+	Optional<ShoppingCartView> get(String cartId) {
+		return Optional.ofNullable(views.getIfPresent(cartId));
+	}
+
+	/**
+	 * Cache the view if the cart has been checked out, open carts are ignored.
+	 */
+	void offer(ShoppingCartView view) {
+		if (view.checkedOut) {
+			views.put(view.id, view);
+		}
+	}
+}
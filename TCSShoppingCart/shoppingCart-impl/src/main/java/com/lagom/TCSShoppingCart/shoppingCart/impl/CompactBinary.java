@@ -0,0 +1,187 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import java.io.NotSerializableException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Minimal length-prefixed binary encoding shared by the compact serializers.
+ * <p>
+ * Integers are written as unsigned LEB128 varints and strings as a varint byte
+ * length followed by their UTF-8 bytes.
+ */
+final class CompactBinary {
+
+	private CompactBinary() {
+	}
+
+	/**
+	 * Deflates the given bytes, prefixed with their uncompressed length.
+	 */
+	static byte[] deflate(byte[] bytes) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(bytes);
+			deflater.finish();
+			Writer writer = new Writer(bytes.length / 2);
+			writer.writeVarInt(bytes.length);
+			byte[] chunk = new byte[8192];
+			while (!deflater.finished()) {
+				int length = deflater.deflate(chunk);
+				writer.writeBytes(chunk, length);
+			}
+			return writer.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Inflates bytes written by {@link #deflate(byte[])}.
+	 */
+	static byte[] inflate(Reader reader) throws NotSerializableException {
+		int length = reader.readVarInt();
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(reader.buffer, reader.position, reader.buffer.length - reader.position);
+			byte[] result = new byte[length];
+			int inflated = 0;
+			while (inflated < length && !inflater.finished()) {
+				int count = inflater.inflate(result, inflated, length - inflated);
+				if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				inflated += count;
+			}
+			if (inflated != length) {
+				throw new NotSerializableException("Truncated compressed payload");
+			}
+			reader.position = reader.buffer.length;
+			return result;
+		} catch (DataFormatException e) {
+			throw new NotSerializableException("Malformed compressed payload: " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+	}
+
+	static final class Writer {
+		private byte[] buffer;
+		private int position;
+
+		Writer(int initialCapacity) {
+			this.buffer = new byte[Math.max(16, initialCapacity)];
+		}
+
+		Writer writeByte(int value) {
+			ensureCapacity(1);
+			buffer[position++] = (byte) value;
+			return this;
+		}
+
+		Writer writeVarInt(int value) {
+			return writeVarLong(value & 0xFFFFFFFFL);
+		}
+
+		Writer writeVarLong(long value) {
+			ensureCapacity(10);
+			while ((value & ~0x7FL) != 0) {
+				buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			buffer[position++] = (byte) value;
+			return this;
+		}
+
+		Writer writeLong(long value) {
+			ensureCapacity(8);
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				buffer[position++] = (byte) (value >>> shift);
+			}
+			return this;
+		}
+
+		Writer writeString(String value) {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(bytes.length);
+			ensureCapacity(bytes.length);
+			System.arraycopy(bytes, 0, buffer, position, bytes.length);
+			position += bytes.length;
+			return this;
+		}
+
+		Writer writeBytes(byte[] bytes, int length) {
+			ensureCapacity(length);
+			System.arraycopy(bytes, 0, buffer, position, length);
+			position += length;
+			return this;
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(buffer, position);
+		}
+
+		private void ensureCapacity(int extra) {
+			if (position + extra > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+			}
+		}
+	}
+
+	static final class Reader {
+		private final byte[] buffer;
+		private int position;
+
+		Reader(byte[] buffer) {
+			this.buffer = buffer;
+		}
+
+		int readByte() throws NotSerializableException {
+			require(1);
+			return buffer[position++] & 0xFF;
+		}
+
+		int readVarInt() throws NotSerializableException {
+			return (int) readVarLong();
+		}
+
+		long readVarLong() throws NotSerializableException {
+			long result = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = readByte();
+				result |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return result;
+				}
+			}
+			throw new NotSerializableException("Malformed varint at position " + position);
+		}
+
+		long readLong() throws NotSerializableException {
+			require(8);
+			long result = 0;
+			for (int i = 0; i < 8; i++) {
+				result = (result << 8) | (buffer[position++] & 0xFF);
+			}
+			return result;
+		}
+
+		String readString() throws NotSerializableException {
+			int length = readVarInt();
+			require(length);
+			String result = new String(buffer, position, length, StandardCharsets.UTF_8);
+			position += length;
+			return result;
+		}
+
+		private void require(int bytes) throws NotSerializableException {
+			if (bytes < 0 || position + bytes > buffer.length) {
+				throw new NotSerializableException("Truncated payload, needed " + bytes + " bytes at position "
+						+ position + " of " + buffer.length);
+			}
+		}
+	}
+}
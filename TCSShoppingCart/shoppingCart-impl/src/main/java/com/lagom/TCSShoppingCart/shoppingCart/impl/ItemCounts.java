@@ -0,0 +1,164 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import akka.japi.Pair;
+
+/**
+ * How often each item was added to, removed from and adjusted in carts.
+ * <p>
+ * The counts are kept in an open addressing hash table of item ids and a
+ * parallel {@code long} array, so counting an event doesn't allocate. Not
+ * thread safe.
+ */
+final class ItemCounts {
+
+	enum Kind {
+		ADDED, REMOVED, ADJUSTED
+	}
+
+	private static final int KINDS = Kind.values().length;
+
+	private String[] items;
+	private long[] counts;
+	private int size;
+
+	ItemCounts() {
+		this(16);
+	}
+
+	private ItemCounts(int capacity) {
+		this.items = new String[capacity];
+		this.counts = new long[capacity * KINDS];
+	}
+
+	void add(String itemId, Kind kind, long delta) {
+		// The slot first, inserting the item may grow the arrays
+		int slot = slot(itemId);
+		counts[slot * KINDS + kind.ordinal()] += delta;
+	}
+
+	void add(String itemId, long added, long removed, long adjusted) {
+		int offset = slot(itemId) * KINDS;
+		counts[offset + Kind.ADDED.ordinal()] += added;
+		counts[offset + Kind.REMOVED.ordinal()] += removed;
+		counts[offset + Kind.ADJUSTED.ordinal()] += adjusted;
+	}
+
+	void addAll(ItemCounts other) {
+		for (int i = 0; i < other.items.length; i++) {
+			if (other.items[i] != null) {
+				int offset = slot(other.items[i]) * KINDS;
+				for (int kind = 0; kind < KINDS; kind++) {
+					counts[offset + kind] += other.counts[i * KINDS + kind];
+				}
+			}
+		}
+	}
+
+	long get(String itemId, Kind kind) {
+		int slot = find(itemId);
+		return slot < 0 ? 0 : counts[slot * KINDS + kind.ordinal()];
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	void forEach(Visitor visitor) {
+		for (int i = 0; i < items.length; i++) {
+			if (items[i] != null) {
+				int offset = i * KINDS;
+				visitor.item(items[i], counts[offset + Kind.ADDED.ordinal()], counts[offset + Kind.REMOVED.ordinal()],
+						counts[offset + Kind.ADJUSTED.ordinal()]);
+			}
+		}
+	}
+
+	/**
+	 * The items with the highest counts of the kind, highest first, ties ordered by
+	 * item id. Items with a count of 0 are left out.
+	 */
+	List<Pair<String, Long>> top(Kind kind, int limit) {
+		// A min-heap of the best items so far, its head is the first to drop out
+		PriorityQueue<Integer> best = new PriorityQueue<>(limit + 1, (a, b) -> compare(kind, b, a));
+		for (int i = 0; i < items.length; i++) {
+			if (items[i] != null && counts[i * KINDS + kind.ordinal()] > 0) {
+				best.add(i);
+				if (best.size() > limit) {
+					best.poll();
+				}
+			}
+		}
+		List<Pair<String, Long>> top = new ArrayList<>(best.size());
+		while (!best.isEmpty()) {
+			int slot = best.poll();
+			top.add(Pair.create(items[slot], counts[slot * KINDS + kind.ordinal()]));
+		}
+		Collections.reverse(top);
+		return top;
+	}
+
+	/**
+	 * Negative if the item in slot a ranks before the one in slot b.
+	 */
+	private int compare(Kind kind, int a, int b) {
+		int byCount = Long.compare(counts[b * KINDS + kind.ordinal()], counts[a * KINDS + kind.ordinal()]);
+		return byCount != 0 ? byCount : items[a].compareTo(items[b]);
+	}
+
+	private int find(String itemId) {
+		int mask = items.length - 1;
+		for (int i = start(itemId, mask);; i = (i + 1) & mask) {
+			if (items[i] == null) {
+				return -1;
+			} else if (items[i].equals(itemId)) {
+				return i;
+			}
+		}
+	}
+
+	/**
+	 * The slot of the item, inserting it if it isn't counted yet.
+	 */
+	private int slot(String itemId) {
+		int mask = items.length - 1;
+		for (int i = start(itemId, mask);; i = (i + 1) & mask) {
+			if (items[i] == null) {
+				if ((size + 1) * 4 > items.length * 3) {
+					grow();
+					return slot(itemId);
+				}
+				items[i] = itemId;
+				size++;
+				return i;
+			} else if (items[i].equals(itemId)) {
+				return i;
+			}
+		}
+	}
+
+	private static int start(String itemId, int mask) {
+		// Spread the hash, ids that only differ in their last characters are common
+		int hash = itemId.hashCode();
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	private void grow() {
+		ItemCounts grown = new ItemCounts(items.length * 2);
+		grown.addAll(this);
+		this.items = grown.items;
+		this.counts = grown.counts;
+	}
+
+	interface Visitor {
+		void item(String itemId, long added, long removed, long adjusted);
+	}
+}
@@ -0,0 +1,271 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.pcollections.PMap;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * The items of a cart: an immutable map of item ids to quantities.
+ * <p>
+ * The ids are kept sorted in an array with the quantities in a parallel
+ * {@code int} array, both exactly as long as the cart, so an item costs a
+ * reference and an int instead of a tree node, an entry and a boxed quantity.
+ * Lookups are binary searches. Every change copies the arrays, which is cheap
+ * for carts of up to a few hundred items. The empty map is shared.
+ * <p>
+ * The item ids are interned, so the carts of a node share one string per item
+ * instead of holding a copy per cart and per snapshot or event they were read
+ * from. The interner holds the ids weakly, ids of items no cart holds anymore
+ * are collected.
+ */
+final class ItemMap extends AbstractMap<String, Integer> implements PMap<String, Integer> {
+
+	static final ItemMap EMPTY = new ItemMap(new String[0], new int[0]);
+
+	private static final Interner<String> ITEM_IDS = Interners.newWeakInterner();
+
+	private final String[] itemIds;
+	private final int[] quantities;
+
+	private ItemMap(String[] itemIds, int[] quantities) {
+		this.itemIds = itemIds;
+		this.quantities = quantities;
+	}
+
+	/**
+	 * The items of the map, the map itself if it is an item map.
+	 */
+	static ItemMap from(Map<String, Integer> items) {
+		if (items instanceof ItemMap) {
+			return (ItemMap) items;
+		} else if (items.isEmpty()) {
+			return EMPTY;
+		}
+		String[] itemIds = items.keySet().toArray(new String[items.size()]);
+		Arrays.sort(itemIds);
+		int[] quantities = new int[itemIds.length];
+		for (int i = 0; i < itemIds.length; i++) {
+			quantities[i] = Preconditions.checkNotNull(items.get(itemIds[i]), "quantity");
+			itemIds[i] = ITEM_IDS.intern(itemIds[i]);
+		}
+		return new ItemMap(itemIds, quantities);
+	}
+
+	/**
+	 * The items of parallel arrays of ids in ascending order and their
+	 * quantities, which the map takes over.
+	 *
+	 * @throws IllegalArgumentException if the ids aren't in ascending order
+	 */
+	static ItemMap fromSorted(String[] itemIds, int[] quantities) {
+		Preconditions.checkArgument(itemIds.length == quantities.length, "An item id without quantity");
+		if (itemIds.length == 0) {
+			return EMPTY;
+		}
+		for (int i = 0; i < itemIds.length; i++) {
+			Preconditions.checkArgument(i == 0 || itemIds[i - 1].compareTo(itemIds[i]) < 0,
+					"Item ids out of order");
+			itemIds[i] = ITEM_IDS.intern(itemIds[i]);
+		}
+		return new ItemMap(itemIds, quantities);
+	}
+
+	/**
+	 * The id of the item at the index, in ascending order of ids.
+	 */
+	String itemId(int index) {
+		return itemIds[index];
+	}
+
+	int quantity(int index) {
+		return quantities[index];
+	}
+
+	@Override
+	public int size() {
+		return itemIds.length;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return itemIds.length == 0;
+	}
+
+	@Override
+	public boolean containsKey(Object itemId) {
+		return itemId instanceof String && Arrays.binarySearch(itemIds, itemId) >= 0;
+	}
+
+	@Override
+	public Integer get(Object itemId) {
+		if (!(itemId instanceof String)) {
+			return null;
+		}
+		int index = Arrays.binarySearch(itemIds, itemId);
+		return index >= 0 ? quantities[index] : null;
+	}
+
+	@Override
+	public ItemMap plus(String itemId, Integer quantity) {
+		Preconditions.checkNotNull(itemId, "itemId");
+		Preconditions.checkNotNull(quantity, "quantity");
+		int index = Arrays.binarySearch(itemIds, itemId);
+		if (index >= 0) {
+			if (quantities[index] == quantity) {
+				return this;
+			}
+			int[] newQuantities = quantities.clone();
+			newQuantities[index] = quantity;
+			return new ItemMap(itemIds, newQuantities);
+		}
+
+		int insertAt = -index - 1;
+		String[] newItemIds = new String[itemIds.length + 1];
+		int[] newQuantities = new int[itemIds.length + 1];
+		System.arraycopy(itemIds, 0, newItemIds, 0, insertAt);
+		System.arraycopy(quantities, 0, newQuantities, 0, insertAt);
+		newItemIds[insertAt] = ITEM_IDS.intern(itemId);
+		newQuantities[insertAt] = quantity;
+		System.arraycopy(itemIds, insertAt, newItemIds, insertAt + 1, itemIds.length - insertAt);
+		System.arraycopy(quantities, insertAt, newQuantities, insertAt + 1, itemIds.length - insertAt);
+		return new ItemMap(newItemIds, newQuantities);
+	}
+
+	@Override
+	public ItemMap plusAll(Map<? extends String, ? extends Integer> items) {
+		if (items.isEmpty()) {
+			return this;
+		} else if (items.size() == 1) {
+			Map.Entry<? extends String, ? extends Integer> item = items.entrySet().iterator().next();
+			return plus(item.getKey(), item.getValue());
+		}
+
+		// Merge the sorted items into the sorted arrays in one pass
+		@SuppressWarnings("unchecked")
+		ItemMap added = from((Map<String, Integer>) items);
+		String[] newItemIds = new String[itemIds.length + added.itemIds.length];
+		int[] newQuantities = new int[newItemIds.length];
+		int size = 0;
+		int i = 0;
+		int j = 0;
+		while (i < itemIds.length || j < added.itemIds.length) {
+			int order = i == itemIds.length ? 1
+					: j == added.itemIds.length ? -1 : itemIds[i].compareTo(added.itemIds[j]);
+			if (order < 0) {
+				newItemIds[size] = itemIds[i];
+				newQuantities[size++] = quantities[i++];
+			} else {
+				// An added item replaces the quantity of the same item
+				i += order == 0 ? 1 : 0;
+				newItemIds[size] = added.itemIds[j];
+				newQuantities[size++] = added.quantities[j++];
+			}
+		}
+		return new ItemMap(size == newItemIds.length ? newItemIds : Arrays.copyOf(newItemIds, size),
+				size == newQuantities.length ? newQuantities : Arrays.copyOf(newQuantities, size));
+	}
+
+	@Override
+	public ItemMap minus(Object itemId) {
+		int index = itemId instanceof String ? Arrays.binarySearch(itemIds, itemId) : -1;
+		if (index < 0) {
+			return this;
+		} else if (itemIds.length == 1) {
+			return EMPTY;
+		}
+		String[] newItemIds = new String[itemIds.length - 1];
+		int[] newQuantities = new int[itemIds.length - 1];
+		System.arraycopy(itemIds, 0, newItemIds, 0, index);
+		System.arraycopy(quantities, 0, newQuantities, 0, index);
+		System.arraycopy(itemIds, index + 1, newItemIds, index, itemIds.length - index - 1);
+		System.arraycopy(quantities, index + 1, newQuantities, index, itemIds.length - index - 1);
+		return new ItemMap(newItemIds, newQuantities);
+	}
+
+	@Override
+	public ItemMap minusAll(Collection<?> itemIds) {
+		ItemMap result = this;
+		for (Object itemId : itemIds) {
+			result = result.minus(itemId);
+		}
+		return result;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Integer>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Integer>>() {
+			@Override
+			public Iterator<Map.Entry<String, Integer>> iterator() {
+				return new Iterator<Map.Entry<String, Integer>>() {
+					private int index;
+
+					@Override
+					public boolean hasNext() {
+						return index < itemIds.length;
+					}
+
+					@Override
+					public Map.Entry<String, Integer> next() {
+						if (index >= itemIds.length) {
+							throw new NoSuchElementException();
+						}
+						Map.Entry<String, Integer> item = new SimpleImmutableEntry<>(itemIds[index],
+								quantities[index]);
+						index++;
+						return item;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return itemIds.length;
+			}
+		};
+	}
+
+	@Override
+	public int hashCode() {
+		// The hash code of a map is the sum of the hash codes of its entries
+		int hash = 0;
+		for (int i = 0; i < itemIds.length; i++) {
+			hash += itemIds[i].hashCode() ^ quantities[i];
+		}
+		return hash;
+	}
+
+	@Deprecated
+	@Override
+	public Integer put(String itemId, Integer quantity) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Deprecated
+	@Override
+	public Integer remove(Object itemId) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Deprecated
+	@Override
+	public void putAll(Map<? extends String, ? extends Integer> items) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Deprecated
+	@Override
+	public void clear() {
+		throw new UnsupportedOperationException();
+	}
+}
@@ -0,0 +1,156 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.hibernate.Session;
+
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ItemCounts.Kind;
+import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
+import com.lightbend.lagom.javadsl.persistence.ReadSide;
+import com.lightbend.lagom.javadsl.persistence.jpa.JpaSession;
+import com.typesafe.config.Config;
+
+import akka.japi.Pair;
+
+/**
+ * The item counts of the popular items read side, held in memory so the top
+ * items are served without a query.
+ * <p>
+ * The counts of the tags processed on this node are kept up to date by the
+ * {@link PopularItemsProcessor} with every flush. The tags processed by other
+ * nodes are read from the table, at most once per refresh interval, and not at
+ * all when every tag is processed here.
+ */
+@Singleton
+public class PopularItemCounters {
+
+	private final JpaSession jpaSession;
+	private final Set<String> allTags = new HashSet<>();
+	private final long refreshIntervalNanos;
+
+	/**
+	 * The counts of the tags processed on this node, guarded by this.
+	 */
+	private final Map<String, ItemCounts> localCounts = new HashMap<>();
+
+	private RemoteCounts remoteCounts;
+	private CompletableFuture<ItemCounts> refreshing;
+
+	/**
+	 * The sum of the local and remote counts, recomputed on the first request
+	 * after a change.
+	 */
+	private ItemCounts merged;
+
+	@Inject
+	public PopularItemCounters(ReadSide readSide, JpaSession jpaSession, ShoppingCartEventTags tags, Config config) {
+		this.jpaSession = jpaSession;
+		this.refreshIntervalNanos = config.getDuration("shopping-cart.popular-items.refresh-interval").toNanos();
+		for (AggregateEventTag<ShoppingCartEvent> tag : tags.allTags()) {
+			allTags.add(tag.tag());
+		}
+		readSide.register(PopularItemsProcessor.class);
+	}
+
+	/**
+	 * The items with the highest counts of the kind, highest first.
+	 */
+	CompletionStage<List<Pair<String, Long>>> top(Kind kind, int limit) {
+		return remoteCounts().thenApply(remote -> {
+			synchronized (this) {
+				if (merged == null) {
+					merged = new ItemCounts();
+					merged.addAll(remote);
+					for (ItemCounts counts : localCounts.values()) {
+						merged.addAll(counts);
+					}
+				}
+				return merged.top(kind, limit);
+			}
+		});
+	}
+
+	/**
+	 * The worker of a tag started on this node with the stored counts of the tag.
+	 */
+	synchronized void started(String tag, ItemCounts counts) {
+		localCounts.put(tag, counts);
+		merged = null;
+	}
+
+	/**
+	 * The worker of a tag flushed the counts of a batch of events.
+	 */
+	synchronized void flushed(String tag, ItemCounts delta) {
+		ItemCounts counts = localCounts.get(tag);
+		if (counts != null) {
+			counts.addAll(delta);
+			merged = null;
+		}
+	}
+
+	/**
+	 * The worker of a tag stopped on this node, another node may take it over.
+	 */
+	synchronized void stopped(String tag) {
+		localCounts.remove(tag);
+		merged = null;
+	}
+
+	private synchronized CompletionStage<ItemCounts> remoteCounts() {
+		Set<String> local = new HashSet<>(localCounts.keySet());
+		if (local.containsAll(allTags)) {
+			return CompletableFuture.completedFuture(new ItemCounts());
+		} else if (remoteCounts != null && remoteCounts.localTags.equals(local)
+				&& System.nanoTime() - remoteCounts.readAt < refreshIntervalNanos) {
+			return CompletableFuture.completedFuture(remoteCounts.counts);
+		} else if (refreshing != null) {
+			return refreshing;
+		}
+
+		CompletableFuture<ItemCounts> refresh = new CompletableFuture<>();
+		refreshing = refresh;
+		jpaSession.withTransaction(entityManager -> entityManager.unwrap(Session.class)
+				.doReturningWork(connection -> PopularItemsProcessor.readCountsExcept(connection, local)))
+				.whenComplete((counts, error) -> {
+					synchronized (this) {
+						refreshing = null;
+						if (error == null) {
+							remoteCounts = new RemoteCounts(local, counts, System.nanoTime());
+							merged = null;
+						}
+					}
+					if (error == null) {
+						refresh.complete(counts);
+					} else {
+						refresh.completeExceptionally(error);
+					}
+				});
+		return refresh;
+	}
+
+	/**
+	 * The counts of the tags processed by other nodes, read when the given tags
+	 * were processed on this node.
+	 */
+	private static final class RemoteCounts {
+		final Set<String> localTags;
+		final ItemCounts counts;
+		final long readAt;
+
+		RemoteCounts(Set<String> localTags, ItemCounts counts, long readAt) {
+			this.localTags = localTags;
+			this.counts = counts;
+			this.readAt = readAt;
+		}
+	}
+}
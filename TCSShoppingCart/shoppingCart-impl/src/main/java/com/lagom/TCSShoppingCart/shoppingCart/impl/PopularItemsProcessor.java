@@ -0,0 +1,252 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+import javax.inject.Inject;
+
+import org.hibernate.Session;
+import org.pcollections.PSequence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ItemCounts.Kind;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartEvent.ItemAdded;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartEvent.ItemQuantityAdjusted;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartEvent.ItemRemoved;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartEvent.ItemsUpdated;
+import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
+import com.lightbend.lagom.javadsl.persistence.Offset;
+import com.lightbend.lagom.javadsl.persistence.ReadSideProcessor;
+import com.lightbend.lagom.javadsl.persistence.jpa.JpaSession;
+import com.typesafe.config.Config;
+
+import akka.Done;
+import akka.japi.Pair;
+import akka.stream.javadsl.Flow;
+
+/**
+ * Counts how often each item is added to, removed from and adjusted in carts.
+ * <p>
+ * The events of a tag are counted in memory and only the changed counts are
+ * written, once per flush, together with the offset in a single transaction.
+ * The counts are stored per tag, so the worker of a tag owns its rows and can
+ * add to them without conflicts. After a flush the counts are also added to the
+ * {@link PopularItemCounters} of the node, which serve the top items.
+ */
+public class PopularItemsProcessor extends ReadSideProcessor<ShoppingCartEvent> {
+
+	private static final String READ_SIDE_ID = "popular-items";
+
+	private static final String TABLE = "popular_item";
+
+	private final JpaSession jpaSession;
+	private final Config config;
+	private final PopularItemCounters counters;
+	private final ShoppingCartEventTags tags;
+
+	@Inject
+	public PopularItemsProcessor(JpaSession jpaSession, Config config, PopularItemCounters counters,
+			ShoppingCartEventTags tags) {
+		this.jpaSession = jpaSession;
+		this.config = config;
+		this.counters = counters;
+		this.tags = tags;
+	}
+
+	@Override
+	public ReadSideHandler<ShoppingCartEvent> buildHandler() {
+		Config flush = config.getConfig("shopping-cart.popular-items.flush");
+		return new Handler(flush.getInt("batch-size"), flush.getDuration("interval"));
+	}
+
+	@Override
+	public PSequence<AggregateEventTag<ShoppingCartEvent>> aggregateTags() {
+		return tags.allTags();
+	}
+
+	/**
+	 * The summed counts of all tags but the given ones.
+	 */
+	static ItemCounts readCountsExcept(Connection connection, Collection<String> tags) throws SQLException {
+		StringBuilder sql = new StringBuilder(
+				"SELECT item_id, SUM(added), SUM(removed), SUM(adjusted) FROM " + TABLE);
+		for (int i = 0; i < tags.size(); i++) {
+			sql.append(i == 0 ? " WHERE tag NOT IN (?" : ", ?");
+		}
+		sql.append(tags.isEmpty() ? " GROUP BY item_id" : ") GROUP BY item_id");
+		try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+			int index = 1;
+			for (String tag : tags) {
+				statement.setString(index++, tag);
+			}
+			return readCounts(statement);
+		}
+	}
+
+	private static ItemCounts readCounts(PreparedStatement statement) throws SQLException {
+		ItemCounts counts = new ItemCounts();
+		try (ResultSet resultSet = statement.executeQuery()) {
+			while (resultSet.next()) {
+				counts.add(resultSet.getString(1), resultSet.getLong(2), resultSet.getLong(3), resultSet.getLong(4));
+			}
+		}
+		return counts;
+	}
+
+	private class Handler extends ReadSideHandler<ShoppingCartEvent> {
+
+		private final Logger logger = LoggerFactory.getLogger(PopularItemsProcessor.class);
+
+		private final ReadSideOffsetStore offsetStore = new ReadSideOffsetStore(config);
+		private final int batchSize;
+		private final Duration interval;
+
+		private volatile String tag;
+
+		Handler(int batchSize, Duration interval) {
+			this.batchSize = batchSize;
+			this.interval = interval;
+		}
+
+		@Override
+		public CompletionStage<Done> globalPrepare() {
+			return jpaSession.withTransaction(entityManager -> {
+				entityManager.unwrap(Session.class).doWork(connection -> {
+					try (Statement statement = connection.createStatement()) {
+						statement.execute("CREATE TABLE IF NOT EXISTS " + TABLE + " (tag VARCHAR(255) NOT NULL,"
+								+ " item_id VARCHAR(255) NOT NULL, added BIGINT NOT NULL, removed BIGINT NOT NULL,"
+								+ " adjusted BIGINT NOT NULL, PRIMARY KEY (tag, item_id))");
+					}
+					offsetStore.createTable(connection);
+				});
+				return Done.getInstance();
+			});
+		}
+
+		@Override
+		public CompletionStage<Offset> prepare(AggregateEventTag<ShoppingCartEvent> tag) {
+			this.tag = tag.tag();
+			return jpaSession.withTransaction(entityManager -> entityManager.unwrap(Session.class)
+					.doReturningWork(connection -> {
+						ItemCounts counts;
+						try (PreparedStatement statement = connection.prepareStatement(
+								"SELECT item_id, added, removed, adjusted FROM " + TABLE + " WHERE tag = ?")) {
+							statement.setString(1, this.tag);
+							counts = readCounts(statement);
+						}
+						// The counts and the offset were written together, so they match
+						counters.started(this.tag, counts);
+						return offsetStore.read(connection, READ_SIDE_ID, this.tag);
+					}));
+		}
+
+		@Override
+		public Flow<Pair<ShoppingCartEvent, Offset>, Done, ?> handle() {
+			return Flow.<Pair<ShoppingCartEvent, Offset>>create().groupedWithin(batchSize, interval)
+					.mapAsync(1, this::flush).watchTermination((notUsed, done) -> {
+						String stoppedTag = tag;
+						done.whenComplete((result, error) -> counters.stopped(stoppedTag));
+						return notUsed;
+					});
+		}
+
+		private CompletionStage<Done> flush(List<Pair<ShoppingCartEvent, Offset>> batch) {
+			ItemCounts delta = count(batch);
+			Offset lastOffset = batch.get(batch.size() - 1).second();
+			logger.debug("Flushing the counts of " + delta.size() + " items for " + batch.size() + " events of tag "
+					+ tag);
+
+			return jpaSession.withTransaction(entityManager -> {
+				entityManager.unwrap(Session.class).doWork(connection -> {
+					if (!delta.isEmpty()) {
+						write(connection, delta);
+					}
+					offsetStore.write(connection, READ_SIDE_ID, tag, lastOffset);
+				});
+				return Done.getInstance();
+			}).thenApply(done -> {
+				counters.flushed(tag, delta);
+				return done;
+			});
+		}
+
+		/**
+		 * Add the counts to the rows of the tag, inserting the rows of items the tag
+		 * hasn't counted yet. The worker of a tag is its only writer, so there is no
+		 * race between the update and the insert.
+		 */
+		private void write(Connection connection, ItemCounts delta) throws SQLException {
+			List<String> itemIds = new ArrayList<>(delta.size());
+			try (PreparedStatement update = connection.prepareStatement("UPDATE " + TABLE
+					+ " SET added = added + ?, removed = removed + ?, adjusted = adjusted + ?"
+					+ " WHERE tag = ? AND item_id = ?")) {
+				delta.forEach((itemId, added, removed, adjusted) -> {
+					try {
+						update.setLong(1, added);
+						update.setLong(2, removed);
+						update.setLong(3, adjusted);
+						update.setString(4, tag);
+						update.setString(5, itemId);
+						update.addBatch();
+						itemIds.add(itemId);
+					} catch (SQLException e) {
+						throw new IllegalStateException(e);
+					}
+				});
+				int[] updated = update.executeBatch();
+
+				try (PreparedStatement insert = connection.prepareStatement("INSERT INTO " + TABLE
+						+ " (tag, item_id, added, removed, adjusted) VALUES (?, ?, ?, ?, ?)")) {
+					boolean inserts = false;
+					for (int i = 0; i < updated.length; i++) {
+						if (updated[i] == 0) {
+							String itemId = itemIds.get(i);
+							insert.setString(1, tag);
+							insert.setString(2, itemId);
+							insert.setLong(3, delta.get(itemId, Kind.ADDED));
+							insert.setLong(4, delta.get(itemId, Kind.REMOVED));
+							insert.setLong(5, delta.get(itemId, Kind.ADJUSTED));
+							insert.addBatch();
+							inserts = true;
+						}
+					}
+					if (inserts) {
+						insert.executeBatch();
+					}
+				}
+			}
+		}
+	}
+
+	private static ItemCounts count(List<Pair<ShoppingCartEvent, Offset>> batch) {
+		ItemCounts counts = new ItemCounts();
+		for (Pair<ShoppingCartEvent, Offset> eventAndOffset : batch) {
+			ShoppingCartEvent event = eventAndOffset.first();
+			if (event instanceof ItemAdded) {
+				counts.add(((ItemAdded) event).itemId, Kind.ADDED, 1);
+			} else if (event instanceof ItemRemoved) {
+				counts.add(((ItemRemoved) event).itemId, Kind.REMOVED, 1);
+			} else if (event instanceof ItemQuantityAdjusted) {
+				counts.add(((ItemQuantityAdjusted) event).itemId, Kind.ADJUSTED, 1);
+			} else if (event instanceof ItemsUpdated) {
+				ItemsUpdated itemsUpdated = (ItemsUpdated) event;
+				for (String itemId : itemsUpdated.addedItems.keySet()) {
+					counts.add(itemId, Kind.ADDED, 1);
+				}
+				for (String itemId : itemsUpdated.adjustedItems.keySet()) {
+					counts.add(itemId, Kind.ADJUSTED, 1);
+				}
+			}
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,113 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.UUID;
+
+import com.lightbend.lagom.javadsl.persistence.Offset;
+import com.typesafe.config.Config;
+
+/**
+ * Reads and writes read-side offsets on a plain JDBC connection, so that a
+ * custom read-side handler can commit its offset in the same transaction as
+ * its writes.
+ * <p>
+ * It uses the table and columns configured for Lagom's own JDBC offset store,
+ * so handlers built with {@code JpaReadSide} and handlers using this class
+ * share their offsets.
+ */
+final class ReadSideOffsetStore {
+
+	private final String tableName;
+	private final String readSideIdColumn;
+	private final String tagColumn;
+	private final String sequenceOffsetColumn;
+	private final String timeUuidOffsetColumn;
+
+	ReadSideOffsetStore(Config config) {
+		Config offsetConfig = config.getConfig("lagom.persistence.read-side.jdbc.tables.offset");
+		Config columns = offsetConfig.getConfig("columnNames");
+		String schemaName = offsetConfig.getString("schemaName");
+		this.tableName = schemaName.isEmpty() ? offsetConfig.getString("tableName")
+				: schemaName + "." + offsetConfig.getString("tableName");
+		this.readSideIdColumn = columns.getString("readSideId");
+		this.tagColumn = columns.getString("tag");
+		this.sequenceOffsetColumn = columns.getString("sequenceOffset");
+		this.timeUuidOffsetColumn = columns.getString("timeUuidOffset");
+	}
+
+	void createTable(Connection connection) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("CREATE TABLE IF NOT EXISTS " + tableName + " (" + readSideIdColumn
+					+ " VARCHAR(255) NOT NULL, " + tagColumn + " VARCHAR(255) NOT NULL, " + sequenceOffsetColumn
+					+ " BIGINT, " + timeUuidOffsetColumn + " CHAR(36), PRIMARY KEY (" + readSideIdColumn + ", "
+					+ tagColumn + "))");
+		}
+	}
+
+	Offset read(Connection connection, String readSideId, String tag) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement("SELECT " + sequenceOffsetColumn + ", "
+				+ timeUuidOffsetColumn + " FROM " + tableName + " WHERE " + readSideIdColumn + " = ? AND "
+				+ tagColumn + " = ?")) {
+			statement.setString(1, readSideId);
+			statement.setString(2, tag);
+			try (ResultSet resultSet = statement.executeQuery()) {
+				if (!resultSet.next()) {
+					return Offset.NONE;
+				}
+				long sequence = resultSet.getLong(1);
+				if (!resultSet.wasNull()) {
+					return Offset.sequence(sequence);
+				}
+				String timeUuid = resultSet.getString(2);
+				return timeUuid == null ? Offset.NONE : Offset.timeBasedUUID(UUID.fromString(timeUuid.trim()));
+			}
+		}
+	}
+
+	/**
+	 * Write the offset of the tag. The worker of a tag is its only writer, so
+	 * updating then inserting when no row was updated doesn't race, and it works
+	 * on any database.
+	 */
+	void write(Connection connection, String readSideId, String tag, Offset offset) throws SQLException {
+		try (PreparedStatement update = connection.prepareStatement("UPDATE " + tableName + " SET "
+				+ sequenceOffsetColumn + " = ?, " + timeUuidOffsetColumn + " = ? WHERE " + readSideIdColumn
+				+ " = ? AND " + tagColumn + " = ?")) {
+			setOffset(update, 1, offset);
+			update.setString(3, readSideId);
+			update.setString(4, tag);
+			if (update.executeUpdate() > 0) {
+				return;
+			}
+		}
+		try (PreparedStatement insert = connection.prepareStatement("INSERT INTO " + tableName + " ("
+				+ readSideIdColumn + ", " + tagColumn + ", " + sequenceOffsetColumn + ", " + timeUuidOffsetColumn
+				+ ") VALUES (?, ?, ?, ?)")) {
+			insert.setString(1, readSideId);
+			insert.setString(2, tag);
+			setOffset(insert, 3, offset);
+			insert.executeUpdate();
+		}
+	}
+
+	/**
+	 * Set the sequence and the time UUID of the offset from the given index on.
+	 */
+	private static void setOffset(PreparedStatement statement, int index, Offset offset) throws SQLException {
+		if (offset instanceof Offset.Sequence) {
+			statement.setLong(index, ((Offset.Sequence) offset).value());
+			statement.setNull(index + 1, Types.CHAR);
+		} else if (offset instanceof Offset.TimeBasedUUID) {
+			statement.setNull(index, Types.BIGINT);
+			statement.setString(index + 1, ((Offset.TimeBasedUUID) offset).value().toString());
+		} else {
+			statement.setNull(index, Types.BIGINT);
+			statement.setNull(index + 1, Types.CHAR);
+		}
+	}
+}
@@ -3,24 +3,44 @@ package com.lagom.TCSShoppingCart.shoppingCart.impl;
 import java.time.Instant;
 
 import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
 import javax.persistence.Id;
-
-import com.sun.istack.NotNull;
+import javax.persistence.Index;
+import javax.persistence.Table;
 
 @Entity
+@Table(indexes = {
+		// Serve date range queries per status, ordered by date and id for keyset pagination
+		@Index(name = "shopping_cart_status_creation_date", columnList = "status, creationDate, id"),
+		@Index(name = "shopping_cart_status_checkout_date", columnList = "status, checkoutDate, id") })
 public class ShoppingCart {
 
+	/**
+	 * Whether a shopping cart is still open or has been checked out.
+	 */
+	public enum Status {
+		OPEN, CHECKED_OUT
+	}
+
 	@Id
 	private String id;
 
 	/**
-	 * The shopping cart creation date
+	 * The shopping cart creation date, null while the checkout of the cart has
+	 * been processed but its first item hasn't yet
 	 */
-	@NotNull
 	private Instant creationDate;
 
 	private Instant checkoutDate;
 
+	/**
+	 * Null in rows written before the column existed, until the read side's global
+	 * prepare backfills it.
+	 */
+	@Enumerated(EnumType.STRING)
+	private Status status;
+
 	public String getId() {
 		return id;
 	}
@@ -29,12 +49,11 @@ public class ShoppingCart {
 		this.id = id;
 	}
 
-	@NotNull
 	public Instant getCreationDate() {
 		return creationDate;
 	}
 
-	public void setCreationDate(@NotNull Instant creationDate) {
+	public void setCreationDate(Instant creationDate) {
 		this.creationDate = creationDate;
 	}
 
@@ -46,4 +65,12 @@ public class ShoppingCart {
 		this.checkoutDate = checkoutDate;
 	}
 
+	public Status getStatus() {
+		return status;
+	}
+
+	public void setStatus(Status status) {
+		this.status = status;
+	}
+
 }
@@ -1,33 +1,55 @@
 package com.lagom.TCSShoppingCart.shoppingCart.impl;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import org.pcollections.HashTreePMap;
+
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartAggregateMetrics.CommandMetrics;
 import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartCommand.Accepted;
 import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartCommand.AddItem;
 import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartCommand.AdjustItemQuantity;
 import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartCommand.Checkout;
 import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartCommand.Get;
 import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartCommand.Hello;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartCommand.ItemsAccepted;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartCommand.Mutation;
 import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartCommand.Rejected;
 import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartCommand.RemoveItem;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartCommand.ReplaceItems;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartCommand.Summary;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartCommand.UpdateItems;
 import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartCommand.UseGreetingMessage;
 import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartEvent.CheckedOut;
 import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartEvent.GreetingMessageChanged;
 import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartEvent.ItemAdded;
 import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartEvent.ItemQuantityAdjusted;
 import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartEvent.ItemRemoved;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartEvent.ItemsUpdated;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartMetrics.Histogram;
 import com.lightbend.lagom.javadsl.persistence.AkkaTaggerAdapter;
+import com.typesafe.config.ConfigFactory;
 
+import akka.actor.typed.Behavior;
+import akka.actor.typed.PostStop;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
 import akka.cluster.sharding.typed.javadsl.EntityContext;
 import akka.cluster.sharding.typed.javadsl.EntityTypeKey;
 import akka.persistence.typed.PersistenceId;
+import akka.persistence.typed.RecoveryCompleted;
+import akka.persistence.typed.RecoveryFailed;
 import akka.persistence.typed.javadsl.CommandHandlerWithReply;
 import akka.persistence.typed.javadsl.CommandHandlerWithReplyBuilder;
 import akka.persistence.typed.javadsl.EventHandler;
 import akka.persistence.typed.javadsl.EventSourcedBehaviorWithEnforcedReplies;
 import akka.persistence.typed.javadsl.ReplyEffect;
 import akka.persistence.typed.javadsl.RetentionCriteria;
+import akka.persistence.typed.javadsl.SignalHandler;
 
 /**
  * This is an event sourced aggregate. It has a state,
@@ -57,16 +79,51 @@ public class ShoppingCartAggregate
 
 	final private EntityContext<ShoppingCartCommand> entityContext;
 
+	final private ActorContext<ShoppingCartCommand> actorContext;
+
 	final private String shoppingCartId;
 
-	ShoppingCartAggregate(EntityContext<ShoppingCartCommand> entityContext) {
+	final private ShoppingCartAggregateMetrics metrics;
+
+	final private CartPassivation passivation;
+
+	final private ShoppingCartEventTags tags;
+
+	private boolean passivating;
+
+	// Recovery of this activation, events are counted until it completes
+	final private long activatedAt = System.nanoTime();
+	private boolean recovering = true;
+	private long eventsReplayed;
+
+	ShoppingCartAggregate(EntityContext<ShoppingCartCommand> entityContext,
+			ActorContext<ShoppingCartCommand> actorContext, ShoppingCartAggregateMetrics metrics,
+			CartPassivation passivation, ShoppingCartEventTags tags) {
 		super(PersistenceId.of(entityContext.getEntityTypeKey().name(), entityContext.getEntityId()));
 		this.entityContext = entityContext;
+		this.actorContext = actorContext;
 		this.shoppingCartId = entityContext.getEntityId();
+		this.metrics = metrics;
+		this.passivation = passivation;
+		this.tags = tags;
+	}
+
+	public static Behavior<ShoppingCartCommand> create(EntityContext<ShoppingCartCommand> entityContext,
+			ShoppingCartAggregateMetrics metrics, CartPassivation passivation, ShoppingCartEventTags tags) {
+		// The actor context gives access to the sequence number of the last event
+		return Behaviors.setup(actorContext -> {
+			passivation.activated(entityContext.getEntityId(), entityContext.getShard(), actorContext.getSelf());
+			return new ShoppingCartAggregate(entityContext, actorContext, metrics, passivation, tags);
+		});
 	}
 
-	public static ShoppingCartAggregate create(EntityContext<ShoppingCartCommand> entityContext) {
-		return new ShoppingCartAggregate(entityContext);
+	/**
+	 * Create the aggregate with metrics that are not exposed anywhere, without
+	 * passivation and with the tag shards of the default config.
+	 */
+	public static Behavior<ShoppingCartCommand> create(EntityContext<ShoppingCartCommand> entityContext) {
+		return create(entityContext, new ShoppingCartAggregateMetrics(new ShoppingCartMetrics()),
+				CartPassivation.disabled(), new ShoppingCartEventTags(ConfigFactory.load()));
 	}
 
 	@Override
@@ -87,6 +144,8 @@ public class ShoppingCartAggregate
 		builder.forState(ShoppingCartState::isOpen).onCommand(AddItem.class, this::onAddItem)
 				.onCommand(RemoveItem.class, this::onRemoveItem)
 				.onCommand(AdjustItemQuantity.class, this::onAdjustItemQuantity)
+				.onCommand(UpdateItems.class, this::onUpdateItems)
+				.onCommand(ReplaceItems.class, this::onReplaceItems)
 				.onCommand(Checkout.class, this::onCheckout);
 
 		builder.forState(ShoppingCartState::isCheckedOut)
@@ -97,28 +156,69 @@ public class ShoppingCartAggregate
 				.onCommand(AdjustItemQuantity.class,
 						cmd -> Effect().reply(cmd.replyTo,
 								new Rejected("Cannot adjust item quantity in a checked-out cart")))
+				.onCommand(UpdateItems.class,
+						cmd -> Effect().reply(cmd.replyTo, new Rejected("Cannot update items in a checked-out cart")))
+				.onCommand(ReplaceItems.class,
+						cmd -> Effect().reply(cmd.replyTo, new Rejected("Cannot replace items in a checked-out cart")))
 				.onCommand(Checkout.class,
 						cmd -> Effect().reply(cmd.replyTo, new Rejected("Cannot checkout a checked-out cart")));
 
 		builder.forAnyState().onCommand(Get.class, this::onGet);
 
-		return builder.build();
-
+		CommandHandlerWithReply<ShoppingCartCommand, ShoppingCartEvent, ShoppingCartState> commandHandler = builder
+				.build();
+		return (shoppingCart, cmd) -> {
+			passivation.used(shoppingCartId);
+			if (shoppingCart.isCheckedOut()) {
+				// A checked-out cart was activated again, it won't change anymore
+				passivateCheckedOut();
+			}
+			if (cmd instanceof Mutation && isRetry(shoppingCart, (Mutation) cmd)) {
+				return onRetry(shoppingCart, (Mutation) cmd);
+			}
+			return commandHandler.apply(shoppingCart, cmd);
+		};
 	}
 
 	@Override
 	public EventHandler<ShoppingCartState, ShoppingCartEvent> eventHandler() {
-		return newEventHandlerBuilder().forAnyState()
-				.onEvent(ItemAdded.class, (shoppingCart, evt) -> shoppingCart.updateItem(evt.itemId, evt.quantity))
-				.onEvent(ItemRemoved.class, (shoppingCart, evt) -> shoppingCart.removeItem(evt.itemId))
+		EventHandler<ShoppingCartState, ShoppingCartEvent> eventHandler = newEventHandlerBuilder().forAnyState()
+				.onEvent(ItemAdded.class,
+						(shoppingCart, evt) -> shoppingCart.updateItem(evt.itemId, evt.quantity)
+								.withRequestId(evt.requestId))
+				.onEvent(ItemRemoved.class,
+						(shoppingCart, evt) -> shoppingCart.removeItem(evt.itemId).withRequestId(evt.requestId))
 				.onEvent(ItemQuantityAdjusted.class,
-						(shoppingCart, evt) -> shoppingCart.updateItem(evt.itemId, evt.quantity))
-				.onEvent(CheckedOut.class, (shoppingCart, evt) -> shoppingCart.checkout(evt.eventTime)).build();
+						(shoppingCart, evt) -> shoppingCart.updateItem(evt.itemId, evt.quantity)
+								.withRequestId(evt.requestId))
+				.onEvent(ItemsUpdated.class,
+						(shoppingCart, evt) -> shoppingCart.updateItems(evt.addedItems).updateItems(evt.adjustedItems)
+								.withRequestId(evt.requestId))
+				.onEvent(CheckedOut.class,
+						(shoppingCart, evt) -> shoppingCart.checkout(evt.eventTime).withRequestId(evt.requestId))
+				.build();
+		return (shoppingCart, evt) -> {
+			if (recovering) {
+				eventsReplayed++;
+			}
+			return eventHandler.apply(shoppingCart, evt);
+		};
+	}
+
+	@Override
+	public SignalHandler<ShoppingCartState> signalHandler() {
+		return newSignalHandlerBuilder().onSignal(RecoveryCompleted.instance(), shoppingCart -> {
+			recovering = false;
+			metrics.recoveryDuration.recordSince(activatedAt);
+			metrics.eventsReplayed.record(eventsReplayed);
+		}).onSignal(RecoveryFailed.class, (shoppingCart, failed) -> metrics.recoveryFailures.increment())
+				.onSignal(PostStop.instance(), shoppingCart -> passivation.stopped(shoppingCartId, actorContext.getSelf()))
+				.build();
 	}
 
 	@Override
 	public Set<String> tagsFor(ShoppingCartEvent shoppingCartEvent) {
-		return AkkaTaggerAdapter.fromLagom(entityContext, ShoppingCartEvent.TAG).apply(shoppingCartEvent);
+		return AkkaTaggerAdapter.fromLagom(entityContext, tags.tagger()).apply(shoppingCartEvent);
 	}
 
 	private ReplyEffect<ShoppingCartEvent, ShoppingCartState> onAddItem(ShoppingCartState shoppingCart, AddItem cmd) {
@@ -128,20 +228,23 @@ public class ShoppingCartAggregate
 			return Effect().reply(cmd.replyTo, new Rejected("Quantity must be greater than zero"));
 		} else {
 			return Effect()
-					.persist(new ShoppingCartEvent.ItemAdded(shoppingCartId, cmd.itemId, cmd.quantity, Instant.now()))
-					.thenReply(cmd.replyTo, s -> new Accepted(ShoppingCartState.toSummary(s)));
+					.persist(new ShoppingCartEvent.ItemAdded(shoppingCartId, cmd.itemId, cmd.quantity, Instant.now(),
+							cmd.requestId.orElse(null)))
+					.thenReply(cmd.replyTo, afterPersist(metrics.addItem, s -> new Accepted(toSummary(s))));
 		}
 	}
 
 	private ReplyEffect<ShoppingCartEvent, ShoppingCartState> onRemoveItem(ShoppingCartState shoppingCart,
 			RemoveItem cmd) {
 		if (shoppingCart.hasItem(cmd.itemId)) {
-			return Effect().persist(new ShoppingCartEvent.ItemRemoved(shoppingCartId, cmd.itemId, Instant.now()))
-					.thenReply(cmd.replyTo,
-							updatedShoppingCart -> new Accepted(ShoppingCartState.toSummary(updatedShoppingCart)));
+			return Effect()
+					.persist(new ShoppingCartEvent.ItemRemoved(shoppingCartId, cmd.itemId, Instant.now(),
+							cmd.requestId.orElse(null)))
+					.thenReply(cmd.replyTo, afterPersist(metrics.removeItem,
+							updatedShoppingCart -> new Accepted(toSummary(updatedShoppingCart))));
 		} else {
 			// Remove is idempotent, so we can just return the summary here
-			return Effect().reply(cmd.replyTo, new Accepted(ShoppingCartState.toSummary(shoppingCart)));
+			return Effect().reply(cmd.replyTo, new Accepted(toSummary(shoppingCart)));
 		}
 	}
 
@@ -151,23 +254,156 @@ public class ShoppingCartAggregate
 			return Effect().reply(cmd.replyTo, new Rejected("Quantity must be greater than zero"));
 		} else if (shoppingCart.hasItem(cmd.itemId)) {
 			return Effect().persist(
-					new ShoppingCartEvent.ItemQuantityAdjusted(shoppingCartId, cmd.itemId, cmd.quantity, Instant.now()))
-					.thenReply(cmd.replyTo, s -> new Accepted(ShoppingCartState.toSummary(s)));
+					new ShoppingCartEvent.ItemQuantityAdjusted(shoppingCartId, cmd.itemId, cmd.quantity, Instant.now(),
+							cmd.requestId.orElse(null)))
+					.thenReply(cmd.replyTo, afterPersist(metrics.adjustItemQuantity, s -> new Accepted(toSummary(s))));
 		} else {
 			return Effect().reply(cmd.replyTo, new Rejected("Item not found in shopping cart"));
 		}
 	}
 
+	private ReplyEffect<ShoppingCartEvent, ShoppingCartState> onUpdateItems(ShoppingCartState shoppingCart,
+			UpdateItems cmd) {
+		Map<String, Integer> added = new LinkedHashMap<>();
+		Map<String, Integer> adjusted = new LinkedHashMap<>();
+		Map<String, String> rejected = rejectedItems(cmd);
+		for (Map.Entry<String, Integer> item : cmd.items.entrySet()) {
+			if (rejected.containsKey(item.getKey())) {
+				// Already rejected
+			} else if (shoppingCart.hasItem(item.getKey())) {
+				adjusted.put(item.getKey(), item.getValue());
+			} else {
+				added.put(item.getKey(), item.getValue());
+			}
+		}
+
+		if (added.isEmpty() && adjusted.isEmpty()) {
+			// Nothing to persist, every item was rejected
+			return Effect().reply(cmd.replyTo, new ItemsAccepted(toSummary(shoppingCart), rejected));
+		} else {
+			return Effect()
+					.persist(new ItemsUpdated(shoppingCartId, HashTreePMap.from(added), HashTreePMap.from(adjusted),
+							Instant.now(), cmd.requestId.orElse(null)))
+					.thenReply(cmd.replyTo, afterPersist(metrics.updateItems, s -> new ItemsAccepted(toSummary(s), rejected)));
+		}
+	}
+
+	/**
+	 * Persist the difference between the cart and the items of the command: an
+	 * {@link ItemRemoved} for every item that isn't in the command, then one
+	 * {@link ItemsUpdated} with the items to add and to adjust. The events are
+	 * persisted with one atomic write, the request id goes with the last one.
+	 */
+	private ReplyEffect<ShoppingCartEvent, ShoppingCartState> onReplaceItems(ShoppingCartState shoppingCart,
+			ReplaceItems cmd) {
+		for (int quantity : cmd.items.values()) {
+			if (quantity <= 0) {
+				return Effect().reply(cmd.replyTo, new Rejected("Quantity must be greater than zero"));
+			}
+		}
+
+		Instant now = Instant.now();
+		List<ShoppingCartEvent> events = new ArrayList<>();
+		for (String itemId : shoppingCart.items.keySet()) {
+			if (!cmd.items.containsKey(itemId)) {
+				events.add(new ItemRemoved(shoppingCartId, itemId, now, null));
+			}
+		}
+		Map<String, Integer> added = new LinkedHashMap<>();
+		Map<String, Integer> adjusted = new LinkedHashMap<>();
+		for (Map.Entry<String, Integer> item : cmd.items.entrySet()) {
+			Integer quantity = shoppingCart.items.get(item.getKey());
+			if (quantity == null) {
+				added.put(item.getKey(), item.getValue());
+			} else if (!quantity.equals(item.getValue())) {
+				adjusted.put(item.getKey(), item.getValue());
+			}
+		}
+		String requestId = cmd.requestId.orElse(null);
+		if (!added.isEmpty() || !adjusted.isEmpty()) {
+			events.add(new ItemsUpdated(shoppingCartId, HashTreePMap.from(added), HashTreePMap.from(adjusted), now,
+					requestId));
+		} else if (!events.isEmpty()) {
+			ItemRemoved last = (ItemRemoved) events.remove(events.size() - 1);
+			events.add(new ItemRemoved(shoppingCartId, last.itemId, now, requestId));
+		}
+
+		if (events.isEmpty()) {
+			// The cart already holds these items
+			return Effect().reply(cmd.replyTo, new Accepted(toSummary(shoppingCart)));
+		} else {
+			return Effect().persist(events).thenReply(cmd.replyTo,
+					afterPersist(metrics.replaceItems, s -> new Accepted(toSummary(s))));
+		}
+	}
+
+	/**
+	 * The items of the command that are rejected whatever the cart holds.
+	 */
+	private static Map<String, String> rejectedItems(UpdateItems cmd) {
+		Map<String, String> rejected = new LinkedHashMap<>();
+		for (Map.Entry<String, Integer> item : cmd.items.entrySet()) {
+			if (item.getValue() <= 0) {
+				rejected.put(item.getKey(), "Quantity must be greater than zero");
+			}
+		}
+		return rejected;
+	}
+
+	private boolean isRetry(ShoppingCartState shoppingCart, Mutation cmd) {
+		return cmd.getRequestId().isPresent() && shoppingCart.hasRequestId(cmd.getRequestId().get());
+	}
+
+	/**
+	 * A command with the request id of a command that was already applied is a
+	 * retry, its events aren't persisted again. The reply is the one the first
+	 * attempt would get now: accepted with the current cart.
+	 */
+	private ReplyEffect<ShoppingCartEvent, ShoppingCartState> onRetry(ShoppingCartState shoppingCart, Mutation cmd) {
+		metrics.duplicateCommand(cmd.getClass());
+		if (cmd instanceof UpdateItems) {
+			return Effect().reply(cmd.getReplyTo(),
+					new ItemsAccepted(toSummary(shoppingCart), rejectedItems((UpdateItems) cmd)));
+		}
+		return Effect().reply(cmd.getReplyTo(), new Accepted(toSummary(shoppingCart)));
+	}
+
+	/**
+	 * Wrap the reply to a command so it records the persist duration, the reply is
+	 * only created once the events have been persisted.
+	 */
+	private <R> akka.japi.function.Function<ShoppingCartState, R> afterPersist(CommandMetrics command,
+			akka.japi.function.Function<ShoppingCartState, R> reply) {
+		Histogram persistDuration = command.persistDuration;
+		long started = System.nanoTime();
+		return shoppingCart -> {
+			persistDuration.recordSince(started);
+			return reply.apply(shoppingCart);
+		};
+	}
+
+	private void passivateCheckedOut() {
+		if (!passivating) {
+			passivating = true;
+			passivation.checkedOut(entityContext.getShard(), actorContext.getSelf());
+		}
+	}
+
+	private Summary toSummary(ShoppingCartState shoppingCart) {
+		return ShoppingCartState.toSummary(shoppingCart, lastSequenceNumber(actorContext));
+	}
+
 	private ReplyEffect<ShoppingCartEvent, ShoppingCartState> onGet(ShoppingCartState shoppingCart, Get cmd) {
-		return Effect().reply(cmd.replyTo, ShoppingCartState.toSummary(shoppingCart));
+		return Effect().reply(cmd.replyTo, toSummary(shoppingCart));
 	}
 
 	private ReplyEffect<ShoppingCartEvent, ShoppingCartState> onCheckout(ShoppingCartState shoppingCart, Checkout cmd) {
 		if (shoppingCart.isEmpty()) {
 			return Effect().reply(cmd.replyTo, new Rejected("Cannot checkout empty shopping cart"));
 		} else {
-			return Effect().persist(new CheckedOut(shoppingCartId, Instant.now())).thenReply(cmd.replyTo,
-					s -> new Accepted(ShoppingCartState.toSummary(s)));
+			return Effect().persist(new CheckedOut(shoppingCartId, shoppingCart.items, Instant.now(),
+					cmd.requestId.orElse(null)))
+					.thenRun(this::passivateCheckedOut).thenReply(cmd.replyTo, afterPersist(metrics.checkout, s -> new Accepted(toSummary(s))));
 		}
 	}
 
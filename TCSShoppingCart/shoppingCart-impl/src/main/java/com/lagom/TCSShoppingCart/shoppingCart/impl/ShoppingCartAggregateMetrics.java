@@ -0,0 +1,91 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartMetrics.Counters;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartMetrics.Histogram;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartMetrics.Histograms;
+
+/**
+ * Metrics recorded by the {@link ShoppingCartAggregate} entities of a node:
+ * how long recovery takes and how many events it replays, how long it takes
+ * to persist the events of each command and how many commands were retries.
+ */
+@Singleton
+public class ShoppingCartAggregateMetrics {
+
+	/**
+	 * Upper bounds of the buckets of the events replayed per recovery. A snapshot
+	 * is taken every 100 events, so more than that means snapshots are missing.
+	 */
+	private static final long[] REPLAYED_EVENTS_BUCKETS = { 0, 1, 2, 5, 10, 25, 50, 100, 250, 1000 };
+
+	final Histogram recoveryDuration;
+	final Histogram eventsReplayed;
+	final LongAdder recoveryFailures;
+
+	final CommandMetrics addItem;
+	final CommandMetrics removeItem;
+	final CommandMetrics adjustItemQuantity;
+	final CommandMetrics updateItems;
+	final CommandMetrics replaceItems;
+	final CommandMetrics checkout;
+
+	private final Map<Class<?>, CommandMetrics> byCommand = new HashMap<>();
+
+	@Inject
+	public ShoppingCartAggregateMetrics(ShoppingCartMetrics metrics) {
+		this.recoveryDuration = metrics.timers("shopping_cart_recovery_duration_seconds",
+				"Time from activating a cart entity until its state is recovered").labels();
+		this.eventsReplayed = metrics.histograms("shopping_cart_recovery_events_replayed",
+				"Events replayed on top of the snapshot when activating a cart entity", REPLAYED_EVENTS_BUCKETS)
+				.labels();
+		this.recoveryFailures = metrics.counters("shopping_cart_recovery_failures_total",
+				"Cart entities that failed to recover").labels();
+
+		Histograms persist = metrics.timers("shopping_cart_persist_duration_seconds",
+				"Time from handling a command until its events are persisted", "command");
+		Counters duplicates = metrics.counters("shopping_cart_duplicate_commands_total",
+				"Retried commands answered without applying them again", "command");
+		this.addItem = command(ShoppingCartCommand.AddItem.class, persist, duplicates);
+		this.removeItem = command(ShoppingCartCommand.RemoveItem.class, persist, duplicates);
+		this.adjustItemQuantity = command(ShoppingCartCommand.AdjustItemQuantity.class, persist, duplicates);
+		this.updateItems = command(ShoppingCartCommand.UpdateItems.class, persist, duplicates);
+		this.replaceItems = command(ShoppingCartCommand.ReplaceItems.class, persist, duplicates);
+		this.checkout = command(ShoppingCartCommand.Checkout.class, persist, duplicates);
+	}
+
+	private CommandMetrics command(Class<? extends ShoppingCartCommand> command, Histograms persist,
+			Counters duplicates) {
+		CommandMetrics commandMetrics = new CommandMetrics(persist.labels(command.getSimpleName()),
+				duplicates.labels(command.getSimpleName()));
+		byCommand.put(command, commandMetrics);
+		return commandMetrics;
+	}
+
+	/**
+	 * Count a retried command of one of the commands that persist events.
+	 */
+	void duplicateCommand(Class<?> command) {
+		byCommand.get(command).duplicates.increment();
+	}
+
+	/**
+	 * The metrics of one command that persists events. The entities are handed
+	 * the instance of each command, so handling a command doesn't look it up.
+	 */
+	static final class CommandMetrics {
+		final Histogram persistDuration;
+		final LongAdder duplicates;
+
+		CommandMetrics(Histogram persistDuration, LongAdder duplicates) {
+			this.persistDuration = persistDuration;
+			this.duplicates = duplicates;
+		}
+	}
+}
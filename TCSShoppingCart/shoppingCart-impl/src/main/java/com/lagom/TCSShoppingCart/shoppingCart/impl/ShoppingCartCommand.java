@@ -63,18 +63,34 @@ public interface ShoppingCartCommand extends Jsonable {
 		}
 	}
 
+	/**
+	 * A command that changes the cart.
+	 * <p>
+	 * A client that retries a command passes the request id of the first attempt.
+	 * The request ids of the last commands that persisted events are kept in the
+	 * state, a command with one of them isn't applied again but answered with the
+	 * current cart.
+	 */
+	interface Mutation extends ShoppingCartCommand {
+		Optional<String> getRequestId();
+
+		ActorRef<Confirmation> getReplyTo();
+	}
+
 	@SuppressWarnings("serial")
 	@Value
 	@JsonDeserialize
-	final class AddItem implements ShoppingCartCommand, Jsonable {
+	final class AddItem implements Mutation, Jsonable {
 		public final String itemId;
 		public final int quantity;
+		public final Optional<String> requestId;
 		public final ActorRef<Confirmation> replyTo;
 
 		@JsonCreator
-		AddItem(String itemId, int quantity, ActorRef<Confirmation> replyTo) {
+		AddItem(String itemId, int quantity, Optional<String> requestId, ActorRef<Confirmation> replyTo) {
 			this.itemId = Preconditions.checkNotNull(itemId, "itemId");
 			this.quantity = quantity;
+			this.requestId = Preconditions.checkNotNull(requestId, "requestId");
 			this.replyTo = replyTo;
 		}
 	}
@@ -82,13 +98,15 @@ public interface ShoppingCartCommand extends Jsonable {
 	@SuppressWarnings("serial")
 	@Value
 	@JsonDeserialize
-	final class RemoveItem implements ShoppingCartCommand, Jsonable {
+	final class RemoveItem implements Mutation, Jsonable {
 		public final String itemId;
+		public final Optional<String> requestId;
 		public final ActorRef<Confirmation> replyTo;
 
 		@JsonCreator
-		RemoveItem(String itemId, ActorRef<Confirmation> replyTo) {
+		RemoveItem(String itemId, Optional<String> requestId, ActorRef<Confirmation> replyTo) {
 			this.itemId = Preconditions.checkNotNull(itemId, "itemId");
+			this.requestId = Preconditions.checkNotNull(requestId, "requestId");
 			this.replyTo = replyTo;
 		}
 	}
@@ -96,15 +114,62 @@ public interface ShoppingCartCommand extends Jsonable {
 	@SuppressWarnings("serial")
 	@Value
 	@JsonDeserialize
-	final class AdjustItemQuantity implements ShoppingCartCommand, Jsonable {
+	final class AdjustItemQuantity implements Mutation, Jsonable {
 		public final String itemId;
 		public final int quantity;
+		public final Optional<String> requestId;
 		public final ActorRef<Confirmation> replyTo;
 
 		@JsonCreator
-		AdjustItemQuantity(String itemId, int quantity, ActorRef<Confirmation> replyTo) {
+		AdjustItemQuantity(String itemId, int quantity, Optional<String> requestId, ActorRef<Confirmation> replyTo) {
 			this.itemId = Preconditions.checkNotNull(itemId, "itemId");
 			this.quantity = quantity;
+			this.requestId = Preconditions.checkNotNull(requestId, "requestId");
+			this.replyTo = replyTo;
+		}
+	}
+
+	/**
+	 * A command to add or adjust several items at once.
+	 * <p>
+	 * The reply is {@link ItemsAccepted} with the reason for every rejected item,
+	 * or {@link Rejected} if the cart can't be updated at all.
+	 */
+	@SuppressWarnings("serial")
+	@Value
+	@JsonDeserialize
+	final class UpdateItems implements Mutation, Jsonable {
+		public final Map<String, Integer> items;
+		public final Optional<String> requestId;
+		public final ActorRef<Confirmation> replyTo;
+
+		@JsonCreator
+		UpdateItems(Map<String, Integer> items, Optional<String> requestId, ActorRef<Confirmation> replyTo) {
+			this.items = Preconditions.checkNotNull(items, "items");
+			this.requestId = Preconditions.checkNotNull(requestId, "requestId");
+			this.replyTo = replyTo;
+		}
+	}
+
+	/**
+	 * A command to replace the items of the cart: items not in the command are
+	 * removed, the others are added or adjusted to the quantity of the command.
+	 * <p>
+	 * The changes are persisted atomically, the reply is {@link Accepted} with the
+	 * resulting cart or {@link Rejected} without any change.
+	 */
+	@SuppressWarnings("serial")
+	@Value
+	@JsonDeserialize
+	final class ReplaceItems implements Mutation, Jsonable {
+		public final Map<String, Integer> items;
+		public final Optional<String> requestId;
+		public final ActorRef<Confirmation> replyTo;
+
+		@JsonCreator
+		ReplaceItems(Map<String, Integer> items, Optional<String> requestId, ActorRef<Confirmation> replyTo) {
+			this.items = Preconditions.checkNotNull(items, "items");
+			this.requestId = Preconditions.checkNotNull(requestId, "requestId");
 			this.replyTo = replyTo;
 		}
 	}
@@ -124,11 +189,13 @@ public interface ShoppingCartCommand extends Jsonable {
 	@Value
 	@JsonDeserialize
 	@SuppressWarnings("serial")
-	final class Checkout implements ShoppingCartCommand, Jsonable {
+	final class Checkout implements Mutation, Jsonable {
+		public final Optional<String> requestId;
 		public final ActorRef<Confirmation> replyTo;
 
 		@JsonCreator
-		Checkout(ActorRef<Confirmation> replyTo) {
+		Checkout(Optional<String> requestId, ActorRef<Confirmation> replyTo) {
+			this.requestId = Preconditions.checkNotNull(requestId, "requestId");
 			this.replyTo = replyTo;
 		}
 	}
@@ -153,12 +220,17 @@ public interface ShoppingCartCommand extends Jsonable {
 		public final Map<String, Integer> items;
 		public final boolean checkedOut;
 		public final Optional<Instant> checkoutDate;
+		/**
+		 * The sequence number of the last event applied to the cart, 0 if unknown.
+		 */
+		public final long sequenceNumber;
 
 		@JsonCreator
-		Summary(Map<String, Integer> items, boolean checkedOut, Optional<Instant> checkoutDate) {
+		Summary(Map<String, Integer> items, boolean checkedOut, Optional<Instant> checkoutDate, long sequenceNumber) {
 			this.items = items;
 			this.checkedOut = checkedOut;
 			this.checkoutDate = checkoutDate;
+			this.sequenceNumber = sequenceNumber;
 		}
 	}
 
@@ -173,6 +245,19 @@ public interface ShoppingCartCommand extends Jsonable {
 		}
 	}
 
+	@Value
+	@JsonDeserialize
+	public final class ItemsAccepted implements Confirmation {
+		public final Summary summary;
+		public final Map<String, String> rejectedItems;
+
+		@JsonCreator
+		ItemsAccepted(Summary summary, Map<String, String> rejectedItems) {
+			this.summary = summary;
+			this.rejectedItems = rejectedItems;
+		}
+	}
+
 	@Value
 	@JsonDeserialize
 	public final class Rejected implements Confirmation {
@@ -2,12 +2,12 @@ package com.lagom.TCSShoppingCart.shoppingCart.impl;
 
 import java.time.Instant;
 
+import org.pcollections.PMap;
+
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.google.common.base.Preconditions;
 import com.lightbend.lagom.javadsl.persistence.AggregateEvent;
-import com.lightbend.lagom.javadsl.persistence.AggregateEventShards;
-import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
 import com.lightbend.lagom.javadsl.persistence.AggregateEventTagger;
 import com.lightbend.lagom.serialization.Jsonable;
 
@@ -22,13 +22,6 @@ import lombok.Value;
  */
 public interface ShoppingCartEvent extends Jsonable, AggregateEvent<ShoppingCartEvent> {
 
-	/**
-	 * Tags are used for getting and publishing streams of events. Each event will
-	 * have this tag, and in this case, we are partitioning the tags into 4 shards,
-	 * which means we can have 4 concurrent processors/publishers of events.
-	 */
-	AggregateEventShards<ShoppingCartEvent> TAG = AggregateEventTag.sharded(ShoppingCartEvent.class, 4);
-
 	/**
 	 * An event that represents a change in greeting message.
 	 */
@@ -47,13 +40,11 @@ public interface ShoppingCartEvent extends Jsonable, AggregateEvent<ShoppingCart
 		}
 
 		public String getName() {
-			// TODO Auto-generated method stub
-			return null;
+			return name;
 		}
 
 		public String getMessage() {
-			// TODO Auto-generated method stub
-			return null;
+			return message;
 		}
 	}
 
@@ -65,13 +56,18 @@ public interface ShoppingCartEvent extends Jsonable, AggregateEvent<ShoppingCart
 		public final String itemId;
 		public final int quantity;
 		public final Instant eventTime;
+		/**
+		 * The request id of the command, null if it had none.
+		 */
+		public final String requestId;
 
 		@JsonCreator
-		ItemAdded(String shoppingCartId, String itemId, int quantity, Instant eventTime) {
+		ItemAdded(String shoppingCartId, String itemId, int quantity, Instant eventTime, String requestId) {
 			this.shoppingCartId = Preconditions.checkNotNull(shoppingCartId, "shoppingCartId");
 			this.itemId = Preconditions.checkNotNull(itemId, "itemId");
 			this.quantity = quantity;
 			this.eventTime = eventTime;
+			this.requestId = requestId;
 		}
 	}
 
@@ -82,12 +78,17 @@ public interface ShoppingCartEvent extends Jsonable, AggregateEvent<ShoppingCart
 		public final String shoppingCartId;
 		public final String itemId;
 		public final Instant eventTime;
+		/**
+		 * The request id of the command, null if it had none.
+		 */
+		public final String requestId;
 
 		@JsonCreator
-		ItemRemoved(String shoppingCartId, String itemId, Instant eventTime) {
+		ItemRemoved(String shoppingCartId, String itemId, Instant eventTime, String requestId) {
 			this.shoppingCartId = Preconditions.checkNotNull(shoppingCartId, "shoppingCartId");
 			this.itemId = Preconditions.checkNotNull(itemId, "itemId");
 			this.eventTime = eventTime;
+			this.requestId = requestId;
 		}
 	}
 
@@ -99,13 +100,45 @@ public interface ShoppingCartEvent extends Jsonable, AggregateEvent<ShoppingCart
 		public final String itemId;
 		public final int quantity;
 		public final Instant eventTime;
+		/**
+		 * The request id of the command, null if it had none.
+		 */
+		public final String requestId;
 
 		@JsonCreator
-		ItemQuantityAdjusted(String shoppingCartId, String itemId, int quantity, Instant eventTime) {
+		ItemQuantityAdjusted(String shoppingCartId, String itemId, int quantity, Instant eventTime, String requestId) {
 			this.shoppingCartId = Preconditions.checkNotNull(shoppingCartId, "shoppingCartId");
 			this.itemId = Preconditions.checkNotNull(itemId, "itemId");
 			this.quantity = quantity;
 			this.eventTime = eventTime;
+			this.requestId = requestId;
+		}
+	}
+
+	/**
+	 * An event that represents several items being added or adjusted at once.
+	 */
+	@SuppressWarnings("serial")
+	@Value
+	@JsonDeserialize
+	public final class ItemsUpdated implements ShoppingCartEvent, Jsonable {
+		public final String shoppingCartId;
+		public final PMap<String, Integer> addedItems;
+		public final PMap<String, Integer> adjustedItems;
+		public final Instant eventTime;
+		/**
+		 * The request id of the command, null if it had none.
+		 */
+		public final String requestId;
+
+		@JsonCreator
+		ItemsUpdated(String shoppingCartId, PMap<String, Integer> addedItems, PMap<String, Integer> adjustedItems,
+				Instant eventTime, String requestId) {
+			this.shoppingCartId = Preconditions.checkNotNull(shoppingCartId, "shoppingCartId");
+			this.addedItems = Preconditions.checkNotNull(addedItems, "addedItems");
+			this.adjustedItems = Preconditions.checkNotNull(adjustedItems, "adjustedItems");
+			this.eventTime = eventTime;
+			this.requestId = requestId;
 		}
 	}
 
@@ -115,18 +148,33 @@ public interface ShoppingCartEvent extends Jsonable, AggregateEvent<ShoppingCart
 	public final class CheckedOut implements ShoppingCartEvent, Jsonable {
 
 		public final String shoppingCartId;
+		/**
+		 * The items of the cart at checkout, so that consumers don't need to ask the
+		 * entity for them. Null for events persisted before this field was added.
+		 */
+		public final PMap<String, Integer> items;
 		public final Instant eventTime;
+		/**
+		 * The request id of the command, null if it had none.
+		 */
+		public final String requestId;
 
 		@JsonCreator
-		CheckedOut(String shoppingCartId, Instant eventTime) {
+		CheckedOut(String shoppingCartId, PMap<String, Integer> items, Instant eventTime, String requestId) {
 			this.shoppingCartId = Preconditions.checkNotNull(shoppingCartId, "shoppingCartId");
+			this.items = items;
 			this.eventTime = eventTime;
+			this.requestId = requestId;
 		}
 	}
 
+	/**
+	 * Cart events are tagged by the aggregate with the configured
+	 * {@link ShoppingCartEventTags}, an event doesn't know the shard count.
+	 */
 	@Override
 	default AggregateEventTagger<ShoppingCartEvent> aggregateTag() {
-		return TAG;
+		throw new UnsupportedOperationException("Cart events are tagged with ShoppingCartEventTags");
 	}
 
 }
@@ -0,0 +1,208 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import java.io.NotSerializableException;
+import java.time.Instant;
+
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartEvent.CheckedOut;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartEvent.ItemAdded;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartEvent.ItemQuantityAdjusted;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartEvent.ItemRemoved;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartEvent.ItemsUpdated;
+
+import akka.serialization.SerializerWithStringManifest;
+
+/**
+ * Compact binary serializer for the events of the cart journal.
+ * <p>
+ * The manifest names the event type and stays the same for as long as the type
+ * exists. Every payload starts with a format version byte and a flags byte,
+ * followed by the cart id, the event time and the fields of the event type,
+ * with the items of an event front coded like those of snapshots. The event
+ * time is written as seconds and the fraction of a second in the coarsest of
+ * milliseconds, microseconds and nanoseconds that holds it exactly.
+ * <p>
+ * A field added to an event type is appended behind a new flag, so readers
+ * that don't know the flag ignore it. A change that can't be appended needs a
+ * new version, and every version that was written must be read forever. Events
+ * written before this serializer was bound carry the Jackson serializer id, so
+ * Akka keeps reading them with Jackson.
+ * <p>
+ * Events are only written with this serializer once
+ * {@code shopping-cart.events.serializer} binds them to it, which must wait
+ * until every node can read them.
+ */
+public class ShoppingCartEventSerializer extends SerializerWithStringManifest {
+
+	static final int IDENTIFIER = 1100002;
+
+	static final String ITEM_ADDED_MANIFEST = "ItemAdded";
+	static final String ITEM_REMOVED_MANIFEST = "ItemRemoved";
+	static final String ITEM_QUANTITY_ADJUSTED_MANIFEST = "ItemQuantityAdjusted";
+	static final String ITEMS_UPDATED_MANIFEST = "ItemsUpdated";
+	static final String CHECKED_OUT_MANIFEST = "CheckedOut";
+
+	private static final int VERSION_1 = 1;
+
+	private static final int FLAG_REQUEST_ID = 1;
+
+	private static final int FLAG_DEFLATED = 2;
+
+	private static final int FLAG_TIME_MILLIS = 4;
+
+	private static final int FLAG_TIME_MICROS = 8;
+
+	/**
+	 * A CheckedOut without items, persisted before the event carried them.
+	 */
+	private static final int FLAG_NO_ITEMS = 16;
+
+	private static final int COMPRESS_LARGER_THAN = 32 * 1024;
+
+	@Override
+	public int identifier() {
+		return IDENTIFIER;
+	}
+
+	@Override
+	public String manifest(Object o) {
+		if (o instanceof ItemAdded) {
+			return ITEM_ADDED_MANIFEST;
+		} else if (o instanceof ItemRemoved) {
+			return ITEM_REMOVED_MANIFEST;
+		} else if (o instanceof ItemQuantityAdjusted) {
+			return ITEM_QUANTITY_ADJUSTED_MANIFEST;
+		} else if (o instanceof ItemsUpdated) {
+			return ITEMS_UPDATED_MANIFEST;
+		} else if (o instanceof CheckedOut) {
+			return CHECKED_OUT_MANIFEST;
+		}
+		throw new IllegalArgumentException("Can't serialize object of type " + o.getClass());
+	}
+
+	@Override
+	public byte[] toBinary(Object o) {
+		CompactBinary.Writer body = new CompactBinary.Writer(64);
+		int flags;
+		String requestId;
+		if (o instanceof ItemAdded) {
+			ItemAdded event = (ItemAdded) o;
+			flags = writeHeader(body, event.shoppingCartId, event.eventTime);
+			body.writeString(event.itemId).writeVarInt(event.quantity);
+			requestId = event.requestId;
+		} else if (o instanceof ItemRemoved) {
+			ItemRemoved event = (ItemRemoved) o;
+			flags = writeHeader(body, event.shoppingCartId, event.eventTime);
+			body.writeString(event.itemId);
+			requestId = event.requestId;
+		} else if (o instanceof ItemQuantityAdjusted) {
+			ItemQuantityAdjusted event = (ItemQuantityAdjusted) o;
+			flags = writeHeader(body, event.shoppingCartId, event.eventTime);
+			body.writeString(event.itemId).writeVarInt(event.quantity);
+			requestId = event.requestId;
+		} else if (o instanceof ItemsUpdated) {
+			ItemsUpdated event = (ItemsUpdated) o;
+			flags = writeHeader(body, event.shoppingCartId, event.eventTime);
+			ShoppingCartStateSerializer.writeItems(body, ItemMap.from(event.addedItems));
+			ShoppingCartStateSerializer.writeItems(body, ItemMap.from(event.adjustedItems));
+			requestId = event.requestId;
+		} else if (o instanceof CheckedOut) {
+			CheckedOut event = (CheckedOut) o;
+			flags = writeHeader(body, event.shoppingCartId, event.eventTime);
+			if (event.items == null) {
+				flags |= FLAG_NO_ITEMS;
+			} else {
+				ShoppingCartStateSerializer.writeItems(body, ItemMap.from(event.items));
+			}
+			requestId = event.requestId;
+		} else {
+			throw new IllegalArgumentException("Can't serialize object of type " + o.getClass());
+		}
+
+		if (requestId != null) {
+			flags |= FLAG_REQUEST_ID;
+			body.writeString(requestId);
+		}
+		byte[] bodyBytes = body.toByteArray();
+		if (bodyBytes.length > COMPRESS_LARGER_THAN) {
+			flags |= FLAG_DEFLATED;
+			bodyBytes = CompactBinary.deflate(bodyBytes);
+		}
+		return new CompactBinary.Writer(bodyBytes.length + 2).writeByte(VERSION_1).writeByte(flags)
+				.writeBytes(bodyBytes, bodyBytes.length).toByteArray();
+	}
+
+	@Override
+	public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException {
+		CompactBinary.Reader reader = new CompactBinary.Reader(bytes);
+		int version = reader.readByte();
+		if (version != VERSION_1) {
+			throw new NotSerializableException("Unsupported shopping cart event format version " + version);
+		}
+		int flags = reader.readByte();
+		if ((flags & FLAG_DEFLATED) != 0) {
+			reader = new CompactBinary.Reader(CompactBinary.inflate(reader));
+		}
+
+		String shoppingCartId = reader.readString();
+		Instant eventTime = readEventTime(reader, flags);
+		switch (manifest) {
+		case ITEM_ADDED_MANIFEST: {
+			String itemId = reader.readString();
+			int quantity = reader.readVarInt();
+			return new ItemAdded(shoppingCartId, itemId, quantity, eventTime, readRequestId(reader, flags));
+		}
+		case ITEM_REMOVED_MANIFEST: {
+			String itemId = reader.readString();
+			return new ItemRemoved(shoppingCartId, itemId, eventTime, readRequestId(reader, flags));
+		}
+		case ITEM_QUANTITY_ADJUSTED_MANIFEST: {
+			String itemId = reader.readString();
+			int quantity = reader.readVarInt();
+			return new ItemQuantityAdjusted(shoppingCartId, itemId, quantity, eventTime,
+					readRequestId(reader, flags));
+		}
+		case ITEMS_UPDATED_MANIFEST: {
+			ItemMap addedItems = ShoppingCartStateSerializer.readItems(reader);
+			ItemMap adjustedItems = ShoppingCartStateSerializer.readItems(reader);
+			return new ItemsUpdated(shoppingCartId, addedItems, adjustedItems, eventTime,
+					readRequestId(reader, flags));
+		}
+		case CHECKED_OUT_MANIFEST: {
+			ItemMap items = (flags & FLAG_NO_ITEMS) != 0 ? null : ShoppingCartStateSerializer.readItems(reader);
+			return new CheckedOut(shoppingCartId, items, eventTime, readRequestId(reader, flags));
+		}
+		default:
+			throw new NotSerializableException("Unknown manifest [" + manifest + "]");
+		}
+	}
+
+	/**
+	 * Write the fields all events have, returning the flag of the precision of
+	 * the event time.
+	 */
+	private static int writeHeader(CompactBinary.Writer body, String shoppingCartId, Instant eventTime) {
+		body.writeString(shoppingCartId).writeVarLong(eventTime.getEpochSecond());
+		int nanos = eventTime.getNano();
+		if (nanos % 1_000_000 == 0) {
+			body.writeVarInt(nanos / 1_000_000);
+			return FLAG_TIME_MILLIS;
+		} else if (nanos % 1_000 == 0) {
+			body.writeVarInt(nanos / 1_000);
+			return FLAG_TIME_MICROS;
+		}
+		body.writeVarInt(nanos);
+		return 0;
+	}
+
+	private static Instant readEventTime(CompactBinary.Reader reader, int flags) throws NotSerializableException {
+		long seconds = reader.readVarLong();
+		int fraction = reader.readVarInt();
+		int nanos = (flags & FLAG_TIME_MILLIS) != 0 ? fraction * 1_000_000
+				: (flags & FLAG_TIME_MICROS) != 0 ? fraction * 1_000 : fraction;
+		return Instant.ofEpochSecond(seconds, nanos);
+	}
+
+	private static String readRequestId(CompactBinary.Reader reader, int flags) throws NotSerializableException {
+		return (flags & FLAG_REQUEST_ID) != 0 ? reader.readString() : null;
+	}
+}
@@ -0,0 +1,44 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.pcollections.PSequence;
+
+import com.google.common.base.Preconditions;
+import com.lightbend.lagom.javadsl.persistence.AggregateEventShards;
+import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
+import com.typesafe.config.Config;
+
+/**
+ * The tags cart events are tagged with, used for getting and publishing streams
+ * of events.
+ * <p>
+ * The tags are partitioned into <code>shopping-cart.events.tag-shards</code>
+ * shards, which means we can have that many concurrent processors/publishers of
+ * events. The shard of an event is derived from the id of its cart, so changing
+ * the count moves carts to other tags, see application.conf.
+ */
+@Singleton
+public class ShoppingCartEventTags {
+
+	private final AggregateEventShards<ShoppingCartEvent> tagger;
+
+	@Inject
+	public ShoppingCartEventTags(Config config) {
+		this(config.getInt("shopping-cart.events.tag-shards"));
+	}
+
+	ShoppingCartEventTags(int shards) {
+		Preconditions.checkArgument(shards > 0, "shopping-cart.events.tag-shards must be positive");
+		this.tagger = AggregateEventTag.sharded(ShoppingCartEvent.class, shards);
+	}
+
+	AggregateEventShards<ShoppingCartEvent> tagger() {
+		return tagger;
+	}
+
+	PSequence<AggregateEventTag<ShoppingCartEvent>> allTags() {
+		return tagger.allTags();
+	}
+}
@@ -0,0 +1,265 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.inject.Singleton;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Node-local metrics of the shopping cart service, rendered in the Prometheus
+ * text exposition format.
+ * <p>
+ * Metrics are registered once, either with a supplier that is only read when
+ * the metrics are rendered, or as a family of labeled counters or histograms.
+ * Callers on the hot path look up the labeled children once and keep them, so
+ * recording is a {@link LongAdder} increment.
+ */
+@Singleton
+public class ShoppingCartMetrics {
+
+	/**
+	 * Upper bounds of the buckets of latency histograms, in nanoseconds.
+	 */
+	static final long[] LATENCY_BUCKETS = { micros(500), millis(1), millis(2), millis(5), millis(10), millis(25),
+			millis(50), millis(100), millis(250), millis(500), millis(1000), millis(2500), millis(5000),
+			millis(10000) };
+
+	private final List<Metric> metrics = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Register a monotonically increasing value.
+	 */
+	public void counter(String name, String help, LongSupplier value) {
+		metrics.add(new SampledMetric(name, help, "counter", value));
+	}
+
+	/**
+	 * Register a value that can go up and down.
+	 */
+	public void gauge(String name, String help, LongSupplier value) {
+		metrics.add(new SampledMetric(name, help, "gauge", value));
+	}
+
+	/**
+	 * Register a family of counters, one for each combination of label values.
+	 */
+	public Counters counters(String name, String help, String... labelNames) {
+		Counters counters = new Counters(name, help, labelNames);
+		metrics.add(counters);
+		return counters;
+	}
+
+	/**
+	 * Register a family of latency histograms. Durations are recorded in
+	 * nanoseconds and rendered in seconds.
+	 */
+	public Histograms timers(String name, String help, String... labelNames) {
+		Histograms histograms = new Histograms(name, help, LATENCY_BUCKETS, 9, labelNames);
+		metrics.add(histograms);
+		return histograms;
+	}
+
+	/**
+	 * Register a family of histograms of plain values, such as counts.
+	 */
+	public Histograms histograms(String name, String help, long[] buckets, String... labelNames) {
+		Histograms histograms = new Histograms(name, help, buckets, 0, labelNames);
+		metrics.add(histograms);
+		return histograms;
+	}
+
+	public String render() {
+		StringBuilder out = new StringBuilder();
+		for (Metric metric : metrics) {
+			metric.writeTo(out);
+		}
+		return out.toString();
+	}
+
+	private static long micros(long micros) {
+		return TimeUnit.MICROSECONDS.toNanos(micros);
+	}
+
+	private static long millis(long millis) {
+		return TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	private abstract static class Metric {
+		final String name;
+		final String help;
+		final String type;
+
+		Metric(String name, String help, String type) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+		}
+
+		void writeTo(StringBuilder out) {
+			out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+			out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+			writeSamples(out);
+		}
+
+		abstract void writeSamples(StringBuilder out);
+	}
+
+	private static final class SampledMetric extends Metric {
+		private final LongSupplier value;
+
+		SampledMetric(String name, String help, String type, LongSupplier value) {
+			super(name, help, type);
+			this.value = value;
+		}
+
+		@Override
+		void writeSamples(StringBuilder out) {
+			out.append(name).append(' ').append(value.getAsLong()).append('\n');
+		}
+	}
+
+	/**
+	 * A family of metrics that share a name and are told apart by label values.
+	 */
+	abstract static class Family<T> extends Metric {
+		private final String[] labelNames;
+		private final Map<List<String>, T> children = new ConcurrentHashMap<>();
+
+		Family(String name, String help, String type, String[] labelNames) {
+			super(name, help, type);
+			this.labelNames = labelNames;
+		}
+
+		/**
+		 * The child for the given label values, created on first use.
+		 */
+		public T labels(String... labelValues) {
+			Preconditions.checkArgument(labelValues.length == labelNames.length, "%s expects labels %s", name,
+					Arrays.toString(labelNames));
+			return children.computeIfAbsent(Arrays.asList(labelValues), values -> newChild());
+		}
+
+		abstract T newChild();
+
+		abstract void writeChild(StringBuilder out, String labels, T child);
+
+		@Override
+		void writeSamples(StringBuilder out) {
+			children.forEach((labelValues, child) -> writeChild(out, labels(labelValues), child));
+		}
+
+		private String labels(List<String> labelValues) {
+			StringBuilder labels = new StringBuilder();
+			for (int i = 0; i < labelNames.length; i++) {
+				if (i > 0)
+					labels.append(',');
+				labels.append(labelNames[i]).append("=\"").append(escape(labelValues.get(i))).append('"');
+			}
+			return labels.toString();
+		}
+
+		private static String escape(String labelValue) {
+			return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+		}
+	}
+
+	public static final class Counters extends Family<LongAdder> {
+
+		Counters(String name, String help, String[] labelNames) {
+			super(name, help, "counter", labelNames);
+		}
+
+		@Override
+		LongAdder newChild() {
+			return new LongAdder();
+		}
+
+		@Override
+		void writeChild(StringBuilder out, String labels, LongAdder child) {
+			out.append(name);
+			if (!labels.isEmpty())
+				out.append('{').append(labels).append('}');
+			out.append(' ').append(child.sum()).append('\n');
+		}
+	}
+
+	public static final class Histograms extends Family<Histogram> {
+		private final long[] buckets;
+		/**
+		 * Number of decimal places the recorded values are shifted by when rendered.
+		 */
+		private final int scale;
+
+		Histograms(String name, String help, long[] buckets, int scale, String[] labelNames) {
+			super(name, help, "histogram", labelNames);
+			this.buckets = buckets;
+			this.scale = scale;
+		}
+
+		@Override
+		Histogram newChild() {
+			return new Histogram(buckets);
+		}
+
+		@Override
+		void writeChild(StringBuilder out, String labels, Histogram child) {
+			String separator = labels.isEmpty() ? "" : ",";
+			long cumulative = 0;
+			for (int i = 0; i <= buckets.length; i++) {
+				cumulative += child.counts[i].sum();
+				String le = i < buckets.length ? format(buckets[i]) : "+Inf";
+				out.append(name).append("_bucket{").append(labels).append(separator).append("le=\"").append(le)
+						.append("\"} ").append(cumulative).append('\n');
+			}
+			String suffix = labels.isEmpty() ? " " : "{" + labels + "} ";
+			out.append(name).append("_sum").append(suffix).append(format(child.sum.sum())).append('\n');
+			out.append(name).append("_count").append(suffix).append(cumulative).append('\n');
+		}
+
+		private String format(long value) {
+			return BigDecimal.valueOf(value, scale).stripTrailingZeros().toPlainString();
+		}
+	}
+
+	/**
+	 * A histogram with fixed buckets, recording is lock free.
+	 */
+	public static final class Histogram {
+		private final long[] buckets;
+		private final LongAdder[] counts;
+		private final LongAdder sum = new LongAdder();
+
+		Histogram(long[] buckets) {
+			this.buckets = buckets;
+			this.counts = new LongAdder[buckets.length + 1];
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = new LongAdder();
+			}
+		}
+
+		public void record(long value) {
+			int i = 0;
+			while (i < buckets.length && value > buckets[i]) {
+				i++;
+			}
+			counts[i].increment();
+			sum.add(value);
+		}
+
+		/**
+		 * Record the nanoseconds elapsed since the given {@link System#nanoTime()}.
+		 */
+		public void recordSince(long startNanos) {
+			record(System.nanoTime() - startNanos);
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package com.lagom.TCSShoppingCart.shoppingCart.impl;
 
+import java.time.Instant;
+
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.Persistence;
@@ -11,59 +13,121 @@ import org.slf4j.LoggerFactory;
 import com.google.common.collect.ImmutableMap;
 import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartEvent.CheckedOut;
 import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartEvent.ItemAdded;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartEvent.ItemsUpdated;
 import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
 import com.lightbend.lagom.javadsl.persistence.ReadSideProcessor;
 import com.lightbend.lagom.javadsl.persistence.jpa.JpaReadSide;
+import com.lightbend.lagom.javadsl.persistence.jpa.JpaSession;
+import com.typesafe.config.Config;
 
 public class ShoppingCartProcessor extends ReadSideProcessor<ShoppingCartEvent> {
 
+	private static final String READ_SIDE_ID = "shopping-cart-report";
+
 	private final JpaReadSide jpaReadSide;
+	private final JpaSession jpaSession;
+	private final Config config;
+	private final ShoppingCartEventTags tags;
 	final private Logger logger = LoggerFactory.getLogger(this.getClass());
 
 	@Inject
-	public ShoppingCartProcessor(JpaReadSide jpaReadSide) {
+	public ShoppingCartProcessor(JpaReadSide jpaReadSide, JpaSession jpaSession, ShoppingCartEventTags tags,
+			Config config) {
 		this.jpaReadSide = jpaReadSide;
+		this.jpaSession = jpaSession;
+		this.tags = tags;
+		this.config = config;
 	}
 
 	@Override
 	public ReadSideHandler<ShoppingCartEvent> buildHandler() {
-		return jpaReadSide.<ShoppingCartEvent>builder("shopping-cart-report").setGlobalPrepare(this::createSchema)
+		Config batching = config.getConfig("shopping-cart.report.batching");
+		String persistenceUnit = config.getString("lagom.persistence.jpa.persistence-unit");
+		if (batching.getBoolean("enabled")) {
+			// Both handlers share the same read side id, and therefore the same offsets
+			return new ShoppingCartReportBatchHandler(jpaSession, new ReadSideOffsetStore(config), READ_SIDE_ID,
+					persistenceUnit, batching.getInt("batch-size"), batching.getDuration("batch-interval"));
+		}
+
+		return jpaReadSide.<ShoppingCartEvent>builder(READ_SIDE_ID)
+				.setGlobalPrepare(entityManager -> createSchema(entityManager, persistenceUnit))
 				.setEventHandler(ItemAdded.class, this::createReport)
+				.setEventHandler(ItemsUpdated.class, this::createReport)
 				.setEventHandler(CheckedOut.class, this::addCheckoutTime).build();
 	}
 
 	@Override
 	public PSequence<AggregateEventTag<ShoppingCartEvent>> aggregateTags() {
-		return ShoppingCartEvent.TAG.allTags();
+		return tags.allTags();
 	}
 
-	private void createSchema(@SuppressWarnings("unused") EntityManager ignored) {
-		Persistence.generateSchema("default", ImmutableMap.of("hibernate.hbm2ddl.auto", "update"));
+	/**
+	 * Create or update the report table and its indexes in the database of the
+	 * persistence unit, and backfill the status of reports written before the
+	 * status column existed.
+	 */
+	static void createSchema(EntityManager entityManager, String persistenceUnit) {
+		Persistence.generateSchema(persistenceUnit, ImmutableMap.of("hibernate.hbm2ddl.auto", "update"));
+		entityManager.createQuery("UPDATE ShoppingCart c SET c.status = CASE WHEN c.checkoutDate IS NULL"
+				+ " THEN :open ELSE :checkedOut END WHERE c.status IS NULL")
+				.setParameter("open", ShoppingCart.Status.OPEN)
+				.setParameter("checkedOut", ShoppingCart.Status.CHECKED_OUT).executeUpdate();
 	}
 
-	private void createReport(EntityManager entityManager, ItemAdded evt) {
+	void createReport(EntityManager entityManager, ItemAdded evt) {
 
 		logger.debug("Received ItemUpdate event: " + evt);
-		if (findReport(entityManager, evt.shoppingCartId) == null) {
-			logger.debug("Creating report for CartID: " + evt.shoppingCartId);
-			ShoppingCart report = new ShoppingCart();
-			report.setId(evt.shoppingCartId);
-			report.setCreationDate(evt.eventTime);
+		createReport(entityManager, evt.shoppingCartId, evt.eventTime);
+	}
+
+	void createReport(EntityManager entityManager, ItemsUpdated evt) {
+
+		logger.debug("Received ItemsUpdated event: " + evt);
+		if (!evt.addedItems.isEmpty()) {
+			createReport(entityManager, evt.shoppingCartId, evt.eventTime);
+		}
+	}
+
+	/**
+	 * Create the report of a cart when the first item is added to it.
+	 * <p>
+	 * After a change of the tag shard count the events of a cart can be processed
+	 * out of order, so the report may already exist without a creation date, or
+	 * with a later one.
+	 */
+	private void createReport(EntityManager entityManager, String cartId, Instant creationDate) {
+		ShoppingCart report = findReport(entityManager, cartId);
+		if (report == null) {
+			logger.debug("Creating report for CartID: " + cartId);
+			report = new ShoppingCart();
+			report.setId(cartId);
+			report.setCreationDate(creationDate);
+			report.setStatus(ShoppingCart.Status.OPEN);
+			entityManager.persist(report);
+		} else if (report.getCreationDate() == null || creationDate.isBefore(report.getCreationDate())) {
+			logger.debug("Setting creation date (" + creationDate + ") for CartID: " + cartId);
+			report.setCreationDate(creationDate);
 			entityManager.persist(report);
 		}
 	}
 
-	private void addCheckoutTime(EntityManager entityManager, CheckedOut evt) {
+	/**
+	 * Add the checkout time to the report of the cart, creating the report if the
+	 * events adding its items haven't been processed yet.
+	 */
+	void addCheckoutTime(EntityManager entityManager, CheckedOut evt) {
 		ShoppingCart report = findReport(entityManager, evt.shoppingCartId);
 
 		logger.debug("Received CheckedOut event: " + evt);
-		if (report != null) {
-			logger.debug("Adding checkout time (" + evt.eventTime + ") for CartID: " + evt.shoppingCartId);
-			report.setCheckoutDate(evt.eventTime);
-			entityManager.persist(report);
-		} else {
-			throw new RuntimeException("Didn't find cart for checkout. CartID: " + evt.shoppingCartId);
+		if (report == null) {
+			logger.debug("Creating report without creation date for CartID: " + evt.shoppingCartId);
+			report = new ShoppingCart();
+			report.setId(evt.shoppingCartId);
 		}
+		logger.debug("Adding checkout time (" + evt.eventTime + ") for CartID: " + evt.shoppingCartId);
+		report.setCheckoutDate(evt.eventTime);
+		report.setStatus(ShoppingCart.Status.CHECKED_OUT);
+		entityManager.persist(report);
 	}
 
 	private ShoppingCart findReport(EntityManager entityManager, String cartId) {
@@ -0,0 +1,187 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartEvent.CheckedOut;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartEvent.ItemAdded;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartEvent.ItemsUpdated;
+import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
+import com.lightbend.lagom.javadsl.persistence.Offset;
+import com.lightbend.lagom.javadsl.persistence.ReadSideProcessor.ReadSideHandler;
+import com.lightbend.lagom.javadsl.persistence.jpa.JpaSession;
+
+import akka.Done;
+import akka.japi.Pair;
+import akka.stream.javadsl.Flow;
+
+/**
+ * Batching handler for the shopping cart report.
+ * <p>
+ * Instead of a find and a persist per event, each in its own transaction, it
+ * groups the events of a tag, collapses the events of every cart into a single
+ * row and writes the batch with one multi-row {@code INSERT ... ON CONFLICT}
+ * upsert. The offset of the last event is written in the same transaction.
+ * The upsert syntax requires PostgreSQL.
+ */
+class ShoppingCartReportBatchHandler extends ReadSideHandler<ShoppingCartEvent> {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private final JpaSession jpaSession;
+	private final ReadSideOffsetStore offsetStore;
+	private final String readSideId;
+	private final String persistenceUnit;
+	private final int batchSize;
+	private final Duration batchInterval;
+
+	private volatile String tag;
+
+	ShoppingCartReportBatchHandler(JpaSession jpaSession, ReadSideOffsetStore offsetStore, String readSideId,
+			String persistenceUnit, int batchSize, Duration batchInterval) {
+		this.jpaSession = jpaSession;
+		this.offsetStore = offsetStore;
+		this.readSideId = readSideId;
+		this.persistenceUnit = persistenceUnit;
+		this.batchSize = batchSize;
+		this.batchInterval = batchInterval;
+	}
+
+	@Override
+	public CompletionStage<Done> globalPrepare() {
+		return jpaSession.withTransaction(entityManager -> {
+			ShoppingCartProcessor.createSchema(entityManager, persistenceUnit);
+			entityManager.unwrap(Session.class).doWork(offsetStore::createTable);
+			return Done.getInstance();
+		});
+	}
+
+	@Override
+	public CompletionStage<Offset> prepare(AggregateEventTag<ShoppingCartEvent> tag) {
+		this.tag = tag.tag();
+		return jpaSession.withTransaction(entityManager -> entityManager.unwrap(Session.class)
+				.doReturningWork(connection -> offsetStore.read(connection, readSideId, this.tag)));
+	}
+
+	@Override
+	public Flow<Pair<ShoppingCartEvent, Offset>, Done, ?> handle() {
+		return Flow.<Pair<ShoppingCartEvent, Offset>>create().groupedWithin(batchSize, batchInterval)
+				.mapAsync(1, this::writeBatch);
+	}
+
+	private CompletionStage<Done> writeBatch(List<Pair<ShoppingCartEvent, Offset>> batch) {
+		Map<String, ReportRow> rows = collapse(batch);
+		Offset lastOffset = batch.get(batch.size() - 1).second();
+		logger.debug("Writing " + rows.size() + " report rows for " + batch.size() + " events of tag " + tag);
+
+		return jpaSession.withTransaction(entityManager -> {
+			entityManager.unwrap(Session.class).doWork(connection -> {
+				if (!rows.isEmpty()) {
+					upsert(connection, rows);
+				}
+				offsetStore.write(connection, readSideId, tag, lastOffset);
+			});
+			return Done.getInstance();
+		});
+	}
+
+	/**
+	 * The report row of every cart with events in the batch, in the order of the
+	 * first event of each cart.
+	 */
+	static Map<String, ReportRow> collapse(List<Pair<ShoppingCartEvent, Offset>> batch) {
+		Map<String, ReportRow> rows = new LinkedHashMap<>();
+		for (Pair<ShoppingCartEvent, Offset> eventAndOffset : batch) {
+			ShoppingCartEvent event = eventAndOffset.first();
+			if (event instanceof ItemAdded) {
+				ItemAdded itemAdded = (ItemAdded) event;
+				rows.computeIfAbsent(itemAdded.shoppingCartId, id -> new ReportRow()).created(itemAdded.eventTime);
+			} else if (event instanceof ItemsUpdated && !((ItemsUpdated) event).addedItems.isEmpty()) {
+				ItemsUpdated itemsUpdated = (ItemsUpdated) event;
+				rows.computeIfAbsent(itemsUpdated.shoppingCartId, id -> new ReportRow())
+						.created(itemsUpdated.eventTime);
+			} else if (event instanceof CheckedOut) {
+				CheckedOut checkedOut = (CheckedOut) event;
+				rows.computeIfAbsent(checkedOut.shoppingCartId, id -> new ReportRow()).checkedOut(checkedOut.eventTime);
+			}
+		}
+		return rows;
+	}
+
+	private static void upsert(Connection connection, Map<String, ReportRow> rows) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(upsertSql(rows.size()))) {
+			int index = 1;
+			for (Map.Entry<String, ReportRow> row : rows.entrySet()) {
+				statement.setString(index++, row.getKey());
+				setTimestamp(statement, index++, row.getValue().creationDate);
+				setTimestamp(statement, index++, row.getValue().checkoutDate);
+				statement.setString(index++, (row.getValue().checkoutDate == null ? ShoppingCart.Status.OPEN
+						: ShoppingCart.Status.CHECKED_OUT).name());
+			}
+			statement.executeUpdate();
+		}
+	}
+
+	/**
+	 * The upsert of the given number of rows, each bound to the id, creation
+	 * date, checkout date and status of a row.
+	 * <p>
+	 * The events of a cart can be processed out of order after a change of the
+	 * tag shard count, a row inserted by a checkout gets its creation date from a
+	 * later batch.
+	 */
+	static String upsertSql(int rows) {
+		StringBuilder sql = new StringBuilder(
+				"INSERT INTO ShoppingCart (id, creationDate, checkoutDate, status) VALUES ");
+		for (int i = 0; i < rows; i++) {
+			sql.append(i == 0 ? "(?, ?, ?, ?)" : ", (?, ?, ?, ?)");
+		}
+		// Keep the earliest creation date and the latest checkout date seen for a cart,
+		// LEAST ignores nulls
+		sql.append(" ON CONFLICT (id) DO UPDATE SET"
+				+ " creationDate = LEAST(ShoppingCart.creationDate, EXCLUDED.creationDate),"
+				+ " checkoutDate = COALESCE(EXCLUDED.checkoutDate, ShoppingCart.checkoutDate),"
+				+ " status = CASE WHEN COALESCE(EXCLUDED.checkoutDate, ShoppingCart.checkoutDate) IS NULL"
+				+ " THEN 'OPEN' ELSE 'CHECKED_OUT' END");
+		return sql.toString();
+	}
+
+	private static void setTimestamp(PreparedStatement statement, int index, Instant instant) throws SQLException {
+		if (instant == null) {
+			statement.setNull(index, Types.TIMESTAMP);
+		} else {
+			statement.setTimestamp(index, Timestamp.from(instant));
+		}
+	}
+
+	/**
+	 * The collapsed result of all the events of one cart in a batch.
+	 */
+	static final class ReportRow {
+		Instant creationDate;
+		Instant checkoutDate;
+
+		void created(Instant when) {
+			if (creationDate == null || when.isBefore(creationDate)) {
+				creationDate = when;
+			}
+		}
+
+		void checkedOut(Instant when) {
+			checkoutDate = when;
+		}
+	}
+}
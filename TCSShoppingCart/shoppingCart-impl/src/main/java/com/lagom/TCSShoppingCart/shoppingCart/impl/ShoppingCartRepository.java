@@ -1,25 +1,195 @@
 package com.lagom.TCSShoppingCart.shoppingCart.impl;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import javax.persistence.TypedQuery;
 
 import com.lightbend.lagom.javadsl.persistence.ReadSide;
 import com.lightbend.lagom.javadsl.persistence.jpa.JpaSession;
+import com.typesafe.config.Config;
+
+import akka.NotUsed;
+import akka.japi.Pair;
+import akka.stream.javadsl.Source;
 
 @Singleton
 public class ShoppingCartRepository {
 
 	private final JpaSession jpaSession;
 
+	private final int exportPageSize;
+
 	@Inject
-	public ShoppingCartRepository(ReadSide readSide, JpaSession jpaSession) {
+	public ShoppingCartRepository(ReadSide readSide, JpaSession jpaSession, Config config) {
 		this.jpaSession = jpaSession;
+		this.exportPageSize = config.getInt("shopping-cart.report.export.page-size");
 		readSide.register(ShoppingCartProcessor.class);
 	}
 
 	CompletionStage<ShoppingCart> findById(String cartId) {
 		return jpaSession.withTransaction(em -> em.find(ShoppingCart.class, cartId));
 	}
+
+	/**
+	 * Find a page of the reports with the given status, ordered by the date that
+	 * belongs to the status and then by id, starting after the given position.
+	 * <p>
+	 * The query matches the status index prefix and seeks to the position in the
+	 * date and id columns, so each page reads just its rows.
+	 */
+	CompletionStage<ReportPage> findByStatus(ShoppingCart.Status status, Optional<Instant> from, Optional<Instant> to,
+			int pageSize, Optional<ReportPosition> after) {
+		String date = status == ShoppingCart.Status.OPEN ? "c.creationDate" : "c.checkoutDate";
+		StringBuilder jpql = new StringBuilder("SELECT c FROM ShoppingCart c WHERE c.status = :status");
+		from.ifPresent(f -> jpql.append(" AND ").append(date).append(" >= :from"));
+		to.ifPresent(t -> jpql.append(" AND ").append(date).append(" < :to"));
+		// The range condition on the date lets the database seek in the index, the
+		// second condition skips the rows of the same date up to the last id
+		after.ifPresent(a -> jpql.append(" AND ").append(date).append(" >= :afterDate AND (").append(date)
+				.append(" > :afterDate OR c.id > :afterId)"));
+		jpql.append(" ORDER BY ").append(date).append(", c.id");
+
+		return jpaSession.withTransaction(em -> {
+			// One more than the page size tells whether there is a next page
+			TypedQuery<ShoppingCart> query = em.createQuery(jpql.toString(), ShoppingCart.class)
+					.setParameter("status", status).setMaxResults(pageSize + 1)
+					.setHint("org.hibernate.readOnly", true);
+			from.ifPresent(f -> query.setParameter("from", f));
+			to.ifPresent(t -> query.setParameter("to", t));
+			after.ifPresent(a -> query.setParameter("afterDate", a.date).setParameter("afterId", a.id));
+			List<ShoppingCart> reports = query.getResultList();
+
+			if (reports.size() <= pageSize) {
+				return new ReportPage(reports, Optional.empty());
+			}
+			ShoppingCart last = reports.get(pageSize - 1);
+			Instant lastDate = status == ShoppingCart.Status.OPEN ? last.getCreationDate() : last.getCheckoutDate();
+			return new ReportPage(reports.subList(0, pageSize), Optional.of(new ReportPosition(lastDate, last.getId())));
+		});
+	}
+
+	/**
+	 * Stream the reports matching the filter, ordered by cart id.
+	 * <p>
+	 * Reports are read a page at a time, each page with one query that continues
+	 * after the last id of the previous page (keyset pagination), so a page costs
+	 * the same no matter how far into the table it is. The next page is only
+	 * read when the stream demands it, so at most one page is held in memory.
+	 */
+	Source<ShoppingCart, NotUsed> export(ReportFilter filter) {
+		// The state is the id to continue after, empty once the last page was read
+		return Source.unfoldAsync(Optional.of(""), afterId -> {
+			if (!afterId.isPresent()) {
+				return CompletableFuture.completedFuture(Optional.empty());
+			}
+			return page(filter, afterId.get()).thenApply(page -> {
+				Optional<String> next = page.size() < exportPageSize ? Optional.empty()
+						: Optional.of(page.get(page.size() - 1).getId());
+				return Optional.of(Pair.create(next, page));
+			});
+		}).mapConcat(page -> page);
+	}
+
+	private CompletionStage<List<ShoppingCart>> page(ReportFilter filter, String afterId) {
+		return jpaSession.withTransaction(em -> {
+			TypedQuery<ShoppingCart> query = em
+					.createQuery("SELECT c FROM ShoppingCart c WHERE c.id > :afterId" + filter.conditions()
+							+ " ORDER BY c.id", ShoppingCart.class)
+					.setParameter("afterId", afterId).setMaxResults(exportPageSize)
+					.setHint("org.hibernate.fetchSize", exportPageSize).setHint("org.hibernate.readOnly", true);
+			filter.bind(query);
+			return query.getResultList();
+		});
+	}
+
+	static final class ReportPage {
+		final List<ShoppingCart> reports;
+		final Optional<ReportPosition> next;
+
+		ReportPage(List<ShoppingCart> reports, Optional<ReportPosition> next) {
+			this.reports = reports;
+			this.next = next;
+		}
+	}
+
+	/**
+	 * The date and id of the last report of a page, encoded as an opaque token for
+	 * clients.
+	 */
+	static final class ReportPosition {
+		final Instant date;
+		final String id;
+
+		ReportPosition(Instant date, String id) {
+			this.date = date;
+			this.id = id;
+		}
+
+		String encode() {
+			return Base64.getUrlEncoder().withoutPadding()
+					.encodeToString((date + " " + id).getBytes(StandardCharsets.UTF_8));
+		}
+
+		/**
+		 * @throws IllegalArgumentException if the token wasn't created by encode
+		 */
+		static ReportPosition decode(String token) {
+			String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+			int separator = decoded.indexOf(' ');
+			if (separator < 0) {
+				throw new IllegalArgumentException("Invalid page token");
+			}
+			try {
+				return new ReportPosition(Instant.parse(decoded.substring(0, separator)),
+						decoded.substring(separator + 1));
+			} catch (DateTimeParseException e) {
+				throw new IllegalArgumentException("Invalid page token", e);
+			}
+		}
+	}
+
+	/**
+	 * Creation and checkout date ranges reports are filtered by, each bound is
+	 * optional, lower bounds are inclusive and upper bounds exclusive. A checkout
+	 * date range only matches checked-out carts.
+	 */
+	static final class ReportFilter {
+		final Optional<Instant> createdFrom;
+		final Optional<Instant> createdTo;
+		final Optional<Instant> checkedOutFrom;
+		final Optional<Instant> checkedOutTo;
+
+		ReportFilter(Optional<Instant> createdFrom, Optional<Instant> createdTo, Optional<Instant> checkedOutFrom,
+				Optional<Instant> checkedOutTo) {
+			this.createdFrom = createdFrom;
+			this.createdTo = createdTo;
+			this.checkedOutFrom = checkedOutFrom;
+			this.checkedOutTo = checkedOutTo;
+		}
+
+		private String conditions() {
+			StringBuilder conditions = new StringBuilder();
+			createdFrom.ifPresent(from -> conditions.append(" AND c.creationDate >= :createdFrom"));
+			createdTo.ifPresent(to -> conditions.append(" AND c.creationDate < :createdTo"));
+			checkedOutFrom.ifPresent(from -> conditions.append(" AND c.checkoutDate >= :checkedOutFrom"));
+			checkedOutTo.ifPresent(to -> conditions.append(" AND c.checkoutDate < :checkedOutTo"));
+			return conditions.toString();
+		}
+
+		private void bind(TypedQuery<ShoppingCart> query) {
+			createdFrom.ifPresent(from -> query.setParameter("createdFrom", from));
+			createdTo.ifPresent(to -> query.setParameter("createdTo", to));
+			checkedOutFrom.ifPresent(from -> query.setParameter("checkedOutFrom", from));
+			checkedOutTo.ifPresent(to -> query.setParameter("checkedOutTo", to));
+		}
+	}
 }
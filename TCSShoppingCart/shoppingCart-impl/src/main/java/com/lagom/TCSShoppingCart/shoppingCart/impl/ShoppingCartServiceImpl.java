@@ -1,124 +1,414 @@
 package com.lagom.TCSShoppingCart.shoppingCart.impl;
 
 import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import javax.inject.Inject;
 
+import com.lagom.TCSShoppingCart.shoppingCart.api.PopularItem;
+import com.lagom.TCSShoppingCart.shoppingCart.api.PopularItems;
 import com.lagom.TCSShoppingCart.shoppingCart.api.Quantity;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartBatch;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartIds;
 import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartItem;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartItems;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartItemsUpdate;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartReportPage;
 import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartReportView;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartResult;
 import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartService;
 import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartView;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartMetrics.Counters;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartMetrics.Histogram;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartMetrics.Histograms;
 import com.lightbend.lagom.javadsl.api.ServiceCall;
 import com.lightbend.lagom.javadsl.api.broker.Topic;
 import com.lightbend.lagom.javadsl.api.transport.BadRequest;
 import com.lightbend.lagom.javadsl.api.transport.NotFound;
+import com.lightbend.lagom.javadsl.api.transport.RequestHeader;
+import com.lightbend.lagom.javadsl.api.transport.ResponseHeader;
+import com.lightbend.lagom.javadsl.api.transport.TransportException;
 import com.lightbend.lagom.javadsl.broker.TopicProducer;
+import com.lightbend.lagom.javadsl.server.HeaderServiceCall;
 import com.lightbend.lagom.javadsl.persistence.PersistentEntityRegistry;
+import com.typesafe.config.Config;
 
 import akka.Done;
 import akka.NotUsed;
+import akka.actor.typed.ActorRef;
 import akka.cluster.sharding.typed.javadsl.ClusterSharding;
 import akka.cluster.sharding.typed.javadsl.Entity;
 import akka.cluster.sharding.typed.javadsl.EntityRef;
 import akka.japi.Pair;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
 
 /**
  * Implementation of the ShoppingCartService.
  */
 public class ShoppingCartServiceImpl implements ShoppingCartService {
 
+	static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+	static final int MAX_IDEMPOTENCY_KEY_LENGTH = 128;
+
 	private final PersistentEntityRegistry persistentEntityRegistry;
 
+	private final ShoppingCartEventTags tags;
+
 	private final Duration askTimeout = Duration.ofSeconds(5);
 	private ClusterSharding clusterSharding;
 
 	private ShoppingCartRepository repository;
 
+	private final CheckedOutCartCache checkedOutCache;
+
+	private final PopularItemCounters popularItems;
+
+	private final AdmissionControl admission;
+
+	private final ShoppingCartMetrics metrics;
+
+	private final Materializer materializer;
+
+	private final int defaultReportPageSize;
+	private final int maxReportPageSize;
+	private final int defaultPopularItemsLimit;
+	private final int maxPopularItemsLimit;
+	private final int maxBatchIds;
+	private final int batchParallelism;
+	private final Duration batchDeadline;
+
+	private final CallMetrics getCall;
+	private final CallMetrics getCartsCall;
+	private final CallMetrics streamCartsCall;
+	private final CallMetrics getReportCall;
+	private final CallMetrics findReportsCall;
+	private final CallMetrics popularItemsCall;
+	private final CallMetrics addItemCall;
+	private final CallMetrics updateItemsCall;
+	private final CallMetrics replaceItemsCall;
+	private final CallMetrics removeItemCall;
+	private final CallMetrics adjustItemQuantityCall;
+	private final CallMetrics checkoutCall;
+
 	@Inject
 	public ShoppingCartServiceImpl(PersistentEntityRegistry persistentEntityRegistry, ClusterSharding clusterSharding,
-			ShoppingCartRepository repository) {
+			ShoppingCartRepository repository, CheckedOutCartCache checkedOutCache, PopularItemCounters popularItems,
+			ShoppingCartMetrics metrics, ShoppingCartAggregateMetrics aggregateMetrics, CartPassivation passivation,
+			AdmissionControl admission, ShoppingCartEventTags tags, Materializer materializer, Config config) {
 		this.clusterSharding = clusterSharding;
 		// The persistent entity registry is only required to build an event stream for
 		// the TopicProducer
 		this.persistentEntityRegistry = persistentEntityRegistry;
+		this.tags = tags;
 
 		// register the Aggregate as a sharded entity
-		this.clusterSharding.init(Entity.of(ShoppingCartAggregate.ENTITY_TYPE_KEY, ShoppingCartAggregate::create));
+		this.clusterSharding.init(passivation.configure(Entity.of(ShoppingCartAggregate.ENTITY_TYPE_KEY,
+				entityContext -> ShoppingCartAggregate.create(entityContext, aggregateMetrics, passivation, tags))));
 
 		this.repository = repository;
+		this.checkedOutCache = checkedOutCache;
+		this.popularItems = popularItems;
+		this.admission = admission;
+		this.metrics = metrics;
+		this.materializer = materializer;
+		this.defaultReportPageSize = config.getInt("shopping-cart.report.query.default-page-size");
+		this.maxReportPageSize = config.getInt("shopping-cart.report.query.max-page-size");
+		this.defaultPopularItemsLimit = config.getInt("shopping-cart.popular-items.default-limit");
+		this.maxPopularItemsLimit = config.getInt("shopping-cart.popular-items.max-limit");
+		this.maxBatchIds = config.getInt("shopping-cart.batch-get.max-ids");
+		this.batchParallelism = config.getInt("shopping-cart.batch-get.parallelism");
+		this.batchDeadline = config.getDuration("shopping-cart.batch-get.deadline");
+
+		Histograms durations = metrics.timers("shopping_cart_call_duration_seconds",
+				"Time to serve a service call, including the ask to the cart entity", "call");
+		Counters outcomes = metrics.counters("shopping_cart_calls_total",
+				"Service calls by outcome: accepted, rejected by the cart, timed out asking the cart or failed",
+				"call", "outcome");
+		this.getCall = new CallMetrics("get", durations, outcomes);
+		this.getCartsCall = new CallMetrics("getCarts", durations, outcomes);
+		this.streamCartsCall = new CallMetrics("streamCarts", durations, outcomes);
+		this.getReportCall = new CallMetrics("getReport", durations, outcomes);
+		this.findReportsCall = new CallMetrics("findReports", durations, outcomes);
+		this.popularItemsCall = new CallMetrics("popularItems", durations, outcomes);
+		this.addItemCall = new CallMetrics("addItem", durations, outcomes);
+		this.updateItemsCall = new CallMetrics("updateItems", durations, outcomes);
+		this.replaceItemsCall = new CallMetrics("replaceItems", durations, outcomes);
+		this.removeItemCall = new CallMetrics("removeItem", durations, outcomes);
+		this.adjustItemQuantityCall = new CallMetrics("adjustItemQuantity", durations, outcomes);
+		this.checkoutCall = new CallMetrics("checkout", durations, outcomes);
+	}
+
+	@Override
+	public HeaderServiceCall<NotUsed, ShoppingCartView> get(String id) {
+		return (requestHeader, request) -> getCall.record(() -> {
+			Optional<String> ifNoneMatch = requestHeader.getHeader("If-None-Match");
+
+			// Checked-out carts never change, serve them without going through sharding
+			Optional<ShoppingCartView> cached = checkedOutCache.get(id);
+			if (cached.isPresent()) {
+				return CompletableFuture.completedFuture(versionedResponse(cached.get().sequenceNumber, ifNoneMatch,
+						() -> cached.get()));
+			}
+			return askCart(id, ShoppingCartCommand.Get::new).thenApply(summary -> {
+				if (summary.checkedOut) {
+					ShoppingCartView view = asShoppingCartView(id, summary);
+					checkedOutCache.offer(view);
+					return versionedResponse(summary.sequenceNumber, ifNoneMatch, () -> view);
+				}
+				return versionedResponse(summary.sequenceNumber, ifNoneMatch, () -> asShoppingCartView(id, summary));
+			});
+		});
+	}
+
+	@Override
+	public ServiceCall<ShoppingCartIds, ShoppingCartBatch> getCarts() {
+		return request -> getCartsCall.record(() -> getCarts(batchIds(request), this::askSummary));
+	}
+
+	/**
+	 * Read the carts of a batch with the given ask, the carts and the errors are in
+	 * the order of the ids.
+	 */
+	CompletionStage<ShoppingCartBatch> getCarts(List<String> ids,
+			BiFunction<String, Duration, CompletionStage<ShoppingCartCommand.Summary>> ask) {
+		return readCarts(ids, ask).runWith(Sink.seq(), materializer).thenApply(results -> {
+			Map<String, ShoppingCartResult> byId = new HashMap<>(results.size() * 2);
+			for (ShoppingCartResult result : results) {
+				byId.put(result.id, result);
+			}
+			List<ShoppingCartView> carts = new ArrayList<>(ids.size());
+			Map<String, String> errors = new LinkedHashMap<>();
+			for (String id : ids) {
+				ShoppingCartResult result = byId.get(id);
+				if (result.cart.isPresent()) {
+					carts.add(result.cart.get());
+				} else {
+					errors.put(id, result.error.get());
+				}
+			}
+			return new ShoppingCartBatch(carts, errors);
+		});
 	}
 
 	@Override
-	public ServiceCall<NotUsed, ShoppingCartView> get(String id) {
-		return request -> entityRef(id).ask(ShoppingCartCommand.Get::new, askTimeout)
-				.thenApply(summary -> asShoppingCartView(id, summary));
+	public ServiceCall<ShoppingCartIds, Source<ShoppingCartResult, NotUsed>> streamCarts() {
+		return request -> streamCartsCall.recordStream(() -> readCarts(batchIds(request), this::askSummary));
 	}
 
 	@Override
 	public ServiceCall<NotUsed, ShoppingCartReportView> getReport(String id) {
-		return request -> repository.findById(id).thenApply(report -> {
+		return request -> getReportCall.record(() -> repository.findById(id).thenApply(report -> {
 			if (report != null)
 				return new ShoppingCartReportView(id, report.getCreationDate(), report.getCheckoutDate());
 			else
 				throw new NotFound("Couldn't find a shopping cart report for '" + id + "'");
+		}));
+	}
+
+	@Override
+	public ServiceCall<NotUsed, Source<ShoppingCartReportView, NotUsed>> exportReports(Optional<String> createdFrom,
+			Optional<String> createdTo, Optional<String> checkedOutFrom, Optional<String> checkedOutTo) {
+		return request -> {
+			ShoppingCartRepository.ReportFilter filter = new ShoppingCartRepository.ReportFilter(
+					parseInstant("createdFrom", createdFrom), parseInstant("createdTo", createdTo),
+					parseInstant("checkedOutFrom", checkedOutFrom), parseInstant("checkedOutTo", checkedOutTo));
+			return CompletableFuture.completedFuture(repository.export(filter).map(
+					report -> new ShoppingCartReportView(report.getId(), report.getCreationDate(), report.getCheckoutDate())));
+		};
+	}
+
+	@Override
+	public ServiceCall<NotUsed, ShoppingCartReportPage> findReports(Optional<String> status, Optional<String> from,
+			Optional<String> to, Optional<Integer> pageSize, Optional<String> page) {
+		// Invalid parameters are recorded as rejected calls
+		return request -> findReportsCall.record(() -> {
+			ShoppingCart.Status reportStatus = parseStatus(status);
+			int size = pageSize.orElse(defaultReportPageSize);
+			if (size < 1 || size > maxReportPageSize) {
+				throw new BadRequest("pageSize must be between 1 and " + maxReportPageSize);
+			}
+			Optional<ShoppingCartRepository.ReportPosition> after;
+			try {
+				after = page.map(ShoppingCartRepository.ReportPosition::decode);
+			} catch (IllegalArgumentException e) {
+				throw new BadRequest("Invalid page, pass the nextPage of a previous response");
+			}
+			return repository
+					.findByStatus(reportStatus, parseInstant("from", from), parseInstant("to", to), size, after)
+					.thenApply(reports -> {
+						List<ShoppingCartReportView> views = new ArrayList<>();
+						for (ShoppingCart report : reports.reports) {
+							views.add(new ShoppingCartReportView(report.getId(), report.getCreationDate(),
+									report.getCheckoutDate()));
+						}
+						return new ShoppingCartReportPage(views, reports.next.map(ShoppingCartRepository.ReportPosition::encode));
+					});
+		});
+	}
+
+	@Override
+	public ServiceCall<NotUsed, PopularItems> popularItems(Optional<String> kind, Optional<Integer> limit) {
+		return request -> popularItemsCall.record(() -> {
+			ItemCounts.Kind countKind = parseKind(kind);
+			int size = limit.orElse(defaultPopularItemsLimit);
+			if (size < 1 || size > maxPopularItemsLimit) {
+				throw new BadRequest("limit must be between 1 and " + maxPopularItemsLimit);
+			}
+			return popularItems.top(countKind, size).thenApply(top -> {
+				List<PopularItem> items = new ArrayList<>(top.size());
+				for (Pair<String, Long> item : top) {
+					items.add(new PopularItem(item.first(), item.second()));
+				}
+				return new PopularItems(countKind.name().toLowerCase(Locale.ROOT), items);
+			});
 		});
 	}
 
 	@Override
 	public ServiceCall<ShoppingCartItem, Done> addItem(String cartId) {
-		return item -> entityRef(cartId).<ShoppingCartCommand.Confirmation>ask(
-				replyTo -> new ShoppingCartCommand.AddItem(item.itemId, item.quantity, replyTo), askTimeout)
-				.thenApply(this::handleConfirmation).thenApply(accepted -> Done.getInstance());
+		return HeaderServiceCall.compose(requestHeader -> {
+			Optional<String> requestId = idempotencyKey(requestHeader);
+			return item -> addItemCall.record(() -> this.<ShoppingCartCommand.Confirmation>askCart(cartId,
+					replyTo -> new ShoppingCartCommand.AddItem(item.itemId, item.quantity, requestId, replyTo))
+					.thenApply(this::handleConfirmation).thenApply(accepted -> Done.getInstance()));
+		});
+	}
+
+	@Override
+	public ServiceCall<ShoppingCartItems, ShoppingCartItemsUpdate> updateItems(String cartId) {
+		return HeaderServiceCall.compose(requestHeader -> {
+			Optional<String> requestId = idempotencyKey(requestHeader);
+			return request -> updateItemsCall.record(() -> {
+				Set<String> duplicates = new LinkedHashSet<>();
+				Map<String, Integer> items = itemQuantities(request, duplicates);
+				return this.<ShoppingCartCommand.Confirmation>askCart(cartId,
+						replyTo -> new ShoppingCartCommand.UpdateItems(items, requestId, replyTo))
+						.thenApply(this::handleItemsConfirmation).thenApply(accepted -> {
+							Map<String, String> rejectedItems = new LinkedHashMap<>(accepted.rejectedItems);
+							for (String itemId : duplicates) {
+								rejectedItems.put(itemId, "Item was given more than once");
+							}
+							return new ShoppingCartItemsUpdate(asShoppingCartView(cartId, accepted.summary),
+									rejectedItems);
+						});
+			});
+		});
+	}
+
+	@Override
+	public ServiceCall<ShoppingCartItems, ShoppingCartView> replaceItems(String cartId) {
+		return HeaderServiceCall.compose(requestHeader -> {
+			Optional<String> requestId = idempotencyKey(requestHeader);
+			return request -> replaceItemsCall.record(() -> {
+				Set<String> duplicates = new LinkedHashSet<>();
+				Map<String, Integer> items = itemQuantities(request, duplicates);
+				if (!duplicates.isEmpty()) {
+					throw new BadRequest("Items were given more than once: " + String.join(", ", duplicates));
+				}
+				return this.<ShoppingCartCommand.Confirmation>askCart(cartId,
+						replyTo -> new ShoppingCartCommand.ReplaceItems(items, requestId, replyTo))
+						.thenApply(this::handleConfirmation)
+						.thenApply(accepted -> asShoppingCartView(cartId, accepted.summary));
+			});
+		});
 	}
 
 	@Override
 	public ServiceCall<NotUsed, ShoppingCartView> removeItem(String cartId, String itemId) {
-		return request -> entityRef(cartId).<ShoppingCartCommand.Confirmation>ask(
-				replyTo -> new ShoppingCartCommand.RemoveItem(itemId, replyTo), askTimeout)
-				.thenApply(this::handleConfirmation)
-				.thenApply(accepted -> asShoppingCartView(cartId, accepted.summary));
+		return HeaderServiceCall.compose(requestHeader -> {
+			Optional<String> requestId = idempotencyKey(requestHeader);
+			return request -> removeItemCall.record(() -> this.<ShoppingCartCommand.Confirmation>askCart(cartId,
+					replyTo -> new ShoppingCartCommand.RemoveItem(itemId, requestId, replyTo))
+					.thenApply(this::handleConfirmation)
+					.thenApply(accepted -> asShoppingCartView(cartId, accepted.summary)));
+		});
 	}
 
 	@Override
 	public ServiceCall<Quantity, ShoppingCartView> adjustItemQuantity(String cartId, String itemId) {
-		return quantity -> entityRef(cartId).<ShoppingCartCommand.Confirmation>ask(
-				replyTo -> new ShoppingCartCommand.AdjustItemQuantity(itemId, quantity.quantity, replyTo), askTimeout)
-				.thenApply(this::handleConfirmation)
-				.thenApply(accepted -> asShoppingCartView(cartId, accepted.summary));
+		return HeaderServiceCall.compose(requestHeader -> {
+			Optional<String> requestId = idempotencyKey(requestHeader);
+			return quantity -> adjustItemQuantityCall.record(() -> this.<ShoppingCartCommand.Confirmation>askCart(cartId,
+					replyTo -> new ShoppingCartCommand.AdjustItemQuantity(itemId, quantity.quantity, requestId, replyTo))
+					.thenApply(this::handleConfirmation)
+					.thenApply(accepted -> asShoppingCartView(cartId, accepted.summary)));
+		});
 	}
 
 	@Override
 	public ServiceCall<NotUsed, Done> checkout(String cartId) {
-		return request -> entityRef(cartId).ask(ShoppingCartCommand.Checkout::new, askTimeout)
-				.thenApply(this::handleConfirmation).thenApply(accepted -> Done.getInstance());
+		return HeaderServiceCall.compose(requestHeader -> {
+			Optional<String> requestId = idempotencyKey(requestHeader);
+			return request -> checkoutCall.record(() -> this.<ShoppingCartCommand.Confirmation>askCart(cartId,
+					replyTo -> new ShoppingCartCommand.Checkout(requestId, replyTo))
+					.thenApply(this::handleConfirmation).thenApply(accepted -> {
+						checkedOutCache.offer(asShoppingCartView(cartId, accepted.summary));
+						return Done.getInstance();
+					}));
+		});
+	}
+
+	@Override
+	public ServiceCall<NotUsed, String> metrics() {
+		return request -> CompletableFuture.completedFuture(metrics.render());
 	}
 
 	@Override
 	public Topic<ShoppingCartView> shoppingCartTopic() {
 		// We want to publish all the shards of the shopping cart events
-		return TopicProducer.taggedStreamWithOffset(ShoppingCartEvent.TAG.allTags(), (tag, offset) ->
+		return TopicProducer.taggedStreamWithOffset(tags.allTags(), (tag, offset) ->
 		// Load the event stream for the passed in shard tag
 		persistentEntityRegistry.eventStream(tag, offset)
 				// We only want to publish checkout events
 				.filter(pair -> pair.first() instanceof ShoppingCartEvent.CheckedOut)
 				// Now we want to convert from the persisted event to the published event.
-				// To do this, we need to load the current shopping cart state.
-				.mapAsync(4, eventAndOffset -> {
-					ShoppingCartEvent.CheckedOut checkedOut = (ShoppingCartEvent.CheckedOut) eventAndOffset.first();
-					return entityRef(checkedOut.shoppingCartId).ask(ShoppingCartCommand.Get::new, askTimeout)
-							.thenApply(summary -> Pair.create(asShoppingCartView(checkedOut.shoppingCartId, summary),
-									eventAndOffset.second()));
-				}));
+				.mapAsync(4, eventAndOffset -> checkedOutView((ShoppingCartEvent.CheckedOut) eventAndOffset.first(),
+						cartId -> entityRef(cartId).ask(ShoppingCartCommand.Get::new, askTimeout))
+								.thenApply(view -> Pair.create(view, eventAndOffset.second()))));
+	}
+
+	/**
+	 * The view of a checked-out cart to publish, built from the items the event
+	 * carries. Events persisted before CheckedOut carried the items get the view
+	 * of the current state of the cart instead.
+	 */
+	static CompletionStage<ShoppingCartView> checkedOutView(ShoppingCartEvent.CheckedOut checkedOut,
+			Function<String, CompletionStage<ShoppingCartCommand.Summary>> getCart) {
+		if (checkedOut.items != null) {
+			// The sequence number isn't part of the tagged event stream
+			ShoppingCartCommand.Summary summary = new ShoppingCartCommand.Summary(checkedOut.items, true,
+					Optional.of(checkedOut.eventTime), 0);
+			return CompletableFuture.completedFuture(asShoppingCartView(checkedOut.shoppingCartId, summary));
+		}
+		return getCart.apply(checkedOut.shoppingCartId)
+				.thenApply(summary -> asShoppingCartView(checkedOut.shoppingCartId, summary));
 	}
 
 	@Override
 	public Topic<com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartEvent> helloEvents() {
 		// We want to publish all the shards of the hello event
-		return TopicProducer.taggedStreamWithOffset(ShoppingCartEvent.TAG.allTags(), (tag, offset) ->
+		return TopicProducer.taggedStreamWithOffset(tags.allTags(), (tag, offset) ->
 
 		// Load the event stream for the passed in shard tag
 		persistentEntityRegistry.eventStream(tag, offset).map(eventAndOffset -> {
@@ -144,6 +434,113 @@ public class ShoppingCartServiceImpl implements ShoppingCartService {
 		}));
 	}
 
+	/**
+	 * Ask the cart entity, if the admission control lets the ask in.
+	 */
+	private <R> CompletionStage<R> askCart(String cartId,
+			akka.japi.function.Function<ActorRef<R>, ShoppingCartCommand> command) {
+		return askCart(cartId, command, askTimeout);
+	}
+
+	private <R> CompletionStage<R> askCart(String cartId,
+			akka.japi.function.Function<ActorRef<R>, ShoppingCartCommand> command, Duration timeout) {
+		return admission.admit(() -> entityRef(cartId).ask(command, timeout));
+	}
+
+	/**
+	 * Ask the cart entity of a batch for its summary. A timeout shortened by the
+	 * deadline of the batch says nothing about the latency of the cart, so it
+	 * doesn't lower the admission limit.
+	 */
+	private CompletionStage<ShoppingCartCommand.Summary> askSummary(String cartId, Duration timeout) {
+		return admission.admit(() -> entityRef(cartId).ask(ShoppingCartCommand.Get::new, timeout),
+				timeout.compareTo(askTimeout) >= 0);
+	}
+
+	/**
+	 * Read the carts of a batch, at most batchParallelism at a time, emitting each
+	 * result as soon as it is complete. The whole batch completes by its deadline,
+	 * counted from when the stream is run rather than when it is built.
+	 */
+	private Source<ShoppingCartResult, NotUsed> readCarts(List<String> ids,
+			BiFunction<String, Duration, CompletionStage<ShoppingCartCommand.Summary>> ask) {
+		return Source.fromMaterializer((materializer, attributes) -> {
+			long deadline = System.nanoTime() + batchDeadline.toNanos();
+			return Source.from(ids).mapAsyncUnordered(batchParallelism, id -> readCart(id, deadline, ask));
+		}).mapMaterializedValue(notUsed -> NotUsed.getInstance());
+	}
+
+	/**
+	 * Read one cart of a batch, the ask gets the time left until the deadline. A
+	 * cart that can't be read is an error result, it doesn't fail the batch.
+	 */
+	private CompletionStage<ShoppingCartResult> readCart(String id, long deadline,
+			BiFunction<String, Duration, CompletionStage<ShoppingCartCommand.Summary>> ask) {
+		Optional<ShoppingCartView> cached = checkedOutCache.get(id);
+		if (cached.isPresent()) {
+			return CompletableFuture.completedFuture(new ShoppingCartResult(id, cached, Optional.empty()));
+		}
+		long remaining = deadline - System.nanoTime();
+		if (remaining <= 0) {
+			return CompletableFuture
+					.completedFuture(new ShoppingCartResult(id, Optional.empty(), Optional.of("Deadline exceeded")));
+		}
+		Duration timeout = Duration.ofNanos(Math.min(remaining, askTimeout.toNanos()));
+		return ask.apply(id, timeout).handle((summary, error) -> {
+			if (error != null) {
+				return new ShoppingCartResult(id, Optional.empty(), Optional.of(errorReason(error)));
+			}
+			ShoppingCartView view = asShoppingCartView(id, summary);
+			if (summary.checkedOut) {
+				checkedOutCache.offer(view);
+			}
+			return new ShoppingCartResult(id, Optional.of(view), Optional.empty());
+		});
+	}
+
+	/**
+	 * The quantities of the items of a request by item id. Items given more than
+	 * once are left out and added to duplicates instead.
+	 */
+	static Map<String, Integer> itemQuantities(ShoppingCartItems request, Set<String> duplicates) {
+		Map<String, Integer> items = new LinkedHashMap<>();
+		for (ShoppingCartItem item : request.items) {
+			if (items.containsKey(item.itemId) || duplicates.contains(item.itemId)) {
+				duplicates.add(item.itemId);
+			} else {
+				items.put(item.itemId, item.quantity);
+			}
+		}
+		items.keySet().removeAll(duplicates);
+		return items;
+	}
+
+	/**
+	 * The distinct ids of a batch, in the order of the request.
+	 */
+	private List<String> batchIds(ShoppingCartIds request) {
+		if (request.ids.contains(null)) {
+			throw new BadRequest("ids must not be null");
+		}
+		List<String> ids = new ArrayList<>(new LinkedHashSet<>(request.ids));
+		if (ids.size() > maxBatchIds) {
+			throw new BadRequest("At most " + maxBatchIds + " carts can be read at once");
+		}
+		return ids;
+	}
+
+	private static String errorReason(Throwable error) {
+		Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause()
+				: error;
+		if (cause instanceof TimeoutException) {
+			return "Timed out";
+		} else if (cause instanceof TransportException) {
+			return ((TransportException) cause).exceptionMessage().detail();
+		} else {
+			return "Failed";
+		}
+	}
+
 	private EntityRef<ShoppingCartCommand> entityRef(String id) {
 		return clusterSharding.entityRefFor(ShoppingCartAggregate.ENTITY_TYPE_KEY, id);
 	}
@@ -158,12 +555,165 @@ public class ShoppingCartServiceImpl implements ShoppingCartService {
 		throw new BadRequest(rejected.reason);
 	}
 
-	private ShoppingCartView asShoppingCartView(String id, ShoppingCartCommand.Summary summary) {
+	private ShoppingCartCommand.ItemsAccepted handleItemsConfirmation(ShoppingCartCommand.Confirmation confirmation) {
+		if (confirmation instanceof ShoppingCartCommand.ItemsAccepted) {
+			return (ShoppingCartCommand.ItemsAccepted) confirmation;
+		}
+
+		ShoppingCartCommand.Rejected rejected = (ShoppingCartCommand.Rejected) confirmation;
+		throw new BadRequest(rejected.reason);
+	}
+
+	/**
+	 * Respond with the cart's sequence number as ETag, or with 304 Not Modified
+	 * and no view at all if the client already has that version. The
+	 * ShoppingCartViewSerializer writes the missing view as an empty entity.
+	 */
+	private Pair<ResponseHeader, ShoppingCartView> versionedResponse(long sequenceNumber,
+			Optional<String> ifNoneMatch, Supplier<ShoppingCartView> view) {
+		String etag = "\"" + sequenceNumber + "\"";
+		if (ifNoneMatch.isPresent() && etagMatches(ifNoneMatch.get(), etag)) {
+			return Pair.create(ResponseHeader.OK.withStatus(304).withHeader("ETag", etag), null);
+		}
+		return Pair.create(ResponseHeader.OK.withHeader("ETag", etag), view.get());
+	}
+
+	/**
+	 * The Idempotency-Key header of a cart mutation, passed to the aggregate as
+	 * the request id of the command.
+	 */
+	private static Optional<String> idempotencyKey(RequestHeader requestHeader) {
+		Optional<String> key = requestHeader.getHeader(IDEMPOTENCY_KEY);
+		if (key.isPresent() && (key.get().isEmpty() || key.get().length() > MAX_IDEMPOTENCY_KEY_LENGTH)) {
+			throw new BadRequest(IDEMPOTENCY_KEY + " must have 1 to " + MAX_IDEMPOTENCY_KEY_LENGTH + " characters");
+		}
+		return key;
+	}
+
+	private static ShoppingCart.Status parseStatus(Optional<String> status) {
+		if (status.equals(Optional.of("open"))) {
+			return ShoppingCart.Status.OPEN;
+		} else if (status.equals(Optional.of("checked-out"))) {
+			return ShoppingCart.Status.CHECKED_OUT;
+		} else {
+			throw new BadRequest("status must be open or checked-out");
+		}
+	}
+
+	private static ItemCounts.Kind parseKind(Optional<String> kind) {
+		for (ItemCounts.Kind candidate : ItemCounts.Kind.values()) {
+			if (candidate.name().equalsIgnoreCase(kind.orElse("added"))) {
+				return candidate;
+			}
+		}
+		throw new BadRequest("kind must be added, removed or adjusted");
+	}
+
+	private static Optional<Instant> parseInstant(String name, Optional<String> value) {
+		try {
+			return value.map(Instant::parse);
+		} catch (DateTimeParseException e) {
+			throw new BadRequest(name + " must be an ISO-8601 instant, such as 2020-01-01T00:00:00Z");
+		}
+	}
+
+	private static boolean etagMatches(String ifNoneMatch, String etag) {
+		for (String candidate : ifNoneMatch.split(",")) {
+			String trimmed = candidate.trim();
+			if (trimmed.startsWith("W/")) {
+				trimmed = trimmed.substring(2);
+			}
+			if (trimmed.equals(etag) || trimmed.equals("*")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Duration and outcome counters of one service call. Each call sends one type
+	 * of command to the cart, so the outcomes are those of that command type.
+	 */
+	private static final class CallMetrics {
+		private final Histogram duration;
+		private final LongAdder accepted;
+		private final LongAdder rejected;
+		private final LongAdder timedOut;
+		private final LongAdder failed;
+
+		CallMetrics(String call, Histograms durations, Counters outcomes) {
+			this.duration = durations.labels(call);
+			this.accepted = outcomes.labels(call, "accepted");
+			this.rejected = outcomes.labels(call, "rejected");
+			this.timedOut = outcomes.labels(call, "timeout");
+			this.failed = outcomes.labels(call, "failed");
+		}
+
+		/**
+		 * Record the outcome of the call, including an exception thrown before it
+		 * returns a completion stage, such as a BadRequest for an invalid parameter.
+		 */
+		<T> CompletionStage<T> record(Supplier<CompletionStage<T>> call) {
+			long started = System.nanoTime();
+			CompletionStage<T> result;
+			try {
+				result = call.get();
+			} catch (RuntimeException e) {
+				CompletableFuture<T> failed = new CompletableFuture<>();
+				failed.completeExceptionally(e);
+				result = failed;
+			}
+			return result.whenComplete((value, error) -> recorded(started, error));
+		}
+
+		/**
+		 * Record the outcome of a streaming call once its stream completes, or of an
+		 * exception thrown before it returns the stream.
+		 */
+		<T> CompletionStage<Source<T, NotUsed>> recordStream(Supplier<Source<T, NotUsed>> call) {
+			long started = System.nanoTime();
+			Source<T, NotUsed> source;
+			try {
+				source = call.get();
+			} catch (RuntimeException e) {
+				recorded(started, e);
+				CompletableFuture<Source<T, NotUsed>> failed = new CompletableFuture<>();
+				failed.completeExceptionally(e);
+				return failed;
+			}
+			return CompletableFuture.completedFuture(source.watchTermination((notUsed, done) -> {
+				done.whenComplete((result, error) -> recorded(started, error));
+				return notUsed;
+			}));
+		}
+
+		private void recorded(long started, Throwable error) {
+			duration.recordSince(started);
+			outcome(error).increment();
+		}
+
+		private LongAdder outcome(Throwable error) {
+			Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause()
+					: error;
+			if (cause == null) {
+				return accepted;
+			} else if (cause instanceof TransportException
+					&& ((TransportException) cause).errorCode().http() < 500) {
+				return rejected;
+			} else if (cause instanceof TimeoutException) {
+				return timedOut;
+			} else {
+				return failed;
+			}
+		}
+	}
+
+	static ShoppingCartView asShoppingCartView(String id, ShoppingCartCommand.Summary summary) {
 		List<ShoppingCartItem> items = new ArrayList<>();
 		for (Map.Entry<String, Integer> item : summary.items.entrySet()) {
 			items.add(new ShoppingCartItem(item.getKey(), item.getValue()));
 		}
-		return new ShoppingCartView(id, items, summary.checkoutDate);
+		return new ShoppingCartView(id, items, summary.checkoutDate, summary.sequenceNumber);
 	}
 
 }
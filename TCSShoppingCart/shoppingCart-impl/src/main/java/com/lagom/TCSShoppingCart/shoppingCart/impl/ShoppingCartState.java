@@ -1,10 +1,12 @@
 package com.lagom.TCSShoppingCart.shoppingCart.impl;
 
 import java.time.Instant;
+import java.util.Map;
 import java.util.Optional;
 
-import org.pcollections.HashTreePMap;
 import org.pcollections.PMap;
+import org.pcollections.PSequence;
+import org.pcollections.TreePVector;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
@@ -16,31 +18,76 @@ import lombok.Value;
 
 /**
  * The state for the {@link ShoppingCartState} aggregate.
+ * <p>
+ * Snapshots are written by {@link ShoppingCartStateSerializer}, the Jackson
+ * mapping is kept to read snapshots taken before that serializer was bound.
  */
 @SuppressWarnings("serial")
 @Value
 @JsonDeserialize
 public final class ShoppingCartState implements CompressedJsonable {
 
-	public static final ShoppingCartState EMPTY = new ShoppingCartState(HashTreePMap.empty(), null);
+	public static final ShoppingCartState EMPTY = new ShoppingCartState(ItemMap.EMPTY, null);
 
+	/**
+	 * How many request ids are remembered. A retry of a command whose id was
+	 * dropped since is applied again.
+	 */
+	static final int MAX_REQUEST_IDS = 32;
+
+	/**
+	 * The quantities of the items, always an {@link ItemMap}.
+	 */
 	public final PMap<String, Integer> items;
 	public final Optional<Instant> checkoutDate;
+	/**
+	 * The request ids of the last commands that changed the cart, oldest first.
+	 */
+	public final PSequence<String> requestIds;
 
-	@JsonCreator
 	ShoppingCartState(PMap<String, Integer> items, Instant checkoutDate) {
-		this.items = Preconditions.checkNotNull(items, "items");
+		this(items, checkoutDate, TreePVector.empty());
+	}
+
+	@JsonCreator
+	ShoppingCartState(PMap<String, Integer> items, Instant checkoutDate, PSequence<String> requestIds) {
+		// Snapshots and events read by Jackson have other maps, they are compacted
+		this.items = ItemMap.from(Preconditions.checkNotNull(items, "items"));
 		this.checkoutDate = Optional.ofNullable(checkoutDate);
+		// Snapshots taken before request ids were kept don't have them
+		this.requestIds = requestIds != null ? requestIds : TreePVector.empty();
 	}
 
 	ShoppingCartState removeItem(String itemId) {
 		PMap<String, Integer> newItems = items.minus(itemId);
-		return new ShoppingCartState(newItems, null);
+		return new ShoppingCartState(newItems, null, requestIds);
 	}
 
 	ShoppingCartState updateItem(String itemId, int quantity) {
 		PMap<String, Integer> newItems = items.plus(itemId, quantity);
-		return new ShoppingCartState(newItems, null);
+		return new ShoppingCartState(newItems, null, requestIds);
+	}
+
+	ShoppingCartState updateItems(Map<String, Integer> updatedItems) {
+		PMap<String, Integer> newItems = items.plusAll(updatedItems);
+		return new ShoppingCartState(newItems, null, requestIds);
+	}
+
+	/**
+	 * Remember the request id of a command that changed the cart, dropping the
+	 * oldest one when too many are kept. A null id is ignored.
+	 */
+	ShoppingCartState withRequestId(String requestId) {
+		if (requestId == null) {
+			return this;
+		}
+		PSequence<String> newRequestIds = requestIds.size() < MAX_REQUEST_IDS ? requestIds
+				: requestIds.subList(requestIds.size() - MAX_REQUEST_IDS + 1, requestIds.size());
+		return new ShoppingCartState(items, checkoutDate.orElse(null), newRequestIds.plus(requestId));
+	}
+
+	boolean hasRequestId(String requestId) {
+		return requestIds.contains(requestId);
 	}
 
 	boolean isEmpty() {
@@ -52,7 +99,7 @@ public final class ShoppingCartState implements CompressedJsonable {
 	}
 
 	ShoppingCartState checkout(Instant when) {
-		return new ShoppingCartState(items, when);
+		return new ShoppingCartState(items, when, requestIds);
 	}
 
 	boolean isOpen() {
@@ -63,8 +110,9 @@ public final class ShoppingCartState implements CompressedJsonable {
 		return this.checkoutDate.isPresent();
 	}
 
-	public static Summary toSummary(ShoppingCartState shoppingCart) {
-		return new Summary(shoppingCart.items, shoppingCart.isCheckedOut(), shoppingCart.checkoutDate);
+	public static Summary toSummary(ShoppingCartState shoppingCart, long sequenceNumber) {
+		return new Summary(shoppingCart.items, shoppingCart.isCheckedOut(), shoppingCart.checkoutDate,
+				sequenceNumber);
 	}
 
 //	public ShoppingCartState withMessage(String message) {
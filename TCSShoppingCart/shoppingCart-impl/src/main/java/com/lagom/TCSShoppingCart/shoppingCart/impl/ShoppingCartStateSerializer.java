@@ -0,0 +1,217 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import java.io.NotSerializableException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.pcollections.TreePVector;
+
+import akka.actor.ExtendedActorSystem;
+import akka.serialization.SerializerWithStringManifest;
+
+/**
+ * Compact binary serializer for {@link ShoppingCartState} snapshots.
+ * <p>
+ * Every payload starts with a format version byte and a flags byte, followed
+ * by the checkout time (only when checked out) and the length-prefixed list of
+ * items, then the request ids of the last commands when there are any. Like the
+ * CompressedJsonable binding, bodies larger than 32 KiB are deflated.
+ * Snapshots written before this serializer was bound still carry the Jackson
+ * serializer id, so Akka keeps reading them with Jackson.
+ * <p>
+ * Version 2 front codes the item ids: they are written in ascending order,
+ * each as the length of the prefix it shares with the previous id and the rest
+ * of the id. Item ids with a long common prefix, like SKUs of one catalog,
+ * shrink to their distinct suffixes. Version 1 writes every id in full, it is
+ * written until {@code shopping-cart.snapshots.front-coded-item-ids} is on,
+ * which must wait until every node can read version 2.
+ * <p>
+ * Snapshots are only written with this serializer once
+ * {@code shopping-cart.snapshots.serializer} binds them to it, which must wait
+ * until every node can read them.
+ */
+public class ShoppingCartStateSerializer extends SerializerWithStringManifest {
+
+	static final int IDENTIFIER = 1100001;
+
+	static final String STATE_MANIFEST = "S";
+
+	private static final int VERSION_1 = 1;
+
+	private static final int VERSION_2 = 2;
+
+	private static final int FLAG_CHECKED_OUT = 1;
+
+	private static final int FLAG_DEFLATED = 2;
+
+	/**
+	 * The request ids follow the items. Readers that don't know the flag ignore
+	 * the trailing ids.
+	 */
+	private static final int FLAG_REQUEST_IDS = 4;
+
+	private static final int COMPRESS_LARGER_THAN = 32 * 1024;
+
+	private final boolean frontCodedItemIds;
+
+	public ShoppingCartStateSerializer(ExtendedActorSystem system) {
+		this(system.settings().config().getBoolean("shopping-cart.snapshots.front-coded-item-ids"));
+	}
+
+	ShoppingCartStateSerializer(boolean frontCodedItemIds) {
+		this.frontCodedItemIds = frontCodedItemIds;
+	}
+
+	@Override
+	public int identifier() {
+		return IDENTIFIER;
+	}
+
+	@Override
+	public String manifest(Object o) {
+		if (o instanceof ShoppingCartState) {
+			return STATE_MANIFEST;
+		}
+		throw new IllegalArgumentException("Can't serialize object of type " + o.getClass());
+	}
+
+	@Override
+	public byte[] toBinary(Object o) {
+		if (!(o instanceof ShoppingCartState)) {
+			throw new IllegalArgumentException("Can't serialize object of type " + o.getClass());
+		}
+		ShoppingCartState state = (ShoppingCartState) o;
+
+		CompactBinary.Writer body = new CompactBinary.Writer(16 + state.items.size() * 16);
+		if (state.isCheckedOut()) {
+			Instant checkoutDate = state.checkoutDate.get();
+			body.writeLong(checkoutDate.getEpochSecond()).writeVarInt(checkoutDate.getNano());
+		}
+		ItemMap items = ItemMap.from(state.items);
+		if (frontCodedItemIds) {
+			writeItems(body, items);
+		} else {
+			body.writeVarInt(items.size());
+			for (int i = 0; i < items.size(); i++) {
+				body.writeString(items.itemId(i)).writeVarInt(items.quantity(i));
+			}
+		}
+		int flags = state.isCheckedOut() ? FLAG_CHECKED_OUT : 0;
+		if (!state.requestIds.isEmpty()) {
+			flags |= FLAG_REQUEST_IDS;
+			body.writeVarInt(state.requestIds.size());
+			for (String requestId : state.requestIds) {
+				body.writeString(requestId);
+			}
+		}
+
+		byte[] bodyBytes = body.toByteArray();
+		if (bodyBytes.length > COMPRESS_LARGER_THAN) {
+			flags |= FLAG_DEFLATED;
+			bodyBytes = CompactBinary.deflate(bodyBytes);
+		}
+		int version = frontCodedItemIds ? VERSION_2 : VERSION_1;
+		return new CompactBinary.Writer(bodyBytes.length + 2).writeByte(version).writeByte(flags)
+				.writeBytes(bodyBytes, bodyBytes.length).toByteArray();
+	}
+
+	@Override
+	public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException {
+		if (!STATE_MANIFEST.equals(manifest)) {
+			throw new NotSerializableException("Unknown manifest [" + manifest + "]");
+		}
+
+		CompactBinary.Reader reader = new CompactBinary.Reader(bytes);
+		int version = reader.readByte();
+		if (version != VERSION_1 && version != VERSION_2) {
+			throw new NotSerializableException("Unsupported shopping cart state format version " + version);
+		}
+
+		int flags = reader.readByte();
+		if ((flags & FLAG_DEFLATED) != 0) {
+			reader = new CompactBinary.Reader(CompactBinary.inflate(reader));
+		}
+		Instant checkoutDate = null;
+		if ((flags & FLAG_CHECKED_OUT) != 0) {
+			checkoutDate = Instant.ofEpochSecond(reader.readLong(), reader.readVarInt());
+		}
+		ItemMap items;
+		if (version == VERSION_2) {
+			items = readItems(reader);
+		} else {
+			int size = reader.readVarInt();
+			Map<String, Integer> unsorted = new HashMap<>(size * 2);
+			for (int i = 0; i < size; i++) {
+				unsorted.put(reader.readString(), reader.readVarInt());
+			}
+			items = ItemMap.from(unsorted);
+		}
+		List<String> requestIds = new ArrayList<>();
+		if ((flags & FLAG_REQUEST_IDS) != 0) {
+			int count = reader.readVarInt();
+			for (int i = 0; i < count; i++) {
+				requestIds.add(reader.readString());
+			}
+		}
+		return new ShoppingCartState(items, checkoutDate, TreePVector.from(requestIds));
+	}
+
+	/**
+	 * Write the items front coded: the number of items, then for each item in
+	 * ascending order of ids the length of the prefix its id shares with the
+	 * previous id, the rest of the id and the quantity.
+	 */
+	static void writeItems(CompactBinary.Writer writer, ItemMap items) {
+		writer.writeVarInt(items.size());
+		String previous = "";
+		for (int i = 0; i < items.size(); i++) {
+			String itemId = items.itemId(i);
+			int shared = sharedPrefix(previous, itemId);
+			writer.writeVarInt(shared).writeString(itemId.substring(shared)).writeVarInt(items.quantity(i));
+			previous = itemId;
+		}
+	}
+
+	/**
+	 * Read items written by {@link #writeItems(CompactBinary.Writer, ItemMap)}.
+	 */
+	static ItemMap readItems(CompactBinary.Reader reader) throws NotSerializableException {
+		int size = reader.readVarInt();
+		String[] itemIds = new String[size];
+		int[] quantities = new int[size];
+		String previous = "";
+		for (int i = 0; i < size; i++) {
+			int shared = reader.readVarInt();
+			if (shared > previous.length()) {
+				throw new NotSerializableException("Invalid item id prefix length " + shared);
+			}
+			previous = previous.substring(0, shared) + reader.readString();
+			itemIds[i] = previous;
+			quantities[i] = reader.readVarInt();
+		}
+		try {
+			return ItemMap.fromSorted(itemIds, quantities);
+		} catch (IllegalArgumentException e) {
+			throw new NotSerializableException(e.getMessage());
+		}
+	}
+
+	/**
+	 * The length of the common prefix, not ending in the middle of a surrogate
+	 * pair so the rest of the id is valid UTF-16.
+	 */
+	private static int sharedPrefix(String previous, String itemId) {
+		int max = Math.min(previous.length(), itemId.length());
+		int shared = 0;
+		while (shared < max && previous.charAt(shared) == itemId.charAt(shared)) {
+			shared++;
+		}
+		if (shared > 0 && Character.isHighSurrogate(itemId.charAt(shared - 1))) {
+			shared--;
+		}
+		return shared;
+	}
+}
@@ -0,0 +1,109 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import com.lightbend.lagom.javadsl.api.transport.TransportException;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AdmissionControlTest {
+
+  private final ShoppingCartMetrics metrics = new ShoppingCartMetrics();
+
+  private final AdmissionControl admission = new AdmissionControl(ConfigFactory.parseString(
+      "shopping-cart.admission { initial-limit = 10, min-limit = 2, max-limit = 20,"
+          + " target-latency = 1m, backoff-ratio = 0.5 }"), metrics);
+
+  @Test
+  public void testShedsBeyondLimit() throws Exception {
+    List<CompletableFuture<String>> asks = fill(10);
+    assertEquals(10, admission.inFlight());
+
+    CompletionStage<String> shed = admission.admit(() -> {
+      throw new AssertionError("A shed call must not be made");
+    });
+    try {
+      shed.toCompletableFuture().get();
+      fail("Expected the call to be shed");
+    } catch (ExecutionException e) {
+      assertEquals(503, ((TransportException) e.getCause()).errorCode().http());
+    }
+    assertTrue(metrics.render().contains("shopping_cart_admission_shed_total 1\n"));
+
+    asks.get(0).complete("done");
+    assertEquals(9, admission.inFlight());
+    assertEquals("ok", admission.admit(() -> CompletableFuture.completedFuture("ok")).toCompletableFuture().get());
+  }
+
+  @Test
+  public void testTimeoutsLowerLimitOncePerBurst() throws Exception {
+    List<CompletableFuture<String>> asks = fill(10);
+    for (CompletableFuture<String> ask : asks) {
+      ask.completeExceptionally(new TimeoutException());
+    }
+    // All asks were started before the first decrease
+    assertEquals(5, admission.limit());
+
+    fill(5).get(0).completeExceptionally(new TimeoutException());
+    assertEquals(2, admission.limit());
+  }
+
+  @Test
+  public void testShortenedTimeoutsDontAdaptLimit() throws Exception {
+    // Asks of a batch time out at its deadline, which says nothing about the carts
+    for (int round = 0; round < 5; round++) {
+      List<CompletableFuture<String>> asks = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+        CompletableFuture<String> ask = new CompletableFuture<>();
+        admission.admit(() -> ask, false);
+        asks.add(ask);
+      }
+      for (CompletableFuture<String> ask : asks) {
+        ask.completeExceptionally(new TimeoutException());
+      }
+    }
+    assertEquals(10, admission.limit());
+    assertEquals(0, admission.inFlight());
+
+    // Their full-length timeouts still lower it
+    fill(10).get(0).completeExceptionally(new TimeoutException());
+    assertEquals(5, admission.limit());
+  }
+
+  @Test
+  public void testFastAsksRaiseLimitInUse() throws Exception {
+    for (int round = 0; round < 5; round++) {
+      for (CompletableFuture<String> ask : fill((int) admission.limit())) {
+        ask.complete("done");
+      }
+    }
+    assertTrue(admission.limit() > 10);
+
+    // Asks one at a time don't use the limit, so they don't raise it
+    long limit = admission.limit();
+    for (int i = 0; i < 1000; i++) {
+      admission.admit(() -> CompletableFuture.completedFuture("done"));
+    }
+    assertEquals(limit, admission.limit());
+    assertTrue(metrics.render().contains("shopping_cart_admission_shed_total 0\n"));
+  }
+
+  private List<CompletableFuture<String>> fill(int count) {
+    List<CompletableFuture<String>> asks = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      CompletableFuture<String> ask = new CompletableFuture<>();
+      admission.admit(() -> ask);
+      asks.add(ask);
+    }
+    return asks;
+  }
+}
@@ -0,0 +1,86 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CartPassivationTest {
+
+  @ClassRule
+  public static final TestKitJunitResource testKit = new TestKitJunitResource();
+
+  @Test
+  public void testPassivateLeastRecentlyUsedBeyondMaxActive() {
+    ShoppingCartMetrics metrics = new ShoppingCartMetrics();
+    CartPassivation passivation = new CartPassivation(null, Duration.ofMinutes(2), 2, true, metrics);
+    TestProbe<ClusterSharding.ShardCommand> shard = testKit.createTestProbe();
+    TestProbe<ShoppingCartCommand> cart1 = testKit.createTestProbe();
+    TestProbe<ShoppingCartCommand> cart2 = testKit.createTestProbe();
+    TestProbe<ShoppingCartCommand> cart3 = testKit.createTestProbe();
+
+    passivation.activated("1", shard.getRef(), cart1.getRef());
+    passivation.activated("2", shard.getRef(), cart2.getRef());
+    // Cart 1 is used again, so cart 2 is now the least recently used
+    passivation.used("1");
+    passivation.activated("3", shard.getRef(), cart3.getRef());
+
+    ClusterSharding.ShardCommand passivate = shard.receiveMessage();
+    assertEquals(new ClusterSharding.Passivate<>(cart2.getRef()), passivate);
+    shard.expectNoMessage(Duration.ofMillis(100));
+    assertTrue(metrics.render().contains("shopping_cart_active_entities 3\n"));
+
+    passivation.stopped("2", cart2.getRef());
+    assertTrue(metrics.render().contains("shopping_cart_active_entities 2\n"));
+    assertTrue(metrics.render().contains("shopping_cart_passivations_total{reason=\"max-active\"} 1\n"));
+  }
+
+  @Test
+  public void testPassivateDownToBelowMaxActive() {
+    ShoppingCartMetrics metrics = new ShoppingCartMetrics();
+    CartPassivation passivation = new CartPassivation(null, Duration.ofMinutes(2), 20, true, metrics);
+    TestProbe<ClusterSharding.ShardCommand> shard = testKit.createTestProbe();
+    List<TestProbe<ShoppingCartCommand>> carts = new ArrayList<>();
+    for (int i = 0; i <= 20; i++) {
+      carts.add(testKit.createTestProbe());
+    }
+
+    for (int i = 0; i < 20; i++) {
+      passivation.activated(String.valueOf(i), shard.getRef(), carts.get(i).getRef());
+    }
+    // Carts 10 and 11 are now the least recently used
+    for (int i = 0; i < 10; i++) {
+      passivation.used(String.valueOf(i));
+    }
+    passivation.activated("20", shard.getRef(), carts.get(20).getRef());
+
+    // One activation passivates down to 5% below the cap
+    Set<ClusterSharding.ShardCommand> passivated = new HashSet<>(shard.receiveSeveralMessages(2));
+    assertEquals(new HashSet<>(Arrays.asList(new ClusterSharding.Passivate<>(carts.get(10).getRef()),
+        new ClusterSharding.Passivate<>(carts.get(11).getRef()))), passivated);
+    shard.expectNoMessage(Duration.ofMillis(100));
+    assertTrue(metrics.render().contains("shopping_cart_passivations_total{reason=\"max-active\"} 2\n"));
+  }
+
+  @Test
+  public void testPassivateCheckedOutCart() {
+    CartPassivation passivation = new CartPassivation(null, Duration.ofMinutes(2), 0, true, new ShoppingCartMetrics());
+    TestProbe<ClusterSharding.ShardCommand> shard = testKit.createTestProbe();
+    TestProbe<ShoppingCartCommand> cart = testKit.createTestProbe();
+
+    passivation.checkedOut(shard.getRef(), cart.getRef());
+
+    assertEquals(new ClusterSharding.Passivate<>(cart.getRef()), shard.receiveMessage());
+  }
+}
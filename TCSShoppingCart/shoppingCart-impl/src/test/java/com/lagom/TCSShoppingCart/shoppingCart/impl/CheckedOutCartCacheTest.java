@@ -0,0 +1,74 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import com.google.common.base.Ticker;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartItem;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartView;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CheckedOutCartCacheTest {
+
+  private final ShoppingCartMetrics metrics = new ShoppingCartMetrics();
+
+  private final AtomicLong nanos = new AtomicLong();
+
+  private final CheckedOutCartCache cache = new CheckedOutCartCache(ConfigFactory.parseString(
+      "shopping-cart.checked-out-cache { max-size = 2, time-to-live = 1h }"), metrics, new Ticker() {
+        @Override
+        public long read() {
+          return nanos.get();
+        }
+      });
+
+  @Test
+  public void testHitAndMiss() {
+    ShoppingCartView view = checkedOut("a");
+    cache.offer(view);
+    assertEquals(Optional.of(view), cache.get("a"));
+    assertEquals(Optional.empty(), cache.get("b"));
+    assertTrue(metrics.render().contains("shopping_cart_checked_out_cache_hits_total 1\n"));
+    assertTrue(metrics.render().contains("shopping_cart_checked_out_cache_misses_total 1\n"));
+  }
+
+  @Test
+  public void testIgnoresOpenCarts() {
+    cache.offer(new ShoppingCartView("a", Collections.singletonList(new ShoppingCartItem("apple", 1)),
+        Optional.empty(), 1));
+    assertFalse(cache.get("a").isPresent());
+  }
+
+  @Test
+  public void testKeepsAtMostMaxSizeViews() {
+    cache.offer(checkedOut("a"));
+    cache.offer(checkedOut("b"));
+    cache.offer(checkedOut("c"));
+    long cached = cache.get("a").map(v -> 1).orElse(0) + cache.get("b").map(v -> 1).orElse(0)
+        + cache.get("c").map(v -> 1).orElse(0);
+    assertTrue(cached <= 2);
+    assertTrue(cache.get("c").isPresent());
+  }
+
+  @Test
+  public void testEvictsAfterTimeToLive() {
+    cache.offer(checkedOut("a"));
+    nanos.addAndGet(TimeUnit.MINUTES.toNanos(59));
+    assertTrue(cache.get("a").isPresent());
+    nanos.addAndGet(TimeUnit.MINUTES.toNanos(2));
+    assertFalse(cache.get("a").isPresent());
+  }
+
+  private static ShoppingCartView checkedOut(String id) {
+    return new ShoppingCartView(id, Collections.singletonList(new ShoppingCartItem("apple", 1)),
+        Optional.of(Instant.ofEpochSecond(1580000000L)), 2);
+  }
+}
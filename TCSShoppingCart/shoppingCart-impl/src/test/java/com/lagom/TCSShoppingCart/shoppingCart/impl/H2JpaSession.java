@@ -0,0 +1,56 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import com.google.common.collect.ImmutableMap;
+import com.lightbend.lagom.javadsl.persistence.jpa.JpaSession;
+import org.h2.jdbcx.JdbcDataSource;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A JpaSession on a new in-memory H2 database with the report table, running
+ * every transaction on the calling thread.
+ */
+class H2JpaSession implements JpaSession, AutoCloseable {
+
+  final AtomicInteger transactions = new AtomicInteger();
+  private final EntityManagerFactory entityManagerFactory;
+
+  H2JpaSession() {
+    JdbcDataSource dataSource = new JdbcDataSource();
+    dataSource.setURL("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+    entityManagerFactory = Persistence.createEntityManagerFactory("default", ImmutableMap.of(
+        "javax.persistence.nonJtaDataSource", dataSource,
+        "hibernate.dialect", "org.hibernate.dialect.H2Dialect",
+        "hibernate.hbm2ddl.auto", "create"));
+  }
+
+  @Override
+  public <T> CompletionStage<T> withTransaction(Function<EntityManager, T> block) {
+    transactions.incrementAndGet();
+    EntityManager entityManager = entityManagerFactory.createEntityManager();
+    try {
+      entityManager.getTransaction().begin();
+      T result = block.apply(entityManager);
+      entityManager.getTransaction().commit();
+      return CompletableFuture.completedFuture(result);
+    } finally {
+      entityManager.close();
+    }
+  }
+
+  <T> T inTransaction(Function<EntityManager, T> block) {
+    return withTransaction(block).toCompletableFuture().join();
+  }
+
+  @Override
+  public void close() {
+    entityManagerFactory.close();
+  }
+}
@@ -0,0 +1,58 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import akka.japi.Pair;
+
+public class ItemCountsTest {
+
+  @Test
+  public void testCountAcrossGrowth() {
+    ItemCounts counts = new ItemCounts();
+    for (int round = 0; round < 3; round++) {
+      for (int item = 0; item < 1000; item++) {
+        counts.add("item-" + item, ItemCounts.Kind.ADDED, item);
+      }
+    }
+    counts.add("item-7", ItemCounts.Kind.REMOVED, 2);
+
+    assertEquals(1000, counts.size());
+    assertEquals(3 * 999, counts.get("item-999", ItemCounts.Kind.ADDED));
+    assertEquals(2, counts.get("item-7", ItemCounts.Kind.REMOVED));
+    assertEquals(0, counts.get("item-7", ItemCounts.Kind.ADJUSTED));
+    assertEquals(0, counts.get("unknown", ItemCounts.Kind.ADDED));
+  }
+
+  @Test
+  public void testTopOrdersByCountThenItemId() {
+    ItemCounts counts = new ItemCounts();
+    counts.add("a", 1, 0, 0);
+    counts.add("b", 5, 0, 0);
+    counts.add("c", 3, 0, 0);
+    counts.add("d", 5, 0, 0);
+    counts.add("e", 0, 4, 0);
+
+    assertEquals(Arrays.asList(Pair.create("b", 5L), Pair.create("d", 5L), Pair.create("c", 3L)),
+        counts.top(ItemCounts.Kind.ADDED, 3));
+    assertEquals(Arrays.asList(Pair.create("e", 4L)), counts.top(ItemCounts.Kind.REMOVED, 3));
+  }
+
+  @Test
+  public void testAddAll() {
+    ItemCounts total = new ItemCounts();
+    total.add("a", 1, 2, 3);
+    ItemCounts delta = new ItemCounts();
+    delta.add("a", 1, 1, 1);
+    delta.add("b", 0, 0, 1);
+
+    total.addAll(delta);
+
+    assertEquals(2, total.get("a", ItemCounts.Kind.ADDED));
+    assertEquals(4, total.get("a", ItemCounts.Kind.ADJUSTED));
+    assertEquals(1, total.get("b", ItemCounts.Kind.ADJUSTED));
+  }
+}
@@ -0,0 +1,65 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import org.junit.Test;
+import org.pcollections.HashTreePMap;
+import org.pcollections.PMap;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ItemMapTest {
+
+  @Test
+  public void testBehavesLikePersistentMap() {
+    Random random = new Random(42);
+    PMap<String, Integer> expected = HashTreePMap.empty();
+    ItemMap items = ItemMap.EMPTY;
+    for (int i = 0; i < 2000; i++) {
+      String itemId = "SKU-" + random.nextInt(100);
+      int operation = random.nextInt(3);
+      if (operation == 0) {
+        expected = expected.minus(itemId);
+        items = items.minus(itemId);
+      } else if (operation == 1) {
+        expected = expected.plus(itemId, i);
+        items = items.plus(itemId, i);
+      } else {
+        Map<String, Integer> update = new LinkedHashMap<>();
+        update.put(itemId, i);
+        update.put("SKU-" + random.nextInt(100), -i);
+        expected = expected.plusAll(update);
+        items = items.plusAll(update);
+      }
+      assertEquals(expected, items);
+      assertEquals(expected.hashCode(), items.hashCode());
+    }
+  }
+
+  @Test
+  public void testIteratesInItemIdOrder() {
+    ItemMap items = ItemMap.EMPTY.plus("pear", 2).plus("apple", 1).plus("plum", 3);
+    assertEquals(Arrays.asList("apple", "pear", "plum"), Arrays.asList(items.keySet().toArray()));
+    assertEquals(Integer.valueOf(1), items.get("apple"));
+    assertNull(items.get("kiwi"));
+    assertFalse(items.containsKey(1));
+  }
+
+  @Test
+  public void testSharesUnchangedMaps() {
+    ItemMap items = ItemMap.EMPTY.plus("apple", 1);
+    assertSame(items, items.plus("apple", 1));
+    assertSame(items, items.minus("pear"));
+    assertSame(ItemMap.EMPTY, items.minus("apple"));
+    assertSame(items, ItemMap.from(items));
+    assertSame(ItemMap.EMPTY, ItemMap.from(HashTreePMap.empty()));
+    assertTrue(ItemMap.from(HashTreePMap.singleton("apple", 1)).equals(items));
+  }
+}
@@ -0,0 +1,213 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.japi.Pair;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ItemCounts.Kind;
+import com.lightbend.lagom.javadsl.persistence.AggregateEvent;
+import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
+import com.lightbend.lagom.javadsl.persistence.Offset;
+import com.lightbend.lagom.javadsl.persistence.ReadSide;
+import com.lightbend.lagom.javadsl.persistence.ReadSideProcessor;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.pcollections.HashTreePMap;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class PopularItemsProcessorTest {
+
+  @ClassRule
+  public static final TestKitJunitResource testKit = new TestKitJunitResource();
+
+  private static final Instant T0 = Instant.ofEpochSecond(1580000000L);
+
+  private final Config config = ConfigFactory.parseString("shopping-cart.popular-items {"
+      + " flush { batch-size = 3, interval = 1m }, refresh-interval = 1h }").withFallback(ConfigFactory.load());
+  private final ShoppingCartEventTags tags = new ShoppingCartEventTags(2);
+  private final AggregateEventTag<ShoppingCartEvent> local = tags.allTags().get(0);
+  private final AggregateEventTag<ShoppingCartEvent> remote = tags.allTags().get(1);
+
+  private final H2JpaSession jpaSession = new H2JpaSession();
+  private final PopularItemCounters counters = new PopularItemCounters(new ReadSide() {
+    @Override
+    public <Event extends AggregateEvent<Event>> void register(
+        Class<? extends ReadSideProcessor<Event>> processorClass) {
+    }
+  }, jpaSession, tags, config);
+  private final PopularItemsProcessor processor = new PopularItemsProcessor(jpaSession, config, counters, tags);
+
+  @After
+  public void closeDatabase() {
+    jpaSession.close();
+  }
+
+  @Test
+  public void testPrepareLoadsStoredCountsAndOffset() throws Exception {
+    ReadSideProcessor.ReadSideHandler<ShoppingCartEvent> handler = processor.buildHandler();
+    handler.globalPrepare().toCompletableFuture().get();
+    insert(local, "apple", 10, 0, 0);
+    writeOffset(local, Offset.sequence(4));
+
+    assertEquals(Offset.sequence(4), handler.prepare(local).toCompletableFuture().get());
+    // Every tag but the local one is read from the table, there is none stored
+    assertEquals(Arrays.asList(Pair.create("apple", 10L)), top(Kind.ADDED));
+  }
+
+  @Test
+  public void testFlushesUpdateAndInsertRowsWithOffset() throws Exception {
+    ReadSideProcessor.ReadSideHandler<ShoppingCartEvent> handler = processor.buildHandler();
+    handler.globalPrepare().toCompletableFuture().get();
+    insert(local, "apple", 10, 0, 0);
+    handler.prepare(local).toCompletableFuture().get();
+
+    // Two flushes of three events: apple is updated both times, pear and plum
+    // are inserted by the first and the second
+    process(handler,
+        new ShoppingCartEvent.ItemAdded("a", "apple", 1, T0, null),
+        new ShoppingCartEvent.ItemAdded("b", "apple", 2, T0, null),
+        new ShoppingCartEvent.ItemRemoved("a", "pear", T0, null),
+        new ShoppingCartEvent.ItemAdded("c", "apple", 1, T0, null),
+        new ShoppingCartEvent.ItemQuantityAdjusted("c", "apple", 3, T0, null),
+        new ShoppingCartEvent.ItemsUpdated("b", HashTreePMap.singleton("plum", 1), HashTreePMap.empty(), T0, null));
+
+    Map<String, List<Long>> rows = rows(local);
+    assertEquals(Arrays.asList(13L, 0L, 1L), rows.get("apple"));
+    assertEquals(Arrays.asList(0L, 1L, 0L), rows.get("pear"));
+    assertEquals(Arrays.asList(1L, 0L, 0L), rows.get("plum"));
+    assertEquals(3, rows.size());
+    assertEquals(Offset.sequence(6), readOffset(local));
+    // The worker stopped with the stream, its stored counts are read back
+    assertEquals(Arrays.asList(Pair.create("apple", 13L), Pair.create("plum", 1L)), top(Kind.ADDED));
+
+    // A worker started again carries on from the stored counts and offset
+    ReadSideProcessor.ReadSideHandler<ShoppingCartEvent> restarted = processor.buildHandler();
+    assertEquals(Offset.sequence(6), restarted.prepare(local).toCompletableFuture().get());
+    assertEquals(Arrays.asList(Pair.create("apple", 13L), Pair.create("plum", 1L)), top(Kind.ADDED));
+  }
+
+  @Test
+  public void testTopMergesLocalAndRemoteCounts() throws Exception {
+    processor.buildHandler().globalPrepare().toCompletableFuture().get();
+    insert(remote, "apple", 1, 0, 0);
+    insert(remote, "pear", 5, 0, 0);
+    counters.started(local.tag(), counts("apple", 2));
+    jpaSession.transactions.set(0);
+
+    assertEquals(Arrays.asList(Pair.create("pear", 5L), Pair.create("apple", 3L)), top(Kind.ADDED));
+    assertEquals(1, jpaSession.transactions.get());
+
+    // Local flushes are merged right away, the remote counts are read again
+    // after the refresh interval only
+    counters.flushed(local.tag(), counts("apple", 4));
+    update(remote, "pear", 9);
+    jpaSession.transactions.set(0);
+    assertEquals(Arrays.asList(Pair.create("apple", 7L), Pair.create("pear", 5L)), top(Kind.ADDED));
+    assertEquals(0, jpaSession.transactions.get());
+
+    // A tag that stops here is read from the table with the remote ones
+    insert(local, "apple", 6, 0, 0);
+    counters.stopped(local.tag());
+    jpaSession.transactions.set(0);
+    assertEquals(Arrays.asList(Pair.create("pear", 9L), Pair.create("apple", 7L)), top(Kind.ADDED));
+    assertEquals(1, jpaSession.transactions.get());
+
+    // Nothing is read when every tag is processed here
+    counters.started(local.tag(), counts("apple", 6));
+    counters.started(remote.tag(), counts("pear", 9));
+    jpaSession.transactions.set(0);
+    assertEquals(Arrays.asList(Pair.create("pear", 9L), Pair.create("apple", 6L)), top(Kind.ADDED));
+    assertEquals(0, jpaSession.transactions.get());
+  }
+
+  private void process(ReadSideProcessor.ReadSideHandler<ShoppingCartEvent> handler, ShoppingCartEvent... events)
+      throws Exception {
+    List<Pair<ShoppingCartEvent, Offset>> batch = new ArrayList<>();
+    for (int i = 0; i < events.length; i++) {
+      batch.add(Pair.create(events[i], Offset.sequence(i + 1)));
+    }
+    Source.from(batch).via(handler.handle()).runWith(Sink.ignore(), Materializer.matFromSystem(testKit.system()))
+        .toCompletableFuture().get(10, TimeUnit.SECONDS);
+  }
+
+  private List<Pair<String, Long>> top(Kind kind) throws Exception {
+    return counters.top(kind, 10).toCompletableFuture().get(10, TimeUnit.SECONDS);
+  }
+
+  private static ItemCounts counts(String itemId, long added) {
+    ItemCounts counts = new ItemCounts();
+    counts.add(itemId, Kind.ADDED, added);
+    return counts;
+  }
+
+  private void insert(AggregateEventTag<ShoppingCartEvent> tag, String itemId, long added, long removed,
+      long adjusted) {
+    execute("INSERT INTO popular_item (tag, item_id, added, removed, adjusted) VALUES (?, ?, ?, ?, ?)",
+        tag.tag(), itemId, added, removed, adjusted);
+  }
+
+  private void update(AggregateEventTag<ShoppingCartEvent> tag, String itemId, long added) {
+    execute("UPDATE popular_item SET added = ? WHERE tag = ? AND item_id = ?", added, tag.tag(), itemId);
+  }
+
+  private void execute(String sql, Object... parameters) {
+    jpaSession.inTransaction(entityManager -> {
+      entityManager.unwrap(Session.class).doWork(connection -> {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+          for (int i = 0; i < parameters.length; i++) {
+            statement.setObject(i + 1, parameters[i]);
+          }
+          statement.executeUpdate();
+        }
+      });
+      return null;
+    });
+  }
+
+  private Map<String, List<Long>> rows(AggregateEventTag<ShoppingCartEvent> tag) {
+    return jpaSession.inTransaction(entityManager -> entityManager.unwrap(Session.class)
+        .doReturningWork(connection -> {
+          Map<String, List<Long>> rows = new LinkedHashMap<>();
+          try (PreparedStatement statement = connection.prepareStatement(
+              "SELECT item_id, added, removed, adjusted FROM popular_item WHERE tag = ? ORDER BY item_id")) {
+            statement.setString(1, tag.tag());
+            try (ResultSet resultSet = statement.executeQuery()) {
+              while (resultSet.next()) {
+                rows.put(resultSet.getString(1),
+                    Arrays.asList(resultSet.getLong(2), resultSet.getLong(3), resultSet.getLong(4)));
+              }
+            }
+          }
+          return rows;
+        }));
+  }
+
+  private void writeOffset(AggregateEventTag<ShoppingCartEvent> tag, Offset offset) {
+    jpaSession.inTransaction(entityManager -> {
+      entityManager.unwrap(Session.class)
+          .doWork(connection -> new ReadSideOffsetStore(config).write(connection, "popular-items", tag.tag(), offset));
+      return null;
+    });
+  }
+
+  private Offset readOffset(AggregateEventTag<ShoppingCartEvent> tag) {
+    return jpaSession.inTransaction(entityManager -> entityManager.unwrap(Session.class)
+        .doReturningWork(connection -> new ReadSideOffsetStore(config).read(connection, "popular-items", tag.tag())));
+  }
+}
@@ -4,13 +4,22 @@ import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
 import akka.actor.testkit.typed.javadsl.TestProbe;
 import akka.actor.typed.ActorRef;
 import akka.cluster.sharding.typed.javadsl.EntityContext;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartCommand.AddItem;
 import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartCommand.Hello;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartCommand.ReplaceItems;
+import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartCommand.UpdateItems;
 import com.lagom.TCSShoppingCart.shoppingCart.impl.ShoppingCartCommand.UseGreetingMessage;
 import org.junit.ClassRule;
 import org.junit.Test;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
 
+import static org.junit.Assert.assertEquals;
+
 public class ShoppingCartAggregateTest {
   private static final String inmemConfig =
       "akka.persistence.journal.plugin = \"akka.persistence.journal.inmem\" \n";
@@ -69,4 +78,129 @@ public class ShoppingCartAggregateTest {
 //      ref.tell(new Hello(id,probe2.getRef()));
 //      probe2.expectMessage(new ShoppingCartCommand.Greeting("Hi, Alice!"));
     }
+
+  @Test
+  public void testUpdateItems() {
+      String id = "Bob";
+      ActorRef<ShoppingCartCommand> ref =
+        testKit.spawn(
+          ShoppingCartAggregate.create(
+            new EntityContext(ShoppingCartAggregate.ENTITY_TYPE_KEY, id,  null)
+          )
+        );
+
+      TestProbe<ShoppingCartCommand.Confirmation> probe =
+        testKit.createTestProbe(ShoppingCartCommand.Confirmation.class);
+      ref.tell(new AddItem("apple", 1, Optional.empty(), probe.getRef()));
+      probe.expectMessageClass(ShoppingCartCommand.Accepted.class);
+
+      Map<String, Integer> items = new LinkedHashMap<>();
+      items.put("apple", 3);
+      items.put("pear", 2);
+      items.put("plum", 0);
+      ref.tell(new UpdateItems(items, Optional.empty(), probe.getRef()));
+
+      ShoppingCartCommand.ItemsAccepted accepted =
+        (ShoppingCartCommand.ItemsAccepted) probe.receiveMessage();
+      assertEquals(2, accepted.summary.items.size());
+      assertEquals(Integer.valueOf(3), accepted.summary.items.get("apple"));
+      assertEquals(Integer.valueOf(2), accepted.summary.items.get("pear"));
+      assertEquals(Collections.singleton("plum"), accepted.rejectedItems.keySet());
+  }
+
+  @Test
+  public void testReplaceItems() {
+      String id = "Erin";
+      ActorRef<ShoppingCartCommand> ref =
+        testKit.spawn(
+          ShoppingCartAggregate.create(
+            new EntityContext(ShoppingCartAggregate.ENTITY_TYPE_KEY, id,  null)
+          )
+        );
+
+      TestProbe<ShoppingCartCommand.Confirmation> probe =
+        testKit.createTestProbe(ShoppingCartCommand.Confirmation.class);
+      ref.tell(new AddItem("apple", 1, Optional.empty(), probe.getRef()));
+      ref.tell(new AddItem("pear", 1, Optional.empty(), probe.getRef()));
+      ref.tell(new AddItem("plum", 1, Optional.empty(), probe.getRef()));
+      probe.receiveSeveralMessages(3);
+
+      Map<String, Integer> items = new LinkedHashMap<>();
+      items.put("apple", 1);
+      items.put("pear", 4);
+      items.put("kiwi", 2);
+      ref.tell(new ReplaceItems(items, Optional.empty(), probe.getRef()));
+      ShoppingCartCommand.Accepted accepted = (ShoppingCartCommand.Accepted) probe.receiveMessage();
+      assertEquals(items, accepted.summary.items);
+      // plum removed, then pear adjusted and kiwi added in one event
+      assertEquals(5L, accepted.summary.sequenceNumber);
+
+      // Nothing changes, nothing is persisted
+      ref.tell(new ReplaceItems(items, Optional.empty(), probe.getRef()));
+      assertEquals(5L, ((ShoppingCartCommand.Accepted) probe.receiveMessage()).summary.sequenceNumber);
+
+      ref.tell(new ReplaceItems(Collections.singletonMap("apple", 0), Optional.empty(), probe.getRef()));
+      probe.expectMessageClass(ShoppingCartCommand.Rejected.class);
+
+      ref.tell(new ReplaceItems(Collections.emptyMap(), Optional.empty(), probe.getRef()));
+      accepted = (ShoppingCartCommand.Accepted) probe.receiveMessage();
+      assertEquals(Collections.emptyMap(), accepted.summary.items);
+      assertEquals(8L, accepted.summary.sequenceNumber);
+  }
+
+  @Test
+  public void testSummaryCarriesSequenceNumber() {
+      String id = "Carol";
+      ActorRef<ShoppingCartCommand> ref =
+        testKit.spawn(
+          ShoppingCartAggregate.create(
+            new EntityContext(ShoppingCartAggregate.ENTITY_TYPE_KEY, id,  null)
+          )
+        );
+
+      TestProbe<ShoppingCartCommand.Summary> getProbe =
+        testKit.createTestProbe(ShoppingCartCommand.Summary.class);
+      ref.tell(new ShoppingCartCommand.Get(getProbe.getRef()));
+      assertEquals(0L, getProbe.receiveMessage().sequenceNumber);
+
+      TestProbe<ShoppingCartCommand.Confirmation> probe =
+        testKit.createTestProbe(ShoppingCartCommand.Confirmation.class);
+      ref.tell(new AddItem("apple", 1, Optional.empty(), probe.getRef()));
+      ref.tell(new AddItem("pear", 1, Optional.empty(), probe.getRef()));
+      assertEquals(1L, ((ShoppingCartCommand.Accepted) probe.receiveMessage()).summary.sequenceNumber);
+      assertEquals(2L, ((ShoppingCartCommand.Accepted) probe.receiveMessage()).summary.sequenceNumber);
+
+      ref.tell(new ShoppingCartCommand.Get(getProbe.getRef()));
+      assertEquals(2L, getProbe.receiveMessage().sequenceNumber);
+  }
+
+  @Test
+  public void testRetriedCommandIsNotAppliedAgain() {
+      String id = "Dave";
+      ActorRef<ShoppingCartCommand> ref =
+        testKit.spawn(
+          ShoppingCartAggregate.create(
+            new EntityContext(ShoppingCartAggregate.ENTITY_TYPE_KEY, id,  null)
+          )
+        );
+
+      TestProbe<ShoppingCartCommand.Confirmation> probe =
+        testKit.createTestProbe(ShoppingCartCommand.Confirmation.class);
+      ref.tell(new AddItem("apple", 1, Optional.of("request-1"), probe.getRef()));
+      assertEquals(1L, ((ShoppingCartCommand.Accepted) probe.receiveMessage()).summary.sequenceNumber);
+
+      // Would be rejected as a new command, the item is already in the cart
+      ref.tell(new AddItem("apple", 1, Optional.of("request-1"), probe.getRef()));
+      ShoppingCartCommand.Accepted retried = (ShoppingCartCommand.Accepted) probe.receiveMessage();
+      assertEquals(1L, retried.summary.sequenceNumber);
+      assertEquals(Integer.valueOf(1), retried.summary.items.get("apple"));
+
+      ref.tell(new ShoppingCartCommand.Checkout(Optional.of("request-2"), probe.getRef()));
+      probe.expectMessageClass(ShoppingCartCommand.Accepted.class);
+      ref.tell(new ShoppingCartCommand.Checkout(Optional.of("request-2"), probe.getRef()));
+      assertEquals(2L, ((ShoppingCartCommand.Accepted) probe.receiveMessage()).summary.sequenceNumber);
+
+      ref.tell(new ShoppingCartCommand.Checkout(Optional.of("request-3"), probe.getRef()));
+      probe.expectMessageClass(ShoppingCartCommand.Rejected.class);
+  }
 }
@@ -0,0 +1,110 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import akka.actor.ActorSystem;
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.typed.javadsl.Adapter;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.Serializer;
+import akka.serialization.Serializers;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.pcollections.HashTreePMap;
+import org.pcollections.PMap;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ShoppingCartEventSerializerTest {
+
+  @ClassRule
+  public static final TestKitJunitResource testKit = new TestKitJunitResource(ConfigFactory.load());
+
+  private static final String CART_ID = "2d7e3a52-7c1b-4d2f-9a53-0b6f6f2f0c11";
+
+  private final ShoppingCartEventSerializer serializer = new ShoppingCartEventSerializer();
+
+  @Test
+  public void testRoundTripEvents() throws Exception {
+      PMap<String, Integer> items =
+          HashTreePMap.<String, Integer>empty().plus("SKU-00000001", 2).plus("SKU-00000002", 1);
+      for (Instant eventTime : Arrays.asList(Instant.ofEpochSecond(1580000000L),
+          Instant.ofEpochSecond(1580000000L, 123000000), Instant.ofEpochSecond(1580000000L, 123456000),
+          Instant.ofEpochSecond(1580000000L, 123456789))) {
+          for (String requestId : Arrays.asList(null, "request-1")) {
+              List<ShoppingCartEvent> events = Arrays.asList(
+                  new ShoppingCartEvent.ItemAdded(CART_ID, "SKU-00000001", 2, eventTime, requestId),
+                  new ShoppingCartEvent.ItemRemoved(CART_ID, "SKU-00000001", eventTime, requestId),
+                  new ShoppingCartEvent.ItemQuantityAdjusted(CART_ID, "SKU-00000001", 3, eventTime, requestId),
+                  new ShoppingCartEvent.ItemsUpdated(CART_ID, items, HashTreePMap.singleton("SKU-00000003", 4),
+                      eventTime, requestId),
+                  new ShoppingCartEvent.CheckedOut(CART_ID, items, eventTime, requestId));
+              for (ShoppingCartEvent event : events) {
+                  byte[] bytes = serializer.toBinary(event);
+                  assertEquals(event, serializer.fromBinary(bytes, serializer.manifest(event)));
+              }
+          }
+      }
+  }
+
+  @Test
+  public void testRoundTripCheckedOutWithoutItems() throws Exception {
+      // CheckedOut events persisted before they carried the items have none
+      ShoppingCartEvent event =
+          new ShoppingCartEvent.CheckedOut(CART_ID, null, Instant.ofEpochSecond(1580000000L), "request-1");
+      byte[] bytes = serializer.toBinary(event);
+      assertEquals(event, serializer.fromBinary(bytes, serializer.manifest(event)));
+  }
+
+  @Test
+  public void testEventsAreWrittenWithJacksonByDefault() {
+      // The binary format is only written once every node can read it
+      Serialization serialization = SerializationExtension.get(Adapter.toClassic(testKit.system()));
+      ShoppingCartEvent event = new ShoppingCartEvent.ItemAdded(CART_ID, "SKU-00000001", 2, Instant.now(), null);
+      assertEquals(31, serialization.findSerializerFor(event).identifier());
+      // but it is read
+      byte[] bytes = serializer.toBinary(event);
+      assertEquals(event, serialization.deserialize(bytes, ShoppingCartEventSerializer.IDENTIFIER,
+          serializer.manifest(event)).get());
+  }
+
+  @Test
+  public void testEventsAreBoundToBinarySerializerWhenSwitchedOn() {
+      Config config = ConfigFactory.load(
+          ConfigFactory.parseString("shopping-cart.events.serializer = shopping-cart-event")
+          .withFallback(ConfigFactory.parseResourcesAnySyntax("application")));
+      ActorSystem system = ActorSystem.create("ShoppingCartEventSerializerTest", config);
+      try {
+          Serialization serialization = SerializationExtension.get(system);
+          for (ShoppingCartEvent event : Arrays.<ShoppingCartEvent>asList(
+              new ShoppingCartEvent.ItemAdded(CART_ID, "SKU-00000001", 2, Instant.now(), null),
+              new ShoppingCartEvent.CheckedOut(CART_ID, HashTreePMap.empty(), Instant.now(), null))) {
+              assertEquals(ShoppingCartEventSerializer.IDENTIFIER, serialization.findSerializerFor(event).identifier());
+          }
+      } finally {
+          TestKit.shutdownActorSystem(system);
+      }
+  }
+
+  @Test
+  public void testReadsJsonEvents() {
+      Serialization serialization = SerializationExtension.get(Adapter.toClassic(testKit.system()));
+      ShoppingCartEvent event = new ShoppingCartEvent.ItemAdded(CART_ID, "SKU-00000001", 2,
+          Instant.ofEpochSecond(1580000000L, 123456789), null);
+
+      // Events persisted before the binary serializer was bound were written by Jackson
+      Serializer jackson = serialization.serializerByIdentity().get(31).get();
+      byte[] json = jackson.toBinary(event);
+      String manifest = Serializers.manifestFor(jackson, event);
+
+      assertEquals(event, serialization.deserialize(json, jackson.identifier(), manifest).get());
+      assertTrue(serializer.toBinary(event).length * 2 < json.length);
+  }
+}
@@ -0,0 +1,38 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ShoppingCartEventTagTest {
+
+  @Test
+  public void testTagShardsFromConfig() {
+    assertEquals(4, new ShoppingCartEventTags(ConfigFactory.load()).tagger().numShards());
+    assertEquals(32, new ShoppingCartEventTags(
+        ConfigFactory.parseString("shopping-cart.events.tag-shards = 32")).allTags().size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTagShardsMustBePositive() {
+    new ShoppingCartEventTags(ConfigFactory.parseString("shopping-cart.events.tag-shards = 0"));
+  }
+
+  @Test
+  public void testRaisedShardCountKeepsExistingTags() {
+    // Offsets are stored per tag name, raising the count must keep every existing tag
+    assertTrue(new ShoppingCartEventTags(32).allTags().containsAll(new ShoppingCartEventTags(4).allTags()));
+  }
+
+  @Test
+  public void testRaisedShardCountMovesCarts() {
+    // Later events of a cart can go to another tag than its earlier ones
+    AggregateEventTag<ShoppingCartEvent> before = new ShoppingCartEventTags(4).tagger().forEntityId("cart-5");
+    AggregateEventTag<ShoppingCartEvent> after = new ShoppingCartEventTags(32).tagger().forEntityId("cart-5");
+    assertNotEquals(before, after);
+  }
+}
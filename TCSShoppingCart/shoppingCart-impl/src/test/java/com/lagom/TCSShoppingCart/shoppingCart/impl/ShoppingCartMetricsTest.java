@@ -0,0 +1,53 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ShoppingCartMetricsTest {
+
+  @Test
+  public void testRenderLabeledCounters() {
+    ShoppingCartMetrics metrics = new ShoppingCartMetrics();
+    ShoppingCartMetrics.Counters calls = metrics.counters("calls_total", "Calls", "call", "outcome");
+    calls.labels("addItem", "accepted").add(2);
+    calls.labels("addItem", "rejected").increment();
+
+    String rendered = metrics.render();
+    assertTrue(rendered, rendered.contains("# TYPE calls_total counter\n"));
+    assertTrue(rendered, rendered.contains("calls_total{call=\"addItem\",outcome=\"accepted\"} 2\n"));
+    assertTrue(rendered, rendered.contains("calls_total{call=\"addItem\",outcome=\"rejected\"} 1\n"));
+  }
+
+  @Test
+  public void testRenderTimerInSecondsWithCumulativeBuckets() {
+    ShoppingCartMetrics metrics = new ShoppingCartMetrics();
+    ShoppingCartMetrics.Histogram duration = metrics.timers("duration_seconds", "Duration", "call").labels("get");
+    duration.record(TimeUnit.MICROSECONDS.toNanos(300));
+    duration.record(TimeUnit.MILLISECONDS.toNanos(3));
+    duration.record(TimeUnit.SECONDS.toNanos(60));
+
+    String rendered = metrics.render();
+    assertTrue(rendered, rendered.contains("# TYPE duration_seconds histogram\n"));
+    assertTrue(rendered, rendered.contains("duration_seconds_bucket{call=\"get\",le=\"0.0005\"} 1\n"));
+    assertTrue(rendered, rendered.contains("duration_seconds_bucket{call=\"get\",le=\"0.005\"} 2\n"));
+    assertTrue(rendered, rendered.contains("duration_seconds_bucket{call=\"get\",le=\"10\"} 2\n"));
+    assertTrue(rendered, rendered.contains("duration_seconds_bucket{call=\"get\",le=\"+Inf\"} 3\n"));
+    assertTrue(rendered, rendered.contains("duration_seconds_sum{call=\"get\"} 60.0033\n"));
+    assertTrue(rendered, rendered.contains("duration_seconds_count{call=\"get\"} 3\n"));
+  }
+
+  @Test
+  public void testRenderUnlabeledHistogram() {
+    ShoppingCartMetrics metrics = new ShoppingCartMetrics();
+    metrics.histograms("replayed", "Replayed", new long[] { 0, 10 }).labels().record(5);
+
+    String rendered = metrics.render();
+    assertTrue(rendered, rendered.contains("replayed_bucket{le=\"0\"} 0\n"));
+    assertTrue(rendered, rendered.contains("replayed_bucket{le=\"10\"} 1\n"));
+    assertTrue(rendered, rendered.contains("replayed_sum 5\n"));
+    assertTrue(rendered, rendered.contains("replayed_count 1\n"));
+  }
+}
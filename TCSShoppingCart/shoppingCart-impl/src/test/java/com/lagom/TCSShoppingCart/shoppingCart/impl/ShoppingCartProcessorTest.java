@@ -0,0 +1,68 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import org.junit.After;
+import org.junit.Test;
+import org.pcollections.HashTreePMap;
+
+import javax.persistence.EntityManager;
+import java.time.Instant;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+
+public class ShoppingCartProcessorTest {
+
+  private static final Instant T1 = Instant.ofEpochSecond(1580000000L);
+  private static final Instant T2 = T1.plusSeconds(60);
+  private static final Instant T3 = T1.plusSeconds(120);
+
+  private final ShoppingCartProcessor processor = new ShoppingCartProcessor(null, null, null, null);
+  private final H2JpaSession jpaSession = new H2JpaSession();
+
+  @After
+  public void closeDatabase() {
+    jpaSession.close();
+  }
+
+  @Test
+  public void testCheckoutProcessedBeforeItemAdded() {
+    inTransaction(entityManager -> processor.addCheckoutTime(entityManager,
+        new ShoppingCartEvent.CheckedOut("a", HashTreePMap.singleton("apple", 1), T3, null)));
+    ShoppingCart report = find("a");
+    assertEquals(null, report.getCreationDate());
+    assertEquals(T3, report.getCheckoutDate());
+    assertEquals(ShoppingCart.Status.CHECKED_OUT, report.getStatus());
+
+    inTransaction(entityManager -> processor.createReport(entityManager,
+        new ShoppingCartEvent.ItemAdded("a", "apple", 1, T1, null)));
+    report = find("a");
+    assertEquals(T1, report.getCreationDate());
+    assertEquals(T3, report.getCheckoutDate());
+    assertEquals(ShoppingCart.Status.CHECKED_OUT, report.getStatus());
+  }
+
+  @Test
+  public void testKeepsEarliestCreationDate() {
+    inTransaction(entityManager -> processor.createReport(entityManager,
+        new ShoppingCartEvent.ItemsUpdated("a", HashTreePMap.singleton("pear", 1), HashTreePMap.empty(), T2, null)));
+    inTransaction(entityManager -> processor.createReport(entityManager,
+        new ShoppingCartEvent.ItemAdded("a", "apple", 1, T1, null)));
+    inTransaction(entityManager -> processor.createReport(entityManager,
+        new ShoppingCartEvent.ItemAdded("a", "plum", 1, T3, null)));
+    ShoppingCart report = find("a");
+    assertEquals(T1, report.getCreationDate());
+    assertEquals(null, report.getCheckoutDate());
+    assertEquals(ShoppingCart.Status.OPEN, report.getStatus());
+  }
+
+  private void inTransaction(Consumer<EntityManager> work) {
+    jpaSession.inTransaction(entityManager -> {
+      work.accept(entityManager);
+      return null;
+    });
+  }
+
+  private ShoppingCart find(String cartId) {
+    return jpaSession.inTransaction(entityManager -> entityManager.find(ShoppingCart.class, cartId));
+  }
+}
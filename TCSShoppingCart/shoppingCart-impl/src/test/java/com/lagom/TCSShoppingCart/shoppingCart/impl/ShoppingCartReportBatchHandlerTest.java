@@ -0,0 +1,71 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import akka.japi.Pair;
+import com.lightbend.lagom.javadsl.persistence.Offset;
+import org.junit.Test;
+import org.pcollections.HashTreePMap;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ShoppingCartReportBatchHandlerTest {
+
+  private static final Instant T1 = Instant.ofEpochSecond(1580000000L);
+  private static final Instant T2 = T1.plusSeconds(60);
+  private static final Instant T3 = T1.plusSeconds(120);
+
+  @Test
+  public void testCollapsesEventsOfOneCart() {
+    Map<String, ShoppingCartReportBatchHandler.ReportRow> rows = ShoppingCartReportBatchHandler.collapse(batch(
+        new ShoppingCartEvent.ItemAdded("a", "apple", 1, T1, null),
+        new ShoppingCartEvent.ItemsUpdated("a", HashTreePMap.singleton("pear", 1), HashTreePMap.empty(), T2, null),
+        new ShoppingCartEvent.CheckedOut("a", HashTreePMap.singleton("apple", 1), T3, null)));
+    assertEquals(1, rows.size());
+    assertEquals(T1, rows.get("a").creationDate);
+    assertEquals(T3, rows.get("a").checkoutDate);
+  }
+
+  @Test
+  public void testKeepsEarliestCreationDate() {
+    Map<String, ShoppingCartReportBatchHandler.ReportRow> rows = ShoppingCartReportBatchHandler.collapse(batch(
+        new ShoppingCartEvent.ItemsUpdated("a", HashTreePMap.singleton("pear", 1), HashTreePMap.empty(), T2, null),
+        new ShoppingCartEvent.ItemAdded("a", "apple", 1, T1, null)));
+    assertEquals(T1, rows.get("a").creationDate);
+    assertNull(rows.get("a").checkoutDate);
+  }
+
+  @Test
+  public void testIgnoresUpdatesWithoutAddedItems() {
+    Map<String, ShoppingCartReportBatchHandler.ReportRow> rows = ShoppingCartReportBatchHandler.collapse(batch(
+        new ShoppingCartEvent.ItemsUpdated("a", HashTreePMap.empty(), HashTreePMap.singleton("pear", 2), T1, null),
+        new ShoppingCartEvent.ItemRemoved("b", "apple", T1, null),
+        new ShoppingCartEvent.ItemAdded("c", "apple", 1, T2, null),
+        new ShoppingCartEvent.CheckedOut("b", HashTreePMap.singleton("pear", 1), T3, null)));
+    assertEquals(Arrays.asList("c", "b"), new ArrayList<>(rows.keySet()));
+    assertNull(rows.get("b").creationDate);
+    assertEquals(T3, rows.get("b").checkoutDate);
+  }
+
+  @Test
+  public void testUpsertSqlHasOneGroupPerRow() {
+    String sql = ShoppingCartReportBatchHandler.upsertSql(3);
+    assertEquals("INSERT INTO ShoppingCart (id, creationDate, checkoutDate, status) VALUES "
+        + "(?, ?, ?, ?), (?, ?, ?, ?), (?, ?, ?, ?) ON CONFLICT (id) DO UPDATE SET",
+        sql.substring(0, sql.indexOf(" SET") + 4));
+    assertEquals(12, sql.chars().filter(c -> c == '?').count());
+  }
+
+  private static List<Pair<ShoppingCartEvent, Offset>> batch(ShoppingCartEvent... events) {
+    List<Pair<ShoppingCartEvent, Offset>> batch = new ArrayList<>();
+    for (int i = 0; i < events.length; i++) {
+      batch.add(Pair.create(events[i], Offset.sequence(i + 1)));
+    }
+    return batch;
+  }
+}
@@ -0,0 +1,194 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import com.lightbend.lagom.javadsl.persistence.AggregateEvent;
+import com.lightbend.lagom.javadsl.persistence.ReadSide;
+import com.lightbend.lagom.javadsl.persistence.ReadSideProcessor;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ShoppingCartRepositoryTest {
+
+  @ClassRule
+  public static final TestKitJunitResource testKit = new TestKitJunitResource();
+
+  private static final int PAGE_SIZE = 3;
+  private static final Instant T0 = Instant.ofEpochSecond(1580000000L);
+
+  private final H2JpaSession jpaSession = new H2JpaSession();
+  private ShoppingCartRepository repository;
+
+  @Before
+  public void createReports() {
+    ReadSide readSide = new ReadSide() {
+      @Override
+      public <Event extends AggregateEvent<Event>> void register(
+          Class<? extends ReadSideProcessor<Event>> processorClass) {
+      }
+    };
+    Config config = ConfigFactory.parseString("shopping-cart.report.export.page-size = " + PAGE_SIZE)
+        .withFallback(ConfigFactory.load());
+    repository = new ShoppingCartRepository(readSide, jpaSession, config);
+
+    // cart-00 to cart-09 created a minute apart, the odd ones checked out an hour later
+    jpaSession.inTransaction(entityManager -> {
+      for (int i = 0; i < 10; i++) {
+        ShoppingCart report = new ShoppingCart();
+        report.setId(String.format("cart-%02d", i));
+        report.setCreationDate(T0.plusSeconds(60 * i));
+        if (i % 2 == 1) {
+          report.setCheckoutDate(T0.plusSeconds(3600 + 60 * i));
+          report.setStatus(ShoppingCart.Status.CHECKED_OUT);
+        } else {
+          report.setStatus(ShoppingCart.Status.OPEN);
+        }
+        entityManager.persist(report);
+      }
+      return null;
+    });
+    jpaSession.transactions.set(0);
+  }
+
+  @After
+  public void closeDatabase() {
+    jpaSession.close();
+  }
+
+  @Test
+  public void testExportAcrossPages() throws Exception {
+    List<String> ids = export(new ShoppingCartRepository.ReportFilter(Optional.empty(), Optional.empty(),
+        Optional.empty(), Optional.empty()));
+    assertEquals(ids(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), ids);
+    // Three full pages and a last one of a single report
+    assertEquals(4, jpaSession.transactions.get());
+  }
+
+  @Test
+  public void testExportFiltersEveryPage() throws Exception {
+    // Created from cart-01 to cart-08, and checked out, filtered in the query of each page
+    List<String> ids = export(new ShoppingCartRepository.ReportFilter(Optional.of(T0.plusSeconds(60)),
+        Optional.of(T0.plusSeconds(60 * 9)), Optional.of(T0), Optional.empty()));
+    assertEquals(ids(1, 3, 5, 7), ids);
+    assertEquals(2, jpaSession.transactions.get());
+  }
+
+  @Test
+  public void testExportEndsWithEmptyPageAfterFullPage() throws Exception {
+    // Exactly two pages match, the last one is full so one more query finds nothing
+    List<String> ids = export(new ShoppingCartRepository.ReportFilter(Optional.empty(),
+        Optional.of(T0.plusSeconds(60 * 6)), Optional.empty(), Optional.empty()));
+    assertEquals(ids(0, 1, 2, 3, 4, 5), ids);
+    assertEquals(3, jpaSession.transactions.get());
+  }
+
+  @Test
+  public void testFindByStatusPages() throws Exception {
+    ShoppingCartRepository.ReportPage first = repository.findByStatus(ShoppingCart.Status.OPEN, Optional.empty(),
+        Optional.empty(), 2, Optional.empty()).toCompletableFuture().get();
+    assertEquals(ids(0, 2), ids(first));
+    ShoppingCartRepository.ReportPage second = repository.findByStatus(ShoppingCart.Status.OPEN, Optional.empty(),
+        Optional.empty(), 2, first.next).toCompletableFuture().get();
+    assertEquals(ids(4, 6), ids(second));
+    ShoppingCartRepository.ReportPage last = repository.findByStatus(ShoppingCart.Status.OPEN, Optional.empty(),
+        Optional.empty(), 2, second.next).toCompletableFuture().get();
+    assertEquals(ids(8), ids(last));
+    assertFalse(last.next.isPresent());
+  }
+
+  @Test
+  public void testFindByStatusFiltersOnDateOfStatus() throws Exception {
+    // Checked-out reports are filtered and ordered by checkout date, from inclusive and to exclusive
+    ShoppingCartRepository.ReportPage page = repository.findByStatus(ShoppingCart.Status.CHECKED_OUT,
+        Optional.of(T0.plusSeconds(3600 + 60 * 3)), Optional.of(T0.plusSeconds(3600 + 60 * 9)), 10,
+        Optional.empty()).toCompletableFuture().get();
+    assertEquals(ids(3, 5, 7), ids(page));
+    assertFalse(page.next.isPresent());
+  }
+
+  @Test
+  public void testFindByStatusContinuesWithinSameDate() throws Exception {
+    // Reports of the same date are ordered by id, a page can end between them
+    jpaSession.inTransaction(entityManager -> {
+      for (String id : new String[] { "tie-a", "tie-b", "tie-c" }) {
+        ShoppingCart report = new ShoppingCart();
+        report.setId(id);
+        report.setCreationDate(T0.minusSeconds(60));
+        report.setStatus(ShoppingCart.Status.OPEN);
+        entityManager.persist(report);
+      }
+      return null;
+    });
+    ShoppingCartRepository.ReportPage first = repository.findByStatus(ShoppingCart.Status.OPEN, Optional.empty(),
+        Optional.of(T0), 2, Optional.empty()).toCompletableFuture().get();
+    // The position comes back from the token clients pass
+    Optional<ShoppingCartRepository.ReportPosition> next = first.next
+        .map(position -> ShoppingCartRepository.ReportPosition.decode(position.encode()));
+    ShoppingCartRepository.ReportPage second = repository.findByStatus(ShoppingCart.Status.OPEN, Optional.empty(),
+        Optional.of(T0), 2, next).toCompletableFuture().get();
+    assertEquals(Arrays.asList("tie-a", "tie-b"), ids(first));
+    assertEquals(Arrays.asList("tie-c"), ids(second));
+    assertFalse(second.next.isPresent());
+  }
+
+  @Test
+  public void testPageTokenRoundTrip() {
+    ShoppingCartRepository.ReportPosition position = new ShoppingCartRepository.ReportPosition(
+        T0.plusMillis(123), "cart with spaces");
+    ShoppingCartRepository.ReportPosition decoded = ShoppingCartRepository.ReportPosition.decode(position.encode());
+    assertEquals(position.date, decoded.date);
+    assertEquals(position.id, decoded.id);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPageTokenWithoutSeparatorIsRejected() {
+    ShoppingCartRepository.ReportPosition.decode("bm9zZXBhcmF0b3I");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPageTokenWithInvalidDateIsRejected() {
+    ShoppingCartRepository.ReportPosition.decode("eWVzdGVyZGF5IGNhcnQ");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPageTokenThatIsNotBase64IsRejected() {
+    ShoppingCartRepository.ReportPosition.decode("not base64!");
+  }
+
+  private static List<String> ids(ShoppingCartRepository.ReportPage page) {
+    List<String> ids = new ArrayList<>();
+    for (ShoppingCart report : page.reports) {
+      ids.add(report.getId());
+    }
+    return ids;
+  }
+
+  private List<String> export(ShoppingCartRepository.ReportFilter filter) throws Exception {
+    return repository.export(filter).map(ShoppingCart::getId)
+        .runWith(Sink.seq(), Materializer.matFromSystem(testKit.system()))
+        .toCompletableFuture().get(5, TimeUnit.SECONDS);
+  }
+
+  private static List<String> ids(Integer... carts) {
+    List<String> ids = new ArrayList<>();
+    for (int cart : carts) {
+      ids.add(String.format("cart-%02d", cart));
+    }
+    return ids;
+  }
+}
@@ -1,5 +1,397 @@
 package com.lagom.TCSShoppingCart.shoppingCart.impl;
 
+import akka.NotUsed;
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.typed.javadsl.Adapter;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.typed.Cluster;
+import akka.cluster.typed.Join;
+import akka.japi.Pair;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartBatch;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartIds;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartItem;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartItems;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartReportPage;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartReportView;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartResult;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartView;
+import com.lightbend.lagom.javadsl.api.Descriptor;
+import com.lightbend.lagom.javadsl.api.deser.ExceptionMessage;
+import com.lightbend.lagom.javadsl.api.deser.MessageSerializer;
+import com.lightbend.lagom.javadsl.api.transport.BadRequest;
+import com.lightbend.lagom.javadsl.api.transport.MessageProtocol;
+import com.lightbend.lagom.javadsl.api.transport.RequestHeader;
+import com.lightbend.lagom.javadsl.api.transport.ResponseHeader;
+import com.lightbend.lagom.javadsl.api.transport.TransportErrorCode;
+import com.lightbend.lagom.javadsl.api.transport.TransportException;
+import com.lightbend.lagom.javadsl.persistence.ReadSide;
+import com.lightbend.lagom.javadsl.server.HeaderServiceCall;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.pcollections.HashTreePMap;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
 public class ShoppingCartServiceTest {
 
+  private static final Config config = ConfigFactory.parseString(
+      "akka.actor.provider = cluster \n"
+      + "akka.remote.artery.canonical.hostname = \"127.0.0.1\" \n"
+      + "akka.remote.artery.canonical.port = 0 \n"
+      + "akka.persistence.journal.plugin = \"akka.persistence.journal.inmem\" \n"
+      + "akka.persistence.snapshot-store.plugin = \"akka.persistence.snapshot-store.local\" \n"
+      + "akka.persistence.snapshot-store.local.dir = \"target/snapshot-" + UUID.randomUUID() + "\" \n"
+      + "shopping-cart.batch-get { max-ids = 4, parallelism = 2, deadline = 1s } \n")
+      .withFallback(ConfigFactory.load());
+
+  @ClassRule
+  public static final TestKitJunitResource testKit = new TestKitJunitResource(config);
+
+  private static final Instant T0 = Instant.ofEpochSecond(1580000000L);
+
+  private static final H2JpaSession jpaSession = new H2JpaSession();
+  private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+  private static final ShoppingCartMetrics metrics = new ShoppingCartMetrics();
+  private static ShoppingCartServiceImpl service;
+
+  @BeforeClass
+  public static void startService() {
+    Cluster cluster = Cluster.get(testKit.system());
+    cluster.manager().tell(Join.create(cluster.selfMember().address()));
+
+    // The read sides aren't started, the reports are written by the test
+    ReadSide readSide = new ReadSide() {
+      @Override
+      public <Event extends com.lightbend.lagom.javadsl.persistence.AggregateEvent<Event>> void register(
+          Class<? extends com.lightbend.lagom.javadsl.persistence.ReadSideProcessor<Event>> processorClass) {
+      }
+    };
+    ShoppingCartEventTags tags = new ShoppingCartEventTags(config);
+    service = new ShoppingCartServiceImpl(null, ClusterSharding.get(testKit.system()),
+        new ShoppingCartRepository(readSide, jpaSession, config), new CheckedOutCartCache(config, metrics),
+        new PopularItemCounters(readSide, null, tags, config), metrics, new ShoppingCartAggregateMetrics(metrics),
+        new CartPassivation(Adapter.toClassic(testKit.system()), config, metrics),
+        new AdmissionControl(config, metrics), tags, Materializer.matFromSystem(testKit.system()), config);
+
+    // Open reports created a minute apart
+    jpaSession.inTransaction(entityManager -> {
+      for (int i = 0; i < 5; i++) {
+        ShoppingCart report = new ShoppingCart();
+        report.setId("report-" + i);
+        report.setCreationDate(T0.plusSeconds(60 * i));
+        report.setStatus(ShoppingCart.Status.OPEN);
+        entityManager.persist(report);
+      }
+      return null;
+    });
+  }
+
+  @AfterClass
+  public static void closeDatabase() {
+    jpaSession.close();
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  public void testFindReportsFollowsNextPage() throws Exception {
+    List<String> ids = new ArrayList<>();
+    Optional<String> page = Optional.empty();
+    int pages = 0;
+    do {
+      ShoppingCartReportPage reports = service.findReports(Optional.of("open"),
+          Optional.of(T0.plusSeconds(60).toString()), Optional.empty(), Optional.of(2), page).invoke()
+          .toCompletableFuture().get(10, TimeUnit.SECONDS);
+      for (ShoppingCartReportView report : reports.reports) {
+        ids.add(report.id);
+      }
+      page = reports.nextPage;
+      pages++;
+    } while (page.isPresent());
+    assertEquals(Arrays.asList("report-1", "report-2", "report-3", "report-4"), ids);
+    assertEquals(2, pages);
+  }
+
+  @Test
+  public void testFindReportsRejectsInvalidParameters() throws Exception {
+    int maxPageSize = config.getInt("shopping-cart.report.query.max-page-size");
+    assertBadRequest(service.findReports(Optional.of("open"), Optional.empty(), Optional.empty(), Optional.of(0),
+        Optional.empty()));
+    assertBadRequest(service.findReports(Optional.of("open"), Optional.empty(), Optional.empty(),
+        Optional.of(maxPageSize + 1), Optional.empty()));
+    assertBadRequest(service.findReports(Optional.of("closed"), Optional.empty(), Optional.empty(),
+        Optional.empty(), Optional.empty()));
+    assertBadRequest(service.findReports(Optional.of("open"), Optional.of("yesterday"), Optional.empty(),
+        Optional.empty(), Optional.empty()));
+    assertBadRequest(service.findReports(Optional.of("open"), Optional.empty(), Optional.empty(),
+        Optional.empty(), Optional.of("not a token")));
+    // Invalid parameters are recorded with the call metrics
+    assertTrue(metrics.render().contains("calls_total{call=\"findReports\",outcome=\"rejected\"} 5\n"));
+
+    ShoppingCartReportPage largest = service.findReports(Optional.of("open"), Optional.empty(), Optional.empty(),
+        Optional.of(maxPageSize), Optional.empty()).invoke().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    assertEquals(5, largest.reports.size());
+  }
+
+  @Test
+  public void testGetWithCurrentETagIsNotModified() throws Exception {
+    String cartId = UUID.randomUUID().toString();
+    invoke(service.addItem(cartId), RequestHeader.DEFAULT, new ShoppingCartItem("apple", 1));
+
+    Pair<ResponseHeader, ShoppingCartView> current = invoke(service.get(cartId), RequestHeader.DEFAULT,
+        NotUsed.getInstance());
+    assertEquals(200, current.first().status());
+    String etag = current.first().getHeader("ETag").get();
+    assertEquals("\"" + current.second().sequenceNumber + "\"", etag);
+
+    Pair<ResponseHeader, ShoppingCartView> notModified = invoke(service.get(cartId),
+        RequestHeader.DEFAULT.withHeader("If-None-Match", etag), NotUsed.getInstance());
+    assertEquals(304, notModified.first().status());
+    assertEquals(Optional.of(etag), notModified.first().getHeader("ETag"));
+    assertNull(notModified.second());
+    // The response is written with an empty entity, not a JSON null
+    assertEquals(ByteString.emptyByteString(), responseEntity(notModified.second()));
+
+    Pair<ResponseHeader, ShoppingCartView> stale = invoke(service.get(cartId),
+        RequestHeader.DEFAULT.withHeader("If-None-Match", "\"0\""), NotUsed.getInstance());
+    assertEquals(200, stale.first().status());
+    assertEquals(current.second(), stale.second());
+  }
+
+  @Test
+  public void testGetCartsLeavesOutDuplicateIds() throws Exception {
+    String first = UUID.randomUUID().toString();
+    String second = UUID.randomUUID().toString();
+    invoke(service.addItem(second), RequestHeader.DEFAULT, new ShoppingCartItem("apple", 1));
+
+    ShoppingCartBatch batch = service.getCarts().invoke(new ShoppingCartIds(Arrays.asList(second, first, second)))
+        .toCompletableFuture().get(10, TimeUnit.SECONDS);
+    assertEquals(Arrays.asList(second, first), cartIds(batch));
+    assertEquals(Collections.singletonList(new ShoppingCartItem("apple", 1)), batch.carts.get(0).items);
+    assertTrue(batch.errors.isEmpty());
+  }
+
+  @Test
+  public void testGetCartsRejectsTooManyIds() throws Exception {
+    // The limit applies to the distinct ids
+    ShoppingCartBatch batch = service.getCarts().invoke(new ShoppingCartIds(Arrays.asList("a", "b", "c", "d", "a")))
+        .toCompletableFuture().get(10, TimeUnit.SECONDS);
+    assertEquals(4, batch.carts.size());
+
+    assertBadRequest(service.getCarts().invoke(new ShoppingCartIds(Arrays.asList("a", "b", "c", "d", "e"))));
+    assertBadRequest(service.getCarts().invoke(new ShoppingCartIds(Arrays.asList("a", null))));
+    assertTrue(metrics.render().contains("calls_total{call=\"getCarts\",outcome=\"rejected\"} 2\n"));
+  }
+
+  @Test
+  public void testStreamCartsReturnsResultPerId() throws Exception {
+    String first = UUID.randomUUID().toString();
+    String second = UUID.randomUUID().toString();
+    invoke(service.addItem(first), RequestHeader.DEFAULT, new ShoppingCartItem("apple", 1));
+
+    Source<ShoppingCartResult, NotUsed> results = service.streamCarts()
+        .invoke(new ShoppingCartIds(Arrays.asList(first, second, first))).toCompletableFuture()
+        .get(10, TimeUnit.SECONDS);
+    // The deadline of the batch is counted from when the stream is run
+    Thread.sleep(1500);
+    Map<String, ShoppingCartResult> byId = new HashMap<>();
+    for (ShoppingCartResult result : results.runWith(Sink.seq(), Materializer.matFromSystem(testKit.system()))
+        .toCompletableFuture().get(10, TimeUnit.SECONDS)) {
+      byId.put(result.id, result);
+    }
+
+    assertEquals(2, byId.size());
+    assertEquals(Optional.empty(), byId.get(first).error);
+    assertEquals(Collections.singletonList(new ShoppingCartItem("apple", 1)), byId.get(first).cart.get().items);
+    assertEquals(Optional.empty(), byId.get(second).error);
+    assertEquals(Collections.emptyList(), byId.get(second).cart.get().items);
+    assertTrue(metrics.render().contains("calls_total{call=\"streamCarts\",outcome=\"accepted\"} 1\n"));
+
+    assertBadRequest(service.streamCarts().invoke(new ShoppingCartIds(Arrays.asList("a", "b", "c", "d", "e"))));
+    assertTrue(metrics.render().contains("calls_total{call=\"streamCarts\",outcome=\"rejected\"} 1\n"));
+  }
+
+  @Test
+  public void testGetCartsKeepsRequestOrder() throws Exception {
+    // The first cart is read last, the batch is still in the order of the request
+    ConcurrentLinkedQueue<String> completed = new ConcurrentLinkedQueue<>();
+    ShoppingCartBatch batch = service.getCarts(Arrays.asList("slow", "a", "b"), (id, timeout) -> {
+      CompletableFuture<ShoppingCartCommand.Summary> summary = new CompletableFuture<>();
+      long delay = id.equals("slow") ? 200 : 0;
+      scheduler.schedule(() -> {
+        completed.add(id);
+        summary.complete(emptySummary());
+      }, delay, TimeUnit.MILLISECONDS);
+      return summary;
+    }).toCompletableFuture().get(10, TimeUnit.SECONDS);
+    assertEquals("slow", new ArrayList<>(completed).get(2));
+    assertEquals(Arrays.asList("slow", "a", "b"), cartIds(batch));
+  }
+
+  @Test
+  public void testGetCartsReturnsErrorPerId() throws Exception {
+    ShoppingCartBatch batch = service.getCarts(Arrays.asList("broken", "a", "timed-out", "b", "shed"),
+        (id, timeout) -> {
+          CompletableFuture<ShoppingCartCommand.Summary> summary = new CompletableFuture<>();
+          if (id.equals("broken")) {
+            summary.completeExceptionally(new IllegalStateException());
+          } else if (id.equals("timed-out")) {
+            summary.completeExceptionally(new TimeoutException());
+          } else if (id.equals("shed")) {
+            summary.completeExceptionally(new TransportException(TransportErrorCode.ServiceUnavailable,
+                new ExceptionMessage("ServiceUnavailable", "Too many requests in progress, retry later")));
+          } else {
+            summary.complete(emptySummary());
+          }
+          return summary;
+        }).toCompletableFuture().get(10, TimeUnit.SECONDS);
+    assertEquals(Arrays.asList("a", "b"), cartIds(batch));
+    assertEquals(Arrays.asList("broken", "timed-out", "shed"), new ArrayList<>(batch.errors.keySet()));
+    assertEquals("Failed", batch.errors.get("broken"));
+    assertEquals("Timed out", batch.errors.get("timed-out"));
+    assertEquals("Too many requests in progress, retry later", batch.errors.get("shed"));
+  }
+
+  @Test
+  public void testGetCartsCompletesByDeadline() throws Exception {
+    // Two carts don't answer and take the whole deadline, the third one isn't asked
+    ConcurrentLinkedQueue<Duration> timeouts = new ConcurrentLinkedQueue<>();
+    long started = System.nanoTime();
+    ShoppingCartBatch batch = service.getCarts(Arrays.asList("silent-1", "silent-2", "late"), (id, timeout) -> {
+      assertFalse("A cart past the deadline must not be asked", id.equals("late"));
+      timeouts.add(timeout);
+      CompletableFuture<ShoppingCartCommand.Summary> summary = new CompletableFuture<>();
+      scheduler.schedule(() -> summary.completeExceptionally(new TimeoutException()), timeout.toNanos(),
+          TimeUnit.NANOSECONDS);
+      return summary;
+    }).toCompletableFuture().get(10, TimeUnit.SECONDS);
+    long elapsed = System.nanoTime() - started;
+
+    assertTrue(batch.carts.isEmpty());
+    assertEquals("Timed out", batch.errors.get("silent-1"));
+    assertEquals("Timed out", batch.errors.get("silent-2"));
+    assertEquals("Deadline exceeded", batch.errors.get("late"));
+    // The asks get the time left until the deadline, not the usual ask timeout
+    assertEquals(2, timeouts.size());
+    for (Duration timeout : timeouts) {
+      assertTrue(timeout.compareTo(Duration.ofSeconds(1)) <= 0);
+    }
+    assertTrue(elapsed < TimeUnit.SECONDS.toNanos(5));
+  }
+
+  @Test
+  public void testDuplicateItemsAreLeftOut() {
+    ShoppingCartItems request = new ShoppingCartItems(Arrays.asList(new ShoppingCartItem("apple", 1),
+        new ShoppingCartItem("pear", 2), new ShoppingCartItem("apple", 3), new ShoppingCartItem("apple", 4)));
+    Set<String> duplicates = new LinkedHashSet<>();
+    Map<String, Integer> items = ShoppingCartServiceImpl.itemQuantities(request, duplicates);
+    assertEquals(Collections.singletonMap("pear", 2), items);
+    assertEquals(Collections.singleton("apple"), duplicates);
+  }
+
+  @Test
+  public void testCheckedOutViewFromEvent() throws Exception {
+    Instant checkedOutAt = Instant.ofEpochSecond(1580000000L);
+    ShoppingCartEvent.CheckedOut event =
+        new ShoppingCartEvent.CheckedOut("cart", HashTreePMap.singleton("apple", 2), checkedOutAt, null);
+    ShoppingCartView view = ShoppingCartServiceImpl.checkedOutView(event, cartId -> {
+      fail("The cart entity must not be asked");
+      return null;
+    }).toCompletableFuture().get();
+    assertEquals(new ShoppingCartView("cart", Collections.singletonList(new ShoppingCartItem("apple", 2)),
+        Optional.of(checkedOutAt), 0), view);
+  }
+
+  @Test
+  public void testCheckedOutViewOfEventWithoutItems() throws Exception {
+    Instant checkedOutAt = Instant.ofEpochSecond(1580000000L);
+    // Events persisted before CheckedOut carried the items
+    ShoppingCartEvent.CheckedOut event = new ShoppingCartEvent.CheckedOut("cart", null, checkedOutAt, null);
+    ShoppingCartView view = ShoppingCartServiceImpl.checkedOutView(event, cartId -> {
+      assertEquals("cart", cartId);
+      return CompletableFuture.completedFuture(new ShoppingCartCommand.Summary(
+          Collections.singletonMap("pear", 1), true, Optional.of(checkedOutAt), 7));
+    }).toCompletableFuture().get();
+    assertTrue(view.checkedOut);
+    assertEquals(Collections.singletonList(new ShoppingCartItem("pear", 1)), view.items);
+    assertEquals(7, view.sequenceNumber);
+  }
+
+  private static void assertBadRequest(com.lightbend.lagom.javadsl.api.ServiceCall<NotUsed, ?> call)
+      throws Exception {
+    assertBadRequest(call.invoke());
+  }
+
+  private static void assertBadRequest(CompletionStage<?> result) throws Exception {
+    try {
+      result.toCompletableFuture().get(10, TimeUnit.SECONDS);
+      fail("Expected a BadRequest");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof BadRequest);
+    }
+  }
+
+  private static ShoppingCartCommand.Summary emptySummary() {
+    return new ShoppingCartCommand.Summary(Collections.emptyMap(), false, Optional.empty(), 1);
+  }
+
+  private static List<String> cartIds(ShoppingCartBatch batch) {
+    List<String> ids = new ArrayList<>();
+    for (ShoppingCartView cart : batch.carts) {
+      ids.add(cart.id);
+    }
+    return ids;
+  }
+
+  private static <Request, Response> Pair<ResponseHeader, Response> invoke(
+      com.lightbend.lagom.javadsl.api.ServiceCall<Request, Response> call, RequestHeader header, Request request)
+      throws Exception {
+    return ((HeaderServiceCall<Request, Response>) call).invokeWithHeaders(header, request).toCompletableFuture()
+        .get(10, TimeUnit.SECONDS);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ByteString responseEntity(ShoppingCartView view) {
+    Descriptor descriptor = service.descriptor();
+    Descriptor.Call<?, ?> get = descriptor.calls().stream()
+        .filter(call -> call.callId() instanceof Descriptor.RestCallId
+            && ((Descriptor.RestCallId) call.callId()).pathPattern().equals("/shoppingcart/:id")
+            && ((Descriptor.RestCallId) call.callId()).method().name().equals("GET"))
+        .findFirst().get();
+    MessageSerializer<ShoppingCartView, ByteString> serializer =
+        (MessageSerializer<ShoppingCartView, ByteString>) get.responseSerializer();
+    return serializer.serializerForResponse(Collections.singletonList(new MessageProtocol())).serialize(view);
+  }
 }
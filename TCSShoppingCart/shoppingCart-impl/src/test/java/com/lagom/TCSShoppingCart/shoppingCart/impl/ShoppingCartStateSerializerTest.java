@@ -0,0 +1,149 @@
+package com.lagom.TCSShoppingCart.shoppingCart.impl;
+
+import akka.actor.ActorSystem;
+import akka.actor.testkit.typed.javadsl.TestKitJunitResource;
+import akka.actor.typed.javadsl.Adapter;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.Serializer;
+import akka.serialization.Serializers;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.time.Instant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ShoppingCartStateSerializerTest {
+
+  @ClassRule
+  public static final TestKitJunitResource testKit = new TestKitJunitResource(ConfigFactory.load());
+
+  private final ShoppingCartStateSerializer serializer = new ShoppingCartStateSerializer(true);
+
+  @Test
+  public void testRoundTripOpenCart() throws Exception {
+      ShoppingCartState state = ShoppingCartState.EMPTY.updateItem("apple", 3).updateItem("pear", 1);
+      assertEquals(state, roundTrip(state));
+  }
+
+  @Test
+  public void testRoundTripCheckedOutCart() throws Exception {
+      ShoppingCartState state = ShoppingCartState.EMPTY.updateItem("apple", 3)
+          .checkout(Instant.ofEpochSecond(1580000000L, 123456789));
+      assertEquals(state, roundTrip(state));
+  }
+
+  @Test
+  public void testRoundTripLargeCart() throws Exception {
+      ShoppingCartState state = ShoppingCartState.EMPTY;
+      for (int i = 0; i < 5000; i++) {
+          state = state.updateItem("SKU-" + i, i % 7 + 1);
+      }
+      assertEquals(state, roundTrip(state));
+  }
+
+  @Test
+  public void testRoundTripRequestIds() throws Exception {
+      ShoppingCartState state = ShoppingCartState.EMPTY;
+      for (int i = 0; i < ShoppingCartState.MAX_REQUEST_IDS + 5; i++) {
+          state = state.updateItem("SKU-" + i, 1).withRequestId("request-" + i);
+      }
+      assertEquals(ShoppingCartState.MAX_REQUEST_IDS, state.requestIds.size());
+      assertEquals("request-5", state.requestIds.get(0));
+      assertEquals(state, roundTrip(state));
+  }
+
+  @Test
+  public void testReadsVersion1Snapshots() throws Exception {
+      ShoppingCartStateSerializer version1 = new ShoppingCartStateSerializer(false);
+      ShoppingCartState state = ShoppingCartState.EMPTY.updateItem("SKU-00000002", 3).updateItem("SKU-00000001", 1)
+          .withRequestId("request-1");
+      byte[] bytes = version1.toBinary(state);
+      assertEquals(1, bytes[0]);
+      assertEquals(state, serializer.fromBinary(bytes, serializer.manifest(state)));
+  }
+
+  @Test
+  public void testFrontCodesItemIds() throws Exception {
+      ShoppingCartState state = ShoppingCartState.EMPTY;
+      for (int i = 0; i < 100; i++) {
+          state = state.updateItem(String.format("CATALOG-2020-SPRING-SKU-%08d", i), 1);
+      }
+      // Ids sharing all but a character, an empty id and one ending in a surrogate pair
+      state = state.updateItem("", 1).updateItem("SKU-\uD83D\uDE00", 2).updateItem("SKU-\uD83D\uDE01", 3);
+
+      byte[] frontCoded = serializer.toBinary(state);
+      byte[] version1 = new ShoppingCartStateSerializer(false).toBinary(state);
+      assertEquals(2, frontCoded[0]);
+      assertTrue(frontCoded.length * 4 < version1.length);
+      assertEquals(state, serializer.fromBinary(frontCoded, serializer.manifest(state)));
+  }
+
+  @Test
+  public void testStateIsWrittenWithJacksonByDefault() {
+      // The binary format is only written once every node can read it
+      Serialization serialization = SerializationExtension.get(Adapter.toClassic(testKit.system()));
+      ShoppingCartState state = ShoppingCartState.EMPTY.updateItem("apple", 3);
+      assertEquals(1000005, serialization.findSerializerFor(state).identifier());
+      // but it is read
+      byte[] bytes = serializer.toBinary(state);
+      assertEquals(state, serialization.deserialize(bytes, ShoppingCartStateSerializer.IDENTIFIER,
+          serializer.manifest(state)).get());
+  }
+
+  @Test
+  public void testReadsJsonSnapshotsWhenSwitchedOn() {
+      ShoppingCartState state = ShoppingCartState.EMPTY.updateItem("apple", 3)
+          .checkout(Instant.ofEpochSecond(1580000000L));
+      // Written before the switch
+      Serialization before = SerializationExtension.get(Adapter.toClassic(testKit.system()));
+      Serializer jackson = before.findSerializerFor(state);
+      byte[] json = jackson.toBinary(state);
+      String manifest = Serializers.manifestFor(jackson, state);
+
+      Config config = ConfigFactory.load(
+          ConfigFactory.parseString("shopping-cart.snapshots.serializer = shopping-cart-state")
+          .withFallback(ConfigFactory.parseResourcesAnySyntax("application")));
+      ActorSystem system = ActorSystem.create("ShoppingCartStateSerializerTest", config);
+      try {
+          Serialization serialization = SerializationExtension.get(system);
+          assertEquals(ShoppingCartStateSerializer.IDENTIFIER, serialization.findSerializerFor(state).identifier());
+          assertEquals(state, serialization.deserialize(json, jackson.identifier(), manifest).get());
+      } finally {
+          TestKit.shutdownActorSystem(system);
+      }
+  }
+
+  @Test
+  public void testWritesVersion1ByDefault() {
+      // Front coding is only turned on once every node can read version 2
+      Serialization serialization = SerializationExtension.get(Adapter.toClassic(testKit.system()));
+      byte[] bytes = serialization.serializerByIdentity().get(ShoppingCartStateSerializer.IDENTIFIER).get()
+          .toBinary(ShoppingCartState.EMPTY.updateItem("apple", 3));
+      assertEquals(1, bytes[0]);
+  }
+
+  @Test
+  public void testReadsJsonSnapshots() {
+      Serialization serialization = SerializationExtension.get(Adapter.toClassic(testKit.system()));
+      ShoppingCartState state = ShoppingCartState.EMPTY.updateItem("apple", 3)
+          .checkout(Instant.ofEpochSecond(1580000000L));
+
+      // Snapshots taken before the binary serializer was bound were written by Jackson
+      Serializer jackson = serialization.serializerByIdentity().get(1000005).get();
+      byte[] json = jackson.toBinary(state);
+      String manifest = Serializers.manifestFor(jackson, state);
+
+      assertEquals(state, serialization.deserialize(json, jackson.identifier(), manifest).get());
+  }
+
+  private ShoppingCartState roundTrip(ShoppingCartState state) throws Exception {
+      byte[] bytes = serializer.toBinary(state);
+      return (ShoppingCartState) serializer.fromBinary(bytes, serializer.manifest(state));
+  }
+}
@@ -2,12 +2,15 @@ package com.lagom.TCSShoppingCart.stream.api;
 
 import static com.lightbend.lagom.javadsl.api.Service.named;
 import static com.lightbend.lagom.javadsl.api.Service.namedCall;
+import static com.lightbend.lagom.javadsl.api.Service.restCall;
 
 import akka.NotUsed;
 import akka.stream.javadsl.Source;
 import com.lightbend.lagom.javadsl.api.Descriptor;
 import com.lightbend.lagom.javadsl.api.Service;
 import com.lightbend.lagom.javadsl.api.ServiceCall;
+import com.lightbend.lagom.javadsl.api.transport.Method;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartView;
 
 /**
  * The stream interface.
@@ -18,26 +21,41 @@ import com.lightbend.lagom.javadsl.api.ServiceCall;
 public interface StreamService extends Service {
 
   /**
-   * This stream is implemented by asking the hello service directly to say
-   * hello to each passed in name. It requires the hello service to be up
-   * and running to function.
+   * Streams back the view of each passed in cart id, by asking the shopping
+   * cart service directly. It requires the shopping cart service to be up and
+   * running to function.
+   * <p>
+   * Several carts are looked up at once and views are streamed back in the
+   * order the lookups complete, not in the order of the ids. A cart that can't
+   * be looked up in time is left out, so one slow cart doesn't hold up the
+   * others.
    */
-  ServiceCall<Source<String, NotUsed>, Source<String, NotUsed>> directStream();
+  ServiceCall<Source<String, NotUsed>, Source<ShoppingCartView, NotUsed>> directStream();
 
   /**
-   * This stream is implemented autonomously, it uses its own store, populated
-   * by subscribing to the events published by the hello service, to say hello
-   * to each passed in name. It can function even when the hello service is
-   * down.
+   * Streams back the view of each passed in checked-out cart id, in the order of
+   * the ids. This stream is implemented autonomously, it uses its own store,
+   * populated by subscribing to the checked-out carts published by the shopping
+   * cart service. It can function even when the shopping cart service is down.
+   * Carts that aren't in the store, such as open carts, are left out.
    */
-  ServiceCall<Source<String, NotUsed>, Source<String, NotUsed>> autonomousStream();
+  ServiceCall<Source<String, NotUsed>, Source<ShoppingCartView, NotUsed>> autonomousStream();
+
+  /**
+   * Metrics of the service node that serves the request, in the Prometheus text
+   * format.
+   * <p>
+   * Example: curl http://localhost:9000/stream/metrics
+   */
+  ServiceCall<NotUsed, String> metrics();
 
   @Override
   default Descriptor descriptor() {
     return named("stream")
             .withCalls(
               namedCall("direct-stream", this::directStream),
-              namedCall("auto-stream", this::autonomousStream)
+              namedCall("auto-stream", this::autonomousStream),
+              restCall(Method.GET, "/stream/metrics", this::metrics)
             ).withAutoAcl(true);
   }
 }
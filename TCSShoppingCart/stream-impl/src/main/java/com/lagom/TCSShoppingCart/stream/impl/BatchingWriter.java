@@ -0,0 +1,128 @@
+package com.lagom.TCSShoppingCart.stream.impl;
+
+import akka.Done;
+import akka.stream.Materializer;
+import akka.stream.OverflowStrategy;
+import akka.stream.QueueOfferResult;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.SourceQueueWithComplete;
+import com.typesafe.config.Config;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+/**
+ * Writes values in batches.
+ * <p>
+ * Values are queued and grouped into batches of up to the batch size, a batch
+ * is written at the latest after the batch interval. The writes of a batch are
+ * issued at once. Values queued meanwhile make up the next batch, so the
+ * batches grow with the write latency.
+ * <p>
+ * The writes of a batch may complete in any order, so two values of a key in
+ * one batch are collapsed: only the last one is written, and its write
+ * completes the futures of both. The {@link StreamSubscriber} never has two
+ * views of a cart in flight, as its {@link KeyPartitionedFlow} waits for the
+ * previous one to be stored, so nothing is collapsed for it. Collapsing only
+ * applies to callers that write a key again before the previous write of the
+ * key completed.
+ */
+final class BatchingWriter<T> {
+
+  private final Function<T, String> key;
+  private final Function<T, CompletionStage<Done>> write;
+  private final StreamMetrics metrics;
+  private final SourceQueueWithComplete<Pending<T>> queue;
+
+  /**
+   * @param key   the key of a value, values of the same key must be written to
+   *              the same row
+   * @param write writes one value
+   */
+  BatchingWriter(Config config, Function<T, String> key, Function<T, CompletionStage<Done>> write,
+      StreamMetrics metrics, Materializer materializer) {
+    this.key = key;
+    this.write = write;
+    this.metrics = metrics;
+    this.queue = Source.<Pending<T>>queue(config.getInt("max-pending"), OverflowStrategy.dropNew())
+        .groupedWithin(config.getInt("batch-size"), config.getDuration("batch-interval"))
+        // One batch at a time, so the values of a key are written in order
+        .mapAsync(1, this::writeBatch)
+        .to(Sink.ignore())
+        .run(materializer);
+  }
+
+  CompletionStage<Done> write(T value) {
+    Pending<T> pending = new Pending<>(value);
+    queue.offer(pending).whenComplete((result, error) -> {
+      if (error != null) {
+        pending.written.completeExceptionally(error);
+      } else if (result != QueueOfferResult.enqueued()) {
+        pending.written.completeExceptionally(new IllegalStateException("Too many writes are pending, " + result));
+      }
+    });
+    return pending.written;
+  }
+
+  private CompletionStage<Done> writeBatch(List<Pending<T>> batch) {
+    metrics.batchSize.record(batch.size());
+    Map<String, List<Pending<T>>> byKey = new LinkedHashMap<>();
+    for (Pending<T> pending : batch) {
+      byKey.computeIfAbsent(key.apply(pending.value), k -> new ArrayList<>()).add(pending);
+    }
+    metrics.collapsed.add(batch.size() - byKey.size());
+
+    long started = System.nanoTime();
+    CompletableFuture<?>[] writes = new CompletableFuture<?>[byKey.size()];
+    int i = 0;
+    for (List<Pending<T>> values : byKey.values()) {
+      writes[i++] = write(values.get(values.size() - 1).value, values).toCompletableFuture();
+    }
+    // A failed write fails its values, not the writer
+    return CompletableFuture.allOf(writes).handle((done, error) -> {
+      metrics.flushLatency.recordSince(started);
+      return Done.getInstance();
+    });
+  }
+
+  /**
+   * Write the latest value of a key and complete all the values of the key.
+   */
+  private CompletionStage<Done> write(T latest, List<Pending<T>> values) {
+    CompletionStage<Done> written;
+    try {
+      written = write.apply(latest);
+    } catch (RuntimeException e) {
+      CompletableFuture<Done> failed = new CompletableFuture<>();
+      failed.completeExceptionally(e);
+      written = failed;
+    }
+    return written.whenComplete((done, error) -> {
+      if (error != null) {
+        metrics.failed.increment();
+      }
+      for (Pending<T> pending : values) {
+        if (error != null) {
+          pending.written.completeExceptionally(error);
+        } else {
+          pending.written.complete(done);
+        }
+      }
+    });
+  }
+
+  private static final class Pending<T> {
+    final T value;
+    final CompletableFuture<Done> written = new CompletableFuture<>();
+
+    Pending(T value) {
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package com.lagom.TCSShoppingCart.stream.impl;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartService;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartView;
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Looks up carts through the shopping cart service for the direct stream.
+ * <p>
+ * Lookups of the same cart that overlap, from one stream or from several, share
+ * a single request. A lookup that fails or doesn't complete within the lookup
+ * timeout completes empty, so the stream can carry on without the cart.
+ */
+@Singleton
+public class CartLookup {
+
+  private final Logger log = LoggerFactory.getLogger(CartLookup.class);
+
+  private final ShoppingCartService shoppingCartService;
+  private final ActorSystem system;
+  private final Duration timeout;
+  private final int parallelism;
+
+  private final ConcurrentMap<String, CompletableFuture<Optional<ShoppingCartView>>> inFlight =
+      new ConcurrentHashMap<>();
+
+  @Inject
+  public CartLookup(ShoppingCartService shoppingCartService, ActorSystem system, Config config) {
+    this.shoppingCartService = shoppingCartService;
+    this.system = system;
+    this.timeout = config.getDuration("stream.direct.lookup-timeout");
+    this.parallelism = config.getInt("stream.direct.parallelism");
+  }
+
+  /**
+   * The number of carts each stream looks up at once.
+   */
+  int parallelism() {
+    return parallelism;
+  }
+
+  CompletionStage<Optional<ShoppingCartView>> lookup(String cartId) {
+    CompletableFuture<Optional<ShoppingCartView>> lookup = new CompletableFuture<>();
+    CompletableFuture<Optional<ShoppingCartView>> existing = inFlight.putIfAbsent(cartId, lookup);
+    if (existing != null) {
+      return existing;
+    }
+
+    CompletableFuture<ShoppingCartView> response = shoppingCartService.get(cartId).invoke().toCompletableFuture();
+    Cancellable timer = system.scheduler().scheduleOnce(timeout, () -> response.completeExceptionally(
+        new TimeoutException("Looking up cart " + cartId + " timed out after " + timeout)), system.dispatcher());
+    response.whenComplete((view, error) -> {
+      timer.cancel();
+      inFlight.remove(cartId, lookup);
+      if (error != null) {
+        log.warn("Leaving cart {} out of the stream: {}", cartId, error.toString());
+        lookup.complete(Optional.empty());
+      } else {
+        lookup.complete(Optional.of(view));
+      }
+    });
+    return lookup;
+  }
+}
@@ -0,0 +1,123 @@
+package com.lagom.TCSShoppingCart.stream.impl;
+
+import akka.Done;
+import akka.stream.Materializer;
+import akka.stream.OverflowStrategy;
+import akka.stream.QueueOfferResult;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.SourceQueueWithComplete;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartView;
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Node-local near cache in front of the {@link CartViewStore}.
+ * <p>
+ * The views are those of checked-out carts, which never change, so a cached
+ * view never goes stale. Cache misses are queued and read from the store in
+ * batches, one multi-key query per batch, and concurrent misses of the same
+ * cart share a single read. Carts that aren't in the store aren't cached, their
+ * view may still arrive.
+ */
+@Singleton
+public class CartViewCache {
+
+  private final Logger log = LoggerFactory.getLogger(CartViewCache.class);
+
+  private final CartViewStore store;
+  private final Cache<String, ShoppingCartView> views;
+  private final int parallelism;
+
+  private final ConcurrentMap<String, CompletableFuture<Optional<ShoppingCartView>>> pending =
+      new ConcurrentHashMap<>();
+  private final SourceQueueWithComplete<String> misses;
+
+  @Inject
+  public CartViewCache(CartViewStore store, Materializer materializer, Config config) {
+    Config cacheConfig = config.getConfig("stream.autonomous");
+    this.store = store;
+    this.views = CacheBuilder.newBuilder().maximumSize(cacheConfig.getLong("cache.max-size")).build();
+    this.parallelism = cacheConfig.getInt("parallelism");
+
+    this.misses = Source.<String>queue(cacheConfig.getInt("miss-batch.max-pending"), OverflowStrategy.dropNew())
+        .groupedWithin(cacheConfig.getInt("miss-batch.size"), cacheConfig.getDuration("miss-batch.interval"))
+        .mapAsyncUnordered(cacheConfig.getInt("miss-batch.parallelism"), this::load)
+        .to(Sink.ignore())
+        .run(materializer);
+  }
+
+  /**
+   * The number of carts each stream looks up at once.
+   */
+  int parallelism() {
+    return parallelism;
+  }
+
+  /**
+   * The view of the cart, empty if the store doesn't have it.
+   */
+  CompletionStage<Optional<ShoppingCartView>> get(String cartId) {
+    ShoppingCartView cached = views.getIfPresent(cartId);
+    if (cached != null) {
+      return CompletableFuture.completedFuture(Optional.of(cached));
+    }
+
+    CompletableFuture<Optional<ShoppingCartView>> lookup = new CompletableFuture<>();
+    CompletableFuture<Optional<ShoppingCartView>> existing = pending.putIfAbsent(cartId, lookup);
+    if (existing != null) {
+      return existing;
+    }
+    misses.offer(cartId).whenComplete((result, error) -> {
+      if (error != null || result != QueueOfferResult.enqueued()) {
+        pending.remove(cartId, lookup);
+        lookup.completeExceptionally(error != null ? error
+            : new IllegalStateException("Too many cart views are being read, " + result));
+      }
+    });
+    return lookup;
+  }
+
+  /**
+   * Store the view and cache it.
+   */
+  CompletionStage<Done> put(ShoppingCartView view) {
+    return store.put(view).thenApply(done -> {
+      views.put(view.id, view);
+      return done;
+    });
+  }
+
+  private CompletionStage<Done> load(List<String> cartIds) {
+    Set<String> distinct = new LinkedHashSet<>(cartIds);
+    log.debug("Reading {} cart views", distinct.size());
+    return store.getAll(distinct).handle((found, error) -> {
+      for (String cartId : distinct) {
+        // Cached before the lookup is removed, so a get in between doesn't miss again
+        Optional<ShoppingCartView> view = error != null ? Optional.empty() : Optional.ofNullable(found.get(cartId));
+        view.ifPresent(v -> views.put(cartId, v));
+        CompletableFuture<Optional<ShoppingCartView>> lookup = pending.remove(cartId);
+        if (lookup != null && error != null) {
+          lookup.completeExceptionally(error);
+        } else if (lookup != null) {
+          lookup.complete(view);
+        }
+      }
+      return Done.getInstance();
+    });
+  }
+}
@@ -0,0 +1,21 @@
+package com.lagom.TCSShoppingCart.stream.impl;
+
+import akka.Done;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartView;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * The local store of the cart views published by the shopping cart service.
+ */
+public interface CartViewStore {
+
+  CompletionStage<Done> put(ShoppingCartView view);
+
+  /**
+   * The views of the given carts that are in the store, by cart id.
+   */
+  CompletionStage<Map<String, ShoppingCartView>> getAll(Collection<String> cartIds);
+}
@@ -0,0 +1,54 @@
+package com.lagom.TCSShoppingCart.stream.impl;
+
+import akka.Done;
+import akka.stream.javadsl.Flow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+/**
+ * A flow that processes elements with different keys in parallel and elements
+ * with the same key one after the other, in order.
+ * <p>
+ * Elements are assigned to one of a number of lanes by the hash of their key.
+ * Each element is processed once the previous element of its lane is done, so
+ * the lanes run in parallel and each lane runs in order. The Done of each
+ * element is emitted in the order of the elements, no matter in which order
+ * the lanes complete, so it can be used to commit offsets.
+ */
+final class KeyPartitionedFlow {
+
+  private KeyPartitionedFlow() {
+  }
+
+  /**
+   * @param lanes       the number of elements processed at once, 1 processes
+   *                    one element at a time
+   * @param maxInFlight the number of elements taken in before their Done is
+   *                    emitted, elements of busy lanes wait among them
+   */
+  static <T> Flow<T, Done, ?> create(int lanes, int maxInFlight, Function<T, String> key,
+      Function<T, CompletionStage<Done>> process) {
+    if (lanes <= 1) {
+      return Flow.<T>create().mapAsync(1, process::apply);
+    }
+    // The tails are created for each materialization, so a restarted stream
+    // doesn't chain onto the failed elements of the previous one
+    return Flow.fromMaterializer((materializer, attributes) -> {
+      List<CompletionStage<Done>> tails = new ArrayList<>(
+          Collections.nCopies(lanes, CompletableFuture.completedFuture(Done.getInstance())));
+      // The function of mapAsync is only called by the stage, one element at a
+      // time, so the tails need no synchronization
+      return Flow.<T>create().mapAsync(maxInFlight, element -> {
+        int lane = Math.floorMod(key.apply(element).hashCode(), lanes);
+        CompletionStage<Done> processed = tails.get(lane).thenCompose(previous -> process.apply(element));
+        tails.set(lane, processed);
+        return processed;
+      });
+    });
+  }
+}
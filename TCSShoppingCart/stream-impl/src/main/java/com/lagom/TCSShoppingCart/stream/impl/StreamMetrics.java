@@ -0,0 +1,119 @@
+package com.lagom.TCSShoppingCart.stream.impl;
+
+import javax.inject.Singleton;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Node-local metrics of the stream service's cart view writes, rendered in the
+ * Prometheus text exposition format.
+ */
+@Singleton
+public class StreamMetrics {
+
+  private static final long[] BATCH_SIZE_BUCKETS = {1, 2, 5, 10, 25, 50, 100, 250, 500};
+
+  private static final long[] LATENCY_BUCKETS = {millis(1), millis(2), millis(5), millis(10), millis(25),
+      millis(50), millis(100), millis(250), millis(500), millis(1000), millis(2500), millis(5000)};
+
+  /**
+   * Updates taken in by each batch, before repeated updates of a cart are
+   * collapsed.
+   */
+  final Histogram batchSize = new Histogram("stream_cart_view_write_batch_size",
+      "Cart view updates written by one batch, before collapsing updates of the same cart", BATCH_SIZE_BUCKETS, 0);
+
+  /**
+   * Time from the start of writing a batch until all of its writes completed.
+   */
+  final Histogram flushLatency = new Histogram("stream_cart_view_write_flush_duration_seconds",
+      "Time to write a batch of cart views", LATENCY_BUCKETS, 9);
+
+  /**
+   * Stays 0 with the subscriber, which never writes a cart again before its
+   * previous write completed, see {@link BatchingWriter}.
+   */
+  final LongAdder collapsed = new LongAdder();
+  final LongAdder failed = new LongAdder();
+
+  public String render() {
+    StringBuilder out = new StringBuilder();
+    batchSize.writeTo(out);
+    flushLatency.writeTo(out);
+    counter(out, "stream_cart_view_updates_collapsed_total",
+        "Cart view updates replaced by a later update of the same cart in the same batch,"
+            + " 0 unless a cart is written again before its previous write completed", collapsed);
+    counter(out, "stream_cart_view_write_failures_total", "Cart view writes that failed", failed);
+    return out.toString();
+  }
+
+  private static void counter(StringBuilder out, String name, String help, LongAdder value) {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(name).append(" counter\n");
+    out.append(name).append(' ').append(value.sum()).append('\n');
+  }
+
+  private static long millis(long millis) {
+    return TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  /**
+   * A histogram with fixed buckets, recording is lock free.
+   */
+  static final class Histogram {
+    private final String name;
+    private final String help;
+    private final long[] buckets;
+    /**
+     * Number of decimal places the recorded values are shifted by when rendered.
+     */
+    private final int scale;
+    private final LongAdder[] counts;
+    private final LongAdder sum = new LongAdder();
+
+    Histogram(String name, String help, long[] buckets, int scale) {
+      this.name = name;
+      this.help = help;
+      this.buckets = buckets;
+      this.scale = scale;
+      this.counts = new LongAdder[buckets.length + 1];
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] = new LongAdder();
+      }
+    }
+
+    void record(long value) {
+      int i = 0;
+      while (i < buckets.length && value > buckets[i]) {
+        i++;
+      }
+      counts[i].increment();
+      sum.add(value);
+    }
+
+    /**
+     * Record the nanoseconds elapsed since the given {@link System#nanoTime()}.
+     */
+    void recordSince(long startNanos) {
+      record(System.nanoTime() - startNanos);
+    }
+
+    void writeTo(StringBuilder out) {
+      out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+      out.append("# TYPE ").append(name).append(" histogram\n");
+      long cumulative = 0;
+      for (int i = 0; i <= buckets.length; i++) {
+        cumulative += counts[i].sum();
+        String le = i < buckets.length ? format(buckets[i]) : "+Inf";
+        out.append(name).append("_bucket{le=\"").append(le).append("\"} ").append(cumulative).append('\n');
+      }
+      out.append(name).append("_sum ").append(format(sum.sum())).append('\n');
+      out.append(name).append("_count ").append(cumulative).append('\n');
+    }
+
+    private String format(long value) {
+      return BigDecimal.valueOf(value, scale).stripTrailingZeros().toPlainString();
+    }
+  }
+}
@@ -15,6 +15,8 @@ public class StreamModule extends AbstractModule implements ServiceGuiceSupport
     bindService(StreamService.class, StreamServiceImpl.class);
     // Bind the ShoppingCartService client
     bindClient(ShoppingCartService.class);
+    // Keep the cart views in Cassandra
+    bind(CartViewStore.class).to(StreamRepository.class);
     // Bind the subscriber eagerly to ensure it starts up
     bind(StreamSubscriber.class).asEagerSingleton();
   }
@@ -1,24 +1,51 @@
 package com.lagom.TCSShoppingCart.stream.impl;
 
 import akka.Done;
+import akka.stream.Materializer;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Row;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartItem;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartView;
 import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
+import com.typesafe.config.Config;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
+/**
+ * Stores the cart views in Cassandra, one row per cart.
+ * <p>
+ * Views are written through a {@link BatchingWriter}, so a burst of views is
+ * written in batches.
+ */
 @Singleton
-public class StreamRepository {
+public class StreamRepository implements CartViewStore {
   private final CassandraSession uninitialisedSession;
 
   // Will return the session when the Cassandra tables have been successfully created
   private volatile CompletableFuture<CassandraSession> initialisedSession;
 
+  // The prepared insert, reused for every write
+  private volatile CompletableFuture<PreparedStatement> insertStatement;
+
+  private final BatchingWriter<ShoppingCartView> writer;
+
   @Inject
-  public StreamRepository(CassandraSession uninitialisedSession) {
+  public StreamRepository(CassandraSession uninitialisedSession, Materializer materializer, Config config,
+      StreamMetrics metrics) {
     this.uninitialisedSession = uninitialisedSession;
+    this.writer = new BatchingWriter<>(config.getConfig("stream.cart-view-writes"), view -> view.id, this::insert,
+        metrics, materializer);
     // Eagerly create the session
     session();
   }
@@ -28,22 +55,65 @@ public class StreamRepository {
     // with an exception, then reinitialise the session and attempt to create the tables
     if (initialisedSession == null || initialisedSession.isCompletedExceptionally()) {
       initialisedSession = uninitialisedSession.executeCreateTable(
-          "CREATE TABLE IF NOT EXISTS greeting_message (name text PRIMARY KEY, message text)"
+          "CREATE TABLE IF NOT EXISTS cart_view (id text PRIMARY KEY, items map<text, int>, "
+              + "checkout_date timestamp, sequence_number bigint)"
       ).thenApply(done -> uninitialisedSession).toCompletableFuture();
     }
     return initialisedSession;
   }
 
-  public CompletionStage<Done> updateMessage(String name, String message) {
-    return session().thenCompose(session ->
-        session.executeWrite("INSERT INTO greeting_message (name, message) VALUES (?, ?)",
-            name, message)
-    );
+  private CompletionStage<PreparedStatement> insertStatement() {
+    // Prepare again if preparing failed, e.g. because the table wasn't created yet
+    if (insertStatement == null || insertStatement.isCompletedExceptionally()) {
+      insertStatement = session().thenCompose(session -> session.prepare(
+          "INSERT INTO cart_view (id, items, checkout_date, sequence_number) VALUES (?, ?, ?, ?)")
+      ).toCompletableFuture();
+    }
+    return insertStatement;
+  }
+
+  @Override
+  public CompletionStage<Done> put(ShoppingCartView view) {
+    return writer.write(view);
   }
 
-  public CompletionStage<Optional<String>> getMessage(String name) {
+  /**
+   * Write a view. The cart id is the partition key and the writer collapses
+   * the views of a cart, so each write of a batch is to its own partition and a
+   * single statement, there is nothing to group into a batch statement.
+   */
+  private CompletionStage<Done> insert(ShoppingCartView view) {
+    Map<String, Integer> items = new LinkedHashMap<>();
+    for (ShoppingCartItem item : view.items) {
+      items.put(item.itemId, item.quantity);
+    }
+    return insertStatement().thenCompose(insert -> session().thenCompose(session -> session.executeWrite(
+        insert.bind(view.id, items, view.checkoutDate.map(Date::from).orElse(null), view.sequenceNumber))));
+  }
+
+  @Override
+  public CompletionStage<Map<String, ShoppingCartView>> getAll(Collection<String> cartIds) {
+    // One query for all the carts, the ids are partition keys so the
+    // coordinator reads each of them from its replicas
     return session().thenCompose(session ->
-        session.selectOne("SELECT message FROM greeting_message WHERE name = ?", name)
-    ).thenApply(maybeRow -> maybeRow.map(row -> row.getString("message")));
+        session.selectAll("SELECT id, items, checkout_date, sequence_number FROM cart_view WHERE id IN ?",
+            new ArrayList<>(cartIds))
+    ).thenApply(rows -> {
+      Map<String, ShoppingCartView> views = new HashMap<>();
+      for (Row row : rows) {
+        views.put(row.getString("id"), toView(row));
+      }
+      return views;
+    });
+  }
+
+  private static ShoppingCartView toView(Row row) {
+    List<ShoppingCartItem> items = new ArrayList<>();
+    for (Map.Entry<String, Integer> item : row.getMap("items", String.class, Integer.class).entrySet()) {
+      items.add(new ShoppingCartItem(item.getKey(), item.getValue()));
+    }
+    Optional<Date> checkoutDate = Optional.ofNullable(row.getTimestamp("checkout_date"));
+    return new ShoppingCartView(row.getString("id"), items, checkoutDate.map(Date::toInstant),
+        row.getLong("sequence_number"));
   }
 }
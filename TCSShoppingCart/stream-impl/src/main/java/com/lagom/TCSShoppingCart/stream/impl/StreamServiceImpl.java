@@ -3,38 +3,58 @@ package com.lagom.TCSShoppingCart.stream.impl;
 import akka.NotUsed;
 import akka.stream.javadsl.Source;
 import com.lightbend.lagom.javadsl.api.ServiceCall;
-import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartService;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartView;
 import com.lagom.TCSShoppingCart.stream.api.StreamService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.util.Optional;
 
 import static java.util.concurrent.CompletableFuture.completedFuture;
 
 /**
- * Implementation of the HelloString.
+ * Implementation of the StreamService.
  */
 public class StreamServiceImpl implements StreamService {
 
-  private final ShoppingCartService shoppingCartService;
-  private final StreamRepository repository;
+  private final Logger log = LoggerFactory.getLogger(StreamServiceImpl.class);
+
+  private final CartLookup cartLookup;
+  private final CartViewCache cartViews;
+  private final StreamMetrics metrics;
 
   @Inject
-  public StreamServiceImpl(ShoppingCartService shoppingCartService, StreamRepository repository) {
-    this.shoppingCartService = shoppingCartService;
-    this.repository = repository;
+  public StreamServiceImpl(CartLookup cartLookup, CartViewCache cartViews, StreamMetrics metrics) {
+    this.cartLookup = cartLookup;
+    this.cartViews = cartViews;
+    this.metrics = metrics;
   }
 
-@Override
-public ServiceCall<Source<String, NotUsed>, Source<String, NotUsed>> directStream() {
-	// TODO Auto-generated method stub
-	return null;
-}
+  @Override
+  public ServiceCall<Source<String, NotUsed>, Source<ShoppingCartView, NotUsed>> directStream() {
+    // Unordered, so a slow cart only takes up one of the lookups at once and the
+    // views of the carts after it are streamed back meanwhile. The lookups in
+    // flight bound the memory a stream takes.
+    return cartIds -> completedFuture(cartIds
+        .mapAsyncUnordered(cartLookup.parallelism(), cartLookup::lookup)
+        .filter(Optional::isPresent)
+        .map(Optional::get));
+  }
 
-@Override
-public ServiceCall<Source<String, NotUsed>, Source<String, NotUsed>> autonomousStream() {
-	// TODO Auto-generated method stub
-	return null;
-}
+  @Override
+  public ServiceCall<Source<String, NotUsed>, Source<ShoppingCartView, NotUsed>> autonomousStream() {
+    return cartIds -> completedFuture(cartIds
+        .mapAsync(cartViews.parallelism(), cartId -> cartViews.get(cartId).exceptionally(error -> {
+          log.warn("Leaving cart {} out of the stream: {}", cartId, error.toString());
+          return Optional.empty();
+        }))
+        .filter(Optional::isPresent)
+        .map(Optional::get));
+  }
 
-  
+  @Override
+  public ServiceCall<NotUsed, String> metrics() {
+    return request -> completedFuture(metrics.render());
+  }
 }
@@ -1,37 +1,28 @@
 package com.lagom.TCSShoppingCart.stream.impl;
 
-import akka.Done;
-import akka.stream.javadsl.Flow;
-import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartEvent;
 import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartService;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartView;
+import com.typesafe.config.Config;
 
 import javax.inject.Inject;
-import java.util.concurrent.CompletableFuture;
 
 /**
- * This subscribes to the ShoppingCartService event stream.
+ * This subscribes to the checked-out carts published by the ShoppingCartService
+ * and keeps their views in the local store.
  */
 public class StreamSubscriber {
 
   @Inject
-  public StreamSubscriber(ShoppingCartService shoppingCartService, StreamRepository repository) {
+  public StreamSubscriber(ShoppingCartService shoppingCartService, CartViewCache cartViews, Config config) {
     // Create a subscriber
-    shoppingCartService.helloEvents().subscribe()
-      // And subscribe to it with at least once processing semantics.
+    shoppingCartService.shoppingCartTopic().subscribe()
+      // And subscribe to it with at least once processing semantics, storing a
+      // view again is harmless.
       .atLeastOnce(
-        // Create a flow that emits a Done for each message it processes
-        Flow.<ShoppingCartEvent>create().mapAsync(1, event -> {
-
-          if (event instanceof ShoppingCartEvent.GreetingMessageChanged) {
-            ShoppingCartEvent.GreetingMessageChanged messageChanged = (ShoppingCartEvent.GreetingMessageChanged) event;
-            // Update the message
-            return repository.updateMessage(messageChanged.getName(), messageChanged.getMessage());
-
-          } else {
-            // Ignore all other events
-            return CompletableFuture.completedFuture(Done.getInstance());
-          }
-        })
+        // Create a flow that emits a Done for each message it processes, in order.
+        // Views of different carts are stored in parallel, those of one cart in order.
+        KeyPartitionedFlow.<ShoppingCartView>create(config.getInt("stream.subscriber.parallelism"),
+            config.getInt("stream.subscriber.max-in-flight"), view -> view.id, cartViews::put)
       );
 
   }
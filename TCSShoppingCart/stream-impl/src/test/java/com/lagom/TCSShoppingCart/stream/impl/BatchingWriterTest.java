@@ -0,0 +1,106 @@
+package com.lagom.TCSShoppingCart.stream.impl;
+
+import akka.Done;
+import akka.actor.ActorSystem;
+import akka.japi.Pair;
+import akka.stream.Materializer;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchingWriterTest {
+
+  private static final ActorSystem system = ActorSystem.create("BatchingWriterTest");
+  private static final Materializer materializer = Materializer.matFromSystem(system);
+
+  private static final Config config = ConfigFactory.parseString(
+      "batch-size = 10, batch-interval = 100ms, max-pending = 100");
+
+  @AfterClass
+  public static void tearDown() {
+    system.terminate();
+  }
+
+  @Test
+  public void testCollapseUpdatesOfAKeyWithinABatch() throws Exception {
+    StreamMetrics metrics = new StreamMetrics();
+    List<Pair<String, Integer>> written = new ArrayList<>();
+    BatchingWriter<Pair<String, Integer>> writer = new BatchingWriter<>(config, Pair::first, value -> {
+      synchronized (written) {
+        written.add(value);
+      }
+      return CompletableFuture.completedFuture(Done.getInstance());
+    }, metrics, materializer);
+
+    List<CompletionStage<Done>> writes = new ArrayList<>();
+    for (Pair<String, Integer> value : Arrays.asList(Pair.create("a", 1), Pair.create("b", 1),
+        Pair.create("a", 2), Pair.create("a", 3))) {
+      writes.add(writer.write(value));
+    }
+    for (CompletionStage<Done> write : writes) {
+      write.toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    assertEquals(Arrays.asList(Pair.create("a", 3), Pair.create("b", 1)), written);
+    String rendered = metrics.render();
+    assertTrue(rendered, rendered.contains("stream_cart_view_write_batch_size_bucket{le=\"5\"} 1\n"));
+    assertTrue(rendered, rendered.contains("stream_cart_view_updates_collapsed_total 2\n"));
+    // The flush is timed once its writes completed, which may be after the values were
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!rendered.contains("stream_cart_view_write_flush_duration_seconds_count 1\n")
+        && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+      rendered = metrics.render();
+    }
+    assertTrue(rendered, rendered.contains("stream_cart_view_write_flush_duration_seconds_count 1\n"));
+  }
+
+  @Test
+  public void testNothingCollapsedWhenAKeyWaitsForItsWrite() throws Exception {
+    StreamMetrics metrics = new StreamMetrics();
+    BatchingWriter<Pair<String, Integer>> writer = new BatchingWriter<>(config, Pair::first,
+        value -> CompletableFuture.completedFuture(Done.getInstance()), metrics, materializer);
+
+    // As the subscriber does, a cart is only written again once its previous write completed
+    for (int i = 1; i <= 3; i++) {
+      writer.write(Pair.create("a", i)).toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    String rendered = metrics.render();
+    assertTrue(rendered, rendered.contains("stream_cart_view_updates_collapsed_total 0\n"));
+    assertTrue(rendered, rendered.contains("stream_cart_view_write_batch_size_bucket{le=\"1\"} 3\n"));
+  }
+
+  @Test
+  public void testFailOnlyTheValuesOfAFailedWrite() throws Exception {
+    StreamMetrics metrics = new StreamMetrics();
+    BatchingWriter<String> writer = new BatchingWriter<>(config, value -> value, value -> {
+      CompletableFuture<Done> write = new CompletableFuture<>();
+      if (value.equals("bad")) {
+        write.completeExceptionally(new IllegalStateException("bad"));
+      } else {
+        write.complete(Done.getInstance());
+      }
+      return write;
+    }, metrics, materializer);
+
+    CompletableFuture<Done> bad = writer.write("bad").toCompletableFuture();
+    CompletableFuture<Done> good = writer.write("good").toCompletableFuture();
+
+    assertEquals(Done.getInstance(), good.get(5, TimeUnit.SECONDS));
+    assertTrue(bad.isCompletedExceptionally());
+    assertEquals(Done.getInstance(), writer.write("after").toCompletableFuture().get(5, TimeUnit.SECONDS));
+    assertTrue(metrics.render().contains("stream_cart_view_write_failures_total 1\n"));
+  }
+}
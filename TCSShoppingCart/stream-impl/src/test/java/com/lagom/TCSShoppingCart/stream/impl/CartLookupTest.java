@@ -0,0 +1,172 @@
+package com.lagom.TCSShoppingCart.stream.impl;
+
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartItem;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartService;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartView;
+import com.lightbend.lagom.javadsl.api.ServiceCall;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CartLookupTest {
+
+  private static final ActorSystem system = ActorSystem.create("CartLookupTest");
+  private static final Materializer materializer = Materializer.matFromSystem(system);
+
+  private static final long TIMEOUT_MILLIS = 1000;
+
+  private static final Config config = ConfigFactory.parseString(
+      "stream.direct { parallelism = 2, lookup-timeout = " + TIMEOUT_MILLIS + "ms }");
+
+  @AfterClass
+  public static void tearDown() {
+    system.terminate();
+  }
+
+  @Test
+  public void testDirectStreamDoesNotStallBehindOneCart() throws Exception {
+    StubShoppingCartService carts = new StubShoppingCartService();
+    carts.answers.put("stuck", new CompletableFuture<>());
+    CompletableFuture<ShoppingCartView> failed = new CompletableFuture<>();
+    failed.completeExceptionally(new IllegalStateException("Cart service unavailable"));
+    carts.answers.put("failed", failed);
+    StreamServiceImpl service = new StreamServiceImpl(new CartLookup(carts.service(), system, config), null,
+        new StreamMetrics());
+
+    long started = System.nanoTime();
+    ConcurrentLinkedQueue<Long> arrivals = new ConcurrentLinkedQueue<>();
+    Source<ShoppingCartView, NotUsed> views = service.directStream()
+        .invoke(Source.from(Arrays.asList("stuck", "1", "failed", "2", "3")))
+        .toCompletableFuture().get();
+    List<ShoppingCartView> streamed = views
+        .map(view -> {
+          arrivals.add(System.nanoTime() - started);
+          return view;
+        })
+        .runWith(Sink.seq(), materializer).toCompletableFuture().get(5, TimeUnit.SECONDS);
+    long elapsed = System.nanoTime() - started;
+
+    // The stuck and the failed carts are left out, the others are streamed back
+    // while the stuck one takes up a lookup
+    assertEquals(Arrays.asList(view("1"), view("2"), view("3")), streamed);
+    for (long arrival : arrivals) {
+      assertTrue(arrival < TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS));
+    }
+    // The stream completes once the stuck cart is given up
+    assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS));
+    assertTrue(elapsed < TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS + 2000));
+    assertEquals(5, carts.invocations.get());
+  }
+
+  @Test
+  public void testLookupCompletesEmptyOnTimeoutAndFailure() throws Exception {
+    StubShoppingCartService carts = new StubShoppingCartService();
+    carts.answers.put("stuck", new CompletableFuture<>());
+    CompletableFuture<ShoppingCartView> failed = new CompletableFuture<>();
+    failed.completeExceptionally(new IllegalStateException("Cart service unavailable"));
+    carts.answers.put("failed", failed);
+    CartLookup lookup = new CartLookup(carts.service(), system, config);
+
+    assertEquals(Optional.empty(), lookup.lookup("failed").toCompletableFuture().get(5, TimeUnit.SECONDS));
+    long started = System.nanoTime();
+    assertEquals(Optional.empty(), lookup.lookup("stuck").toCompletableFuture().get(5, TimeUnit.SECONDS));
+    assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS));
+    assertEquals(Optional.of(view("1")), lookup.lookup("1").toCompletableFuture().get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testOverlappingLookupsShareOneRequest() throws Exception {
+    StubShoppingCartService carts = new StubShoppingCartService();
+    CompletableFuture<ShoppingCartView> slow = new CompletableFuture<>();
+    carts.answers.put("slow", slow);
+    CartLookup lookup = new CartLookup(carts.service(), system, config);
+
+    CompletionStage<Optional<ShoppingCartView>> first = lookup.lookup("slow");
+    CompletionStage<Optional<ShoppingCartView>> second = lookup.lookup("slow");
+    lookup.lookup("1");
+    assertSame(first, second);
+    assertEquals(2, carts.invocations.get());
+
+    slow.complete(view("slow"));
+    assertEquals(Optional.of(view("slow")), first.toCompletableFuture().get(5, TimeUnit.SECONDS));
+    assertEquals(Optional.of(view("slow")), second.toCompletableFuture().get(5, TimeUnit.SECONDS));
+
+    // A lookup after the request completed makes a new one
+    lookup.lookup("slow").toCompletableFuture().get(5, TimeUnit.SECONDS);
+    assertEquals(3, carts.invocations.get());
+  }
+
+  @Test
+  public void testDirectStreamSharesLookupsOfDuplicateIds() throws Exception {
+    StubShoppingCartService carts = new StubShoppingCartService();
+    CompletableFuture<ShoppingCartView> slow = new CompletableFuture<>();
+    carts.answers.put("slow", slow);
+    StreamServiceImpl service = new StreamServiceImpl(new CartLookup(carts.service(), system, config), null,
+        new StreamMetrics());
+
+    // Both lookups of the stream wait for the one request of the slow cart
+    CompletionStage<List<ShoppingCartView>> streamed = service.directStream()
+        .invoke(Source.from(Arrays.asList("slow", "slow")))
+        .thenCompose(views -> views.runWith(Sink.seq(), materializer));
+    system.scheduler().scheduleOnce(Duration.ofMillis(200), () -> slow.complete(view("slow")),
+        system.dispatcher());
+
+    assertEquals(Arrays.asList(view("slow"), view("slow")), streamed.toCompletableFuture().get(5, TimeUnit.SECONDS));
+    assertEquals(1, carts.invocations.get());
+  }
+
+  private static ShoppingCartView view(String id) {
+    return new ShoppingCartView(id, Collections.singletonList(new ShoppingCartItem("apple", 1)),
+        Optional.of(Instant.parse("2020-01-01T00:00:00Z")), 0);
+  }
+
+  /**
+   * A shopping cart service that only answers get, with the answer set for the
+   * cart or else its view right away.
+   */
+  private static final class StubShoppingCartService {
+
+    final Map<String, CompletableFuture<ShoppingCartView>> answers = new ConcurrentHashMap<>();
+    final AtomicInteger invocations = new AtomicInteger();
+
+    ShoppingCartService service() {
+      return (ShoppingCartService) Proxy.newProxyInstance(ShoppingCartService.class.getClassLoader(),
+          new Class<?>[] { ShoppingCartService.class }, (proxy, method, args) -> {
+            if (!method.getName().equals("get")) {
+              throw new UnsupportedOperationException(method.getName());
+            }
+            String cartId = (String) args[0];
+            ServiceCall<NotUsed, ShoppingCartView> get = request -> {
+              invocations.incrementAndGet();
+              return answers.getOrDefault(cartId, CompletableFuture.completedFuture(view(cartId)));
+            };
+            return get;
+          });
+    }
+  }
+}
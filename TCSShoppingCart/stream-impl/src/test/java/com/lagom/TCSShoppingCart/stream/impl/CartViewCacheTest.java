@@ -0,0 +1,74 @@
+package com.lagom.TCSShoppingCart.stream.impl;
+
+import akka.actor.ActorSystem;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartItem;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartView;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class CartViewCacheTest {
+
+  private static final ActorSystem system = ActorSystem.create("CartViewCacheTest");
+  private static final Materializer materializer = Materializer.matFromSystem(system);
+
+  private static final Config config = ConfigFactory.parseString(
+      "stream.autonomous { parallelism = 16, cache.max-size = 100, miss-batch { size = 10, interval = 50ms, "
+          + "parallelism = 1, max-pending = 100 } }");
+
+  @AfterClass
+  public static void tearDown() {
+    system.terminate();
+  }
+
+  @Test
+  public void testStreamCartViewsWithBatchedMisses() throws Exception {
+    InMemoryCartViewStore store = new InMemoryCartViewStore();
+    CartViewCache cache = new CartViewCache(store, materializer, config);
+    StreamServiceImpl service = new StreamServiceImpl(null, cache, new StreamMetrics());
+    cache.put(view("cached")).toCompletableFuture().get();
+    store.put(view("1"));
+    store.put(view("2"));
+
+    Source<ShoppingCartView, ?> views = service.autonomousStream()
+        .invoke(Source.from(Arrays.asList("1", "cached", "open", "2", "1")))
+        .toCompletableFuture().get();
+    List<ShoppingCartView> streamed = views.runWith(Sink.seq(), materializer)
+        .toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+    // In the order of the ids, the cart that isn't in the store is left out
+    assertEquals(Arrays.asList(view("1"), view("cached"), view("2"), view("1")), streamed);
+    // The misses were read with one query, the cart looked up twice only once
+    assertEquals(Collections.singletonList(Arrays.asList("1", "open", "2")), store.queries);
+  }
+
+  @Test
+  public void testServeCachedViewsWithoutTheStore() throws Exception {
+    InMemoryCartViewStore store = new InMemoryCartViewStore();
+    CartViewCache cache = new CartViewCache(store, materializer, config);
+    store.put(view("1"));
+
+    assertEquals(Optional.of(view("1")), cache.get("1").toCompletableFuture().get(5, TimeUnit.SECONDS));
+    assertEquals(Optional.of(view("1")), cache.get("1").toCompletableFuture().get(5, TimeUnit.SECONDS));
+
+    assertEquals(1, store.queries.size());
+  }
+
+  private static ShoppingCartView view(String id) {
+    return new ShoppingCartView(id, Collections.singletonList(new ShoppingCartItem("apple", 1)),
+        Optional.of(Instant.parse("2020-01-01T00:00:00Z")), 0);
+  }
+}
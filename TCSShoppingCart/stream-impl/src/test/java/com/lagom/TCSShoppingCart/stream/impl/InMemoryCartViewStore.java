@@ -0,0 +1,41 @@
+package com.lagom.TCSShoppingCart.stream.impl;
+
+import akka.Done;
+import com.lagom.TCSShoppingCart.shoppingCart.api.ShoppingCartView;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process stand-in for the Cassandra store, it records the keys of every
+ * multi-key query.
+ */
+class InMemoryCartViewStore implements CartViewStore {
+
+  private final Map<String, ShoppingCartView> views = new ConcurrentHashMap<>();
+  final List<Collection<String>> queries = new ArrayList<>();
+
+  @Override
+  public CompletionStage<Done> put(ShoppingCartView view) {
+    views.put(view.id, view);
+    return CompletableFuture.completedFuture(Done.getInstance());
+  }
+
+  @Override
+  public synchronized CompletionStage<Map<String, ShoppingCartView>> getAll(Collection<String> cartIds) {
+    queries.add(new ArrayList<>(cartIds));
+    Map<String, ShoppingCartView> found = new HashMap<>();
+    for (String cartId : cartIds) {
+      if (views.containsKey(cartId)) {
+        found.put(cartId, views.get(cartId));
+      }
+    }
+    return CompletableFuture.completedFuture(found);
+  }
+}
@@ -0,0 +1,74 @@
+package com.lagom.TCSShoppingCart.stream.impl;
+
+import akka.Done;
+import akka.actor.ActorSystem;
+import akka.japi.Pair;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KeyPartitionedFlowTest {
+
+  private static final ActorSystem system = ActorSystem.create("KeyPartitionedFlowTest");
+  private static final Materializer materializer = Materializer.matFromSystem(system);
+
+  @AfterClass
+  public static void tearDown() {
+    system.terminate();
+  }
+
+  @Test
+  public void testProcessKeysInParallelAndEachKeyInOrder() throws Exception {
+    List<Pair<String, Integer>> elements = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      elements.add(Pair.create("cart-" + (i % 10), i));
+    }
+    Map<String, List<Integer>> processed = new ConcurrentHashMap<>();
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+
+    List<Done> done = Source.from(elements)
+        .via(KeyPartitionedFlow.<Pair<String, Integer>>create(4, 16, Pair::first, element -> {
+          maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+          return CompletableFuture.supplyAsync(() -> {
+            sleep(1 + element.second() % 3);
+            processed.computeIfAbsent(element.first(), key -> new ArrayList<>()).add(element.second());
+            running.decrementAndGet();
+            return Done.getInstance();
+          });
+        }))
+        .runWith(Sink.seq(), materializer).toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+    assertEquals(200, done.size());
+    for (int cart = 0; cart < 10; cart++) {
+      List<Integer> expected = new ArrayList<>();
+      for (int i = cart; i < 200; i += 10) {
+        expected.add(i);
+      }
+      assertEquals(expected, processed.get("cart-" + cart));
+    }
+    assertTrue("Lanes ran in parallel", maxRunning.get() > 1);
+    assertTrue("At most one element per lane ran at once", maxRunning.get() <= 4);
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}